@@ -0,0 +1,104 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JfrSortEvents.java - the sassort.Sort and sassort.SortTask Java Flight Recorder events of {@link SortMetrics}
+ * <p>
+ * {@link SortEvents#get()} returns these when this class is on the class path.  Every sort and every task gets an
+ * event object, but like any JFR event it costs next to nothing unless a recording enables it, and the fields are
+ * only filled in for events that will be committed.
+ */
+public class JfrSortEvents extends SortEvents
+{
+    public JfrSortEvents()
+    {
+    }
+
+    @Override
+    public boolean isRecorded()
+    {
+        return true;
+    }
+
+    @Override
+    public Object beginSort()
+    {
+        SortEvent event = new SortEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endSort(Object event, Object arr, int length, int runs)
+    {
+        SortEvent sort = (SortEvent)event;
+        if ( sort.shouldCommit() )
+        {
+            sort.elementType = elementType(arr);
+            sort.length = length;
+            sort.runs = runs;
+            sort.commit();
+        }
+    }
+
+    @Override
+    public Object beginTask()
+    {
+        SortTaskEvent event = new SortTaskEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endTask(Object event, SortMetrics.Phase phase, long queueWait)
+    {
+        SortTaskEvent task = (SortTaskEvent)event;
+        if ( task.shouldCommit() )
+        {
+            task.phase = phase.toString();
+            task.queueWait = queueWait;
+            task.commit();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "jfr";
+    }
+
+    @Name("sassort.Sort")
+    @Label("Parallel Sort")
+    @Category("Parallel Sort")
+    @Description("A Prototype4 sort through the segment and merge tree")
+    static class SortEvent extends Event
+    {
+        @Label("Element Type")
+        String elementType;
+
+        @Label("Length")
+        int length;
+
+        @Label("Runs")
+        @Description("The segments sorted and merged, or the natural runs merged")
+        int runs;
+    }
+
+    @Name("sassort.SortTask")
+    @Label("Parallel Sort Task")
+    @Category("Parallel Sort")
+    @Description("A Sorter, Merger or Copier task of a Prototype4 sort")
+    static class SortTaskEvent extends Event
+    {
+        @Label("Phase")
+        String phase;
+
+        @Label("Queue Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueWait;
+    }
+}
@@ -0,0 +1,74 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Test program for {@link JfrSortEvents}.  After mvn -B package in the parent directory, run it from the jfr
+ * directory with
+ * <pre>
+ * java -cp target/classes:target/test-classes:../engine/target/test-engine-0.0.1-SNAPSHOT.jar TestJfrEvents
+ * </pre>
+ * <p>
+ * Checks that {@link SortEvents#get()} picks the flight recorder events, and that a JFR recording of two sorts with
+ * a {@link SortMetrics} gets a sassort.Sort event per sort and a sassort.SortTask event per task.
+ */
+public class TestJfrEvents
+{
+    public void checkTest() throws Exception
+    {
+        if ( !SortEvents.get().isRecorded() )
+        {
+            throw new RuntimeException( "SortEvents.get() returned " + SortEvents.get() + " with JfrSortEvents on the class path" );
+        }
+
+        int dataSize = 1000000;
+        Prototype4 p = new Prototype4();
+        SortMetrics metrics = new SortMetrics();
+        p.setMetrics( metrics );
+
+        Path file = Files.createTempFile( "psort", ".jfr" );
+
+        try (Recording recording = new Recording())
+        {
+            recording.enable( "sassort.Sort" );
+            recording.enable( "sassort.SortTask" );
+            recording.start();
+
+            p.psort( new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize ) );
+            p.psort( new InputGenerator(dataSize).longs( InputGenerator.Distribution.UNIFORM, dataSize ) );
+
+            recording.stop();
+            recording.dump( file );
+
+            Map<String, Integer> events = new HashMap<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents( file ))
+            {
+                events.merge( event.getEventType().getName(), 1, Integer::sum );
+            }
+
+            System.out.println( "events: " + SortEvents.get() + ", JFR events: " + events );
+
+            if ( events.getOrDefault( "sassort.Sort", 0 ) != 2 || events.getOrDefault( "sassort.SortTask", 0 ) != metrics.getTasks() )
+            {
+                throw new RuntimeException( "wrong JFR events: " + events + " for " + metrics );
+            }
+        }
+        finally
+        {
+            Files.delete( file );
+            p.shutdown();
+        }
+
+        System.out.println("jfr check OK");
+    }
+
+    static public void main(String[] args) throws Exception
+    {
+        new TestJfrEvents().checkTest();
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+import bench.Engine;
+import bench.MergeKernel;
+
+/**
+ * Engines.java - adapters from the default package sort engines to {@link Engine} and merge kernels to
+ * {@link MergeKernel} for the JMH benchmarks, and the benchmark inputs from {@link InputGenerator}.
+ */
+public class Engines
+{
+    static public Engine create(String name, int segmentSize)
+    {
+        if ( name.equals( "Prototype3" ) )
+        {
+            final Prototype3 p = new Prototype3();
+            if ( segmentSize > 0 )
+            {
+                p.setSegmentSize( segmentSize );
+            }
+            return new Engine()
+            {
+                public void sort(int[] arr)
+                {
+                    p.psort( arr );
+                }
+
+                public void shutdown()
+                {
+                    p.shutdown();
+                }
+            };
+        }
+        else if ( name.equals( "Prototype4" ) || name.equals( "Prototype5" ) )
+        {
+            final Prototype4 p = name.equals( "Prototype5" ) ? new Prototype5() : new Prototype4();
+            return new Engine()
+            {
+                public void sort(int[] arr)
+                {
+                    p.psort( arr );
+                }
+
+                public void shutdown()
+                {
+                    p.shutdown();
+                }
+            };
+        }
+        else if ( name.equals( "Arrays.sort" ) )
+        {
+            return new Engine()
+            {
+                public void sort(int[] arr)
+                {
+                    Arrays.sort( arr );
+                }
+
+                public void shutdown()
+                {
+                }
+            };
+        }
+        else if ( name.equals( "Arrays.parallelSort" ) )
+        {
+            return new Engine()
+            {
+                public void sort(int[] arr)
+                {
+                    Arrays.parallelSort( arr );
+                }
+
+                public void shutdown()
+                {
+                }
+            };
+        }
+        throw new IllegalArgumentException("unknown engine: " + name);
+    }
+
+    static public MergeKernel createMergeKernel(String name)
+    {
+        if ( name.equals( "branching" ) )
+        {
+            return new MergeKernel()
+            {
+                public void merge(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+                {
+                    ParallelMerge.mergeBranching( src, dst, offset1, len1, offset2, len2, dstOffset );
+                }
+            };
+        }
+        else if ( name.equals( "branch-free" ) )
+        {
+            return new MergeKernel()
+            {
+                public void merge(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+                {
+                    ParallelMerge.merge( src, dst, offset1, len1, offset2, len2, dstOffset );
+                }
+            };
+        }
+        throw new IllegalArgumentException("unknown merge kernel: " + name);
+    }
+
+    static public int[] generate(String distribution, int size, long seed)
+    {
+        return new InputGenerator(seed).ints(InputGenerator.Distribution.forLabel(distribution), size);
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkMain.java - main class of benchmarks.jar
+ * <p>
+ * Takes the usual JMH command line (listing and help go straight to JMH's own Main), and unless it says otherwise
+ * adds the GC profiler (GC counts and time, and allocation per operation as gc.alloc.rate.norm) and writes JSON
+ * results to jmh-result.json.
+ */
+public class BenchmarkMain
+{
+    static public void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        if ( commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats() )
+        {
+            Main.main(args);
+            return;
+        }
+
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+
+        if ( commandLine.getProfilers().isEmpty() )
+        {
+            builder.addProfiler(GCProfiler.class);
+        }
+        if ( !commandLine.getResultFormat().hasValue() )
+        {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if ( !commandLine.getResult().hasValue() )
+        {
+            builder.result("jmh-result.json");
+        }
+
+        Options options = builder.build();
+        try
+        {
+            new Runner(options).run();
+        }
+        catch ( RunnerException ex )
+        {
+            System.err.println("Benchmarks failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
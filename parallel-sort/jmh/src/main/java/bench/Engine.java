@@ -0,0 +1,31 @@
+package bench;
+
+/**
+ * Engine.java - a sort engine as seen by the benchmarks
+ * <p>
+ * The engines live in the default package, which the benchmarks (and the code JMH generates for them) can't
+ * import.  The default package {@code Engines} class wraps each of them in one of these, and {@link #create}
+ * looks it up once per trial, so the measured calls are plain interface calls.
+ */
+public interface Engine
+{
+    void sort(int[] arr);
+
+    void shutdown();
+
+    /**
+     * Creates an engine by name: Prototype3, Prototype4, Prototype5, Arrays.sort or Arrays.parallelSort.
+     * @param segmentSize the Prototype3 segment size, or 0 for the default; ignored by the other engines
+     */
+    static Engine create(String name, int segmentSize)
+    {
+        try
+        {
+            return (Engine)Class.forName("Engines").getMethod("create", String.class, int.class).invoke(null, name, segmentSize);
+        }
+        catch ( ReflectiveOperationException ex )
+        {
+            throw new IllegalStateException("can't create engine " + name + ": " + ex, ex);
+        }
+    }
+}
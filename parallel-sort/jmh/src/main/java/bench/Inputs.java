@@ -0,0 +1,42 @@
+package bench;
+
+/**
+ * Inputs.java - benchmark input arrays, generated once per trial from a fixed seed
+ */
+final class Inputs
+{
+    private Inputs()
+    {
+    }
+
+    /**
+     * Returns size ints with the named InputGenerator distribution: uniform, zipf, few-unique, sorted, reversed,
+     * nearly-sorted, organ-pipe, sawtooth or quicksort-killer.  InputGenerator is in the default package, so it is
+     * reached through the default package Engines adapter, as the engines are.
+     */
+    static int[] generate(String distribution, int size, long seed)
+    {
+        try
+        {
+            return (int[])Class.forName("Engines").getMethod("generate", String.class, int.class, long.class).invoke(null, distribution, size, seed);
+        }
+        catch ( ReflectiveOperationException ex )
+        {
+            throw new IllegalStateException("can't generate " + distribution + " input: " + ex, ex);
+        }
+    }
+
+    /**
+     * Throws if arr isn't in ascending order, so a broken engine can't produce a fast but meaningless score.
+     */
+    static void checkSorted(int[] arr, String engine)
+    {
+        for (int d = 1; d < arr.length; d++)
+        {
+            if ( arr[d - 1] > arr[d] )
+            {
+                throw new IllegalStateException("bad data in sorted result at index=" + d + ", engine=" + engine);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MergeBenchmark.java - the int merge kernel (branch-free, with a branch for patterned runs) against the old
+ * branching loop
+ * <p>
+ * Each invocation merges the two sorted halves of the input into a second array.  The score is in elements merged
+ * per nanosecond (one operation per element).  The merge reads and writes whole arrays, so the input is not reset
+ * between invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class MergeBenchmark
+{
+    static final private int SIZE = 1000000;
+
+    @Param({ "branching", "branch-free" })
+    public String kernel;
+
+    @Param({ "uniform", "zipf", "few-unique", "sorted", "reversed", "nearly-sorted", "organ-pipe", "sawtooth", "quicksort-killer" })
+    public String distribution;
+
+    private int[] src;
+    private int[] dst;
+    private MergeKernel merger;
+
+    @Setup(Level.Trial)
+    public void createInput()
+    {
+        src = Inputs.generate(distribution, SIZE, SIZE);
+        Arrays.sort( src, 0, SIZE / 2 );
+        Arrays.sort( src, SIZE / 2, SIZE );
+        dst = new int[SIZE];
+        merger = MergeKernel.create(kernel);
+    }
+
+    @TearDown(Level.Iteration)
+    public void check()
+    {
+        Inputs.checkSorted(dst, kernel);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public int[] merge()
+    {
+        merger.merge(src, dst, 0, SIZE / 2, SIZE / 2, SIZE - SIZE / 2, 0);
+        return dst;
+    }
+}
@@ -0,0 +1,25 @@
+package bench;
+
+/**
+ * MergeKernel.java - an int merge kernel of the default package ParallelMerge as seen by the benchmarks; see
+ * {@link Engine} for why this goes through the Engines adapter.
+ */
+public interface MergeKernel
+{
+    void merge(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset);
+
+    /**
+     * Creates a kernel by name: branching (the old loop) or branch-free.
+     */
+    static MergeKernel create(String name)
+    {
+        try
+        {
+            return (MergeKernel)Class.forName("Engines").getMethod("createMergeKernel", String.class).invoke(null, name);
+        }
+        catch ( ReflectiveOperationException ex )
+        {
+            throw new IllegalStateException("can't create merge kernel " + name + ": " + ex, ex);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SegmentSizeBenchmark.java - Prototype3 with each segment size, as in Test3
+ * <p>
+ * Only Prototype3 has a segment size, so it gets a benchmark of its own rather than a parameter that the other
+ * engines would ignore.  Input handling is the same as {@link SortBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class SegmentSizeBenchmark
+{
+    @Param({ "100", "1000", "10000", "100000" })
+    public int segmentSize;
+
+    @Param({ "100000", "1000000", "10000000" })
+    public int size;
+
+    @Param({ "uniform", "zipf", "few-unique", "sorted", "reversed", "nearly-sorted", "organ-pipe", "sawtooth", "quicksort-killer" })
+    public String distribution;
+
+    private int[] data;
+    private int[] work;
+    private Engine sorter;
+
+    @Setup(Level.Trial)
+    public void createInput()
+    {
+        data = Inputs.generate(distribution, size, size);
+        work = new int[size];
+        sorter = Engine.create("Prototype3", segmentSize);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetInput()
+    {
+        System.arraycopy( data, 0, work, 0, size );
+    }
+
+    @TearDown(Level.Iteration)
+    public void check()
+    {
+        Inputs.checkSorted(work, "Prototype3");
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown()
+    {
+        sorter.shutdown();
+    }
+
+    @Benchmark
+    public int[] sort()
+    {
+        sorter.sort(work);
+        return work;
+    }
+}
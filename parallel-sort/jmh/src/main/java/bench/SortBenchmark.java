@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SortBenchmark.java - every engine on every input size and distribution
+ * <p>
+ * Replaces the timing loops of Test3 and Test4.  The input is generated once per trial, and copied into the work
+ * array before every invocation, outside the measured time, so every sort gets the unsorted input (Test3 and Test4
+ * re-sorted the already sorted array after their first repeat).  Each configuration is warmed up and runs in
+ * forked JVMs with a fixed heap, and the result is checked after every iteration.
+ * <p>
+ * Invocation-level setup costs a few microseconds per call, which is noise next to sorting 1000 or more ints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class SortBenchmark
+{
+    @Param({ "Prototype3", "Prototype4", "Prototype5", "Arrays.sort", "Arrays.parallelSort" })
+    public String engine;
+
+    @Param({ "1000", "100000", "1000000", "10000000" })
+    public int size;
+
+    @Param({ "uniform", "zipf", "few-unique", "sorted", "reversed", "nearly-sorted", "organ-pipe", "sawtooth", "quicksort-killer" })
+    public String distribution;
+
+    private int[] data;
+    private int[] work;
+    private Engine sorter;
+
+    @Setup(Level.Trial)
+    public void createInput()
+    {
+        data = Inputs.generate(distribution, size, size);
+        work = new int[size];
+        sorter = Engine.create(engine, 0);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetInput()
+    {
+        System.arraycopy( data, 0, work, 0, size );
+    }
+
+    @TearDown(Level.Iteration)
+    public void check()
+    {
+        Inputs.checkSorted(work, engine);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown()
+    {
+        sorter.shutdown();
+    }
+
+    @Benchmark
+    public int[] sort()
+    {
+        sorter.sort(work);
+        return work;
+    }
+}
@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Calibration.java - per machine tuning of the sequential cutoff, leaf size and parallelism
+ * <p>
+ * Prototype3's segment size (10000) and Prototype4's minimum size (1000) were picked on one development box.
+ * results/Prototype3.csv shows that the best segment size grows with the data size, and results/Prototype4.csv
+ * that psort loses to Arrays.sort well above 1000 elements.  The right values depend on the core count, the
+ * caches and the JIT, so a Calibration measures them:
+ * <pre>
+ * parallelism        the fewest Prototype4 threads that sort 2^20 ints within 5% of the fastest thread count
+ * sequential cutoff  the smallest size, in powers of 4 from 2^10 to 2^20, from which psort beats Arrays.sort at
+ *                    every larger size; Integer.MAX_VALUE if it never does (a single core)
+ * leaf size          for 2^14, 2^17 and 2^20 ints, the fastest Prototype3 segment size from 2^10 to 2^16
+ * </pre>
+ * Each measurement is the best of a few sorts of a fresh copy of uniform random ints, after a warm-up, so
+ * {@link #calibrate()} takes a few seconds, more on a single core where psort never wins.
+ * <p>
+ * Prototype3 and Prototype4 take their values from {@link #getDefault()} unless they are given a Calibration.
+ * The default is the old hard-coded values, unless the system property {@value #PROFILE_PROPERTY} names a profile
+ * file: the profile is loaded from that file, or if it doesn't exist or was written on a machine with a different
+ * number of processors, calibrated at first use and saved there.  The property value {@value #CALIBRATE} calibrates
+ * at first use without saving.
+ */
+public class Calibration
+{
+    static final public String PROFILE_PROPERTY = "psort.calibration";
+
+    static final public String CALIBRATE = "calibrate";
+
+    static final private int[] CUTOFF_SIZES = { 1 << 10, 1 << 12, 1 << 14, 1 << 16, 1 << 18, 1 << 20 };
+    static final private int[] LEAF_TUNING_SIZES = { 1 << 14, 1 << 17, 1 << 20 };
+    static final private int[] LEAF_SIZES = { 1 << 10, 1 << 12, 1 << 14, 1 << 16 };
+    static final private int PARALLELISM_TUNING_SIZE = 1 << 20;
+
+    static final private int WARMUP_COUNT = 3;
+    static final private int MEASURE_COUNT = 5;
+
+    static private Calibration defaultCalibration;
+
+    private final int sequentialCutoff;
+    private final int parallelism;
+    private final int[] sizes;
+    private final int[] leafSizes;
+
+    /**
+     * @param sequentialCutoff arrays shorter than this are sorted with Arrays.sort on the caller thread; at least
+     *        Prototype4.MINIMUM_SIZE
+     * @param parallelism the number of pool threads
+     * @param sizes ascending array sizes, the first of them 0
+     * @param leafSizes the leaf size for arrays of at least sizes[i] (and less than sizes[i + 1])
+     */
+    public Calibration(int sequentialCutoff, int parallelism, int[] sizes, int[] leafSizes)
+    {
+        if ( sequentialCutoff < Prototype4.MINIMUM_SIZE )
+        {
+            throw new IllegalArgumentException("sequential cutoff must be at least " + Prototype4.MINIMUM_SIZE + ": " + sequentialCutoff);
+        }
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        if ( sizes.length == 0 || sizes.length != leafSizes.length || sizes[0] != 0 )
+        {
+            throw new IllegalArgumentException("need a leaf size for each size, starting at size 0: " + Arrays.toString(sizes) + " " + Arrays.toString(leafSizes));
+        }
+        for (int i = 0; i < sizes.length; i++)
+        {
+            if ( (i > 0 && sizes[i] <= sizes[i - 1]) || leafSizes[i] < 1 )
+            {
+                throw new IllegalArgumentException("sizes must ascend and leaf sizes be positive: " + Arrays.toString(sizes) + " " + Arrays.toString(leafSizes));
+            }
+        }
+
+        this.sequentialCutoff = sequentialCutoff;
+        this.parallelism = parallelism;
+        this.sizes = sizes.clone();
+        this.leafSizes = leafSizes.clone();
+    }
+
+    /**
+     * Returns the untuned values: a cutoff of Prototype4.MINIMUM_SIZE, one thread per available processor and
+     * Prototype3's old segment size of 10000 for every size.
+     */
+    static public Calibration defaults()
+    {
+        return new Calibration(Prototype4.MINIMUM_SIZE, Runtime.getRuntime().availableProcessors(), new int[] { 0 }, new int[] { Prototype3.DEFAULT_SEGMENT_MAX_SIZE });
+    }
+
+    /**
+     * Returns the calibration used by sorters that aren't given one; see the class comment.
+     */
+    static synchronized public Calibration getDefault()
+    {
+        if ( defaultCalibration == null )
+        {
+            String profile = System.getProperty(PROFILE_PROPERTY);
+
+            if ( profile == null )
+            {
+                defaultCalibration = defaults();
+            }
+            else if ( profile.equals( CALIBRATE ) )
+            {
+                defaultCalibration = calibrate();
+            }
+            else
+            {
+                defaultCalibration = loadOrCalibrate(Paths.get(profile));
+            }
+        }
+        return defaultCalibration;
+    }
+
+    static private Calibration loadOrCalibrate(Path profile)
+    {
+        try
+        {
+            if ( Files.exists(profile) )
+            {
+                Calibration calibration = load(profile);
+                if ( calibration != null )
+                {
+                    return calibration;
+                }
+            }
+        }
+        catch ( IOException | IllegalArgumentException ex )
+        {
+            System.err.println("Ignoring calibration profile " + profile + ": " + ex);
+        }
+
+        Calibration calibration = calibrate();
+        try
+        {
+            calibration.save(profile);
+        }
+        catch ( IOException ex )
+        {
+            System.err.println("Can't save calibration profile " + profile + ": " + ex);
+        }
+        return calibration;
+    }
+
+    public int getSequentialCutoff()
+    {
+        return sequentialCutoff;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Returns the leaf size (the Prototype3 segment size) for an array of the given length.
+     */
+    public int getLeafSize(int length)
+    {
+        int i = sizes.length - 1;
+        while ( sizes[i] > length )
+        {
+            i--;
+        }
+        return leafSizes[i];
+    }
+
+    /**
+     * Measures the values for this machine; see the class comment.
+     */
+    static public Calibration calibrate()
+    {
+        int[] data = new InputGenerator(PARALLELISM_TUNING_SIZE).ints(InputGenerator.Distribution.UNIFORM, PARALLELISM_TUNING_SIZE);
+        int[] work = new int[data.length];
+        int[] leafSizes = { Prototype3.DEFAULT_SEGMENT_MAX_SIZE };
+
+        // Parallelism: powers of 2, and the processor count itself.
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        int parallelism = 1;
+        long best = Long.MAX_VALUE;
+        long[] times = new long[32];
+
+        for (int p = 1, n = 0; ; p = Math.min(2 * p, processors), n++)
+        {
+            Prototype4 sorter = new Prototype4(new Calibration(Prototype4.MINIMUM_SIZE, p, new int[] { 0 }, leafSizes));
+            times[n] = time(sorter, null, data, work, PARALLELISM_TUNING_SIZE);
+            sorter.shutdown();
+            best = Math.min(best, times[n]);
+            if ( p == processors )
+            {
+                break;
+            }
+        }
+        for (int p = 1, n = 0; ; p = Math.min(2 * p, processors), n++)
+        {
+            if ( times[n] <= best + best / 20 )
+            {
+                parallelism = p;
+                break;
+            }
+        }
+
+        // Sequential cutoff: the smallest size from which psort always wins.
+
+        Prototype4 sorter = new Prototype4(new Calibration(Prototype4.MINIMUM_SIZE, parallelism, new int[] { 0 }, leafSizes));
+        int sequentialCutoff = Integer.MAX_VALUE;
+        for (int i = CUTOFF_SIZES.length - 1; i >= 0; i--)
+        {
+            int size = CUTOFF_SIZES[i];
+            if ( time(sorter, null, data, work, size) >= time(null, null, data, work, size) )
+            {
+                break;
+            }
+            sequentialCutoff = size;
+        }
+        sorter.shutdown();
+
+        // Leaf size per array size, with Prototype3.
+
+        int[] sizes = new int[LEAF_TUNING_SIZES.length];
+        leafSizes = new int[LEAF_TUNING_SIZES.length];
+        Prototype3 segmented = new Prototype3(new Calibration(Prototype4.MINIMUM_SIZE, parallelism, new int[] { 0 }, new int[] { Prototype3.DEFAULT_SEGMENT_MAX_SIZE }));
+
+        for (int i = 0; i < LEAF_TUNING_SIZES.length; i++)
+        {
+            int size = LEAF_TUNING_SIZES[i];
+            sizes[i] = i == 0 ? 0 : size;
+            best = Long.MAX_VALUE;
+
+            for (int leafSize : LEAF_SIZES)
+            {
+                if ( leafSize > size / 2 )
+                {
+                    break;
+                }
+                segmented.setSegmentSize(leafSize);
+                long time = time(null, segmented, data, work, size);
+                if ( time < best )
+                {
+                    best = time;
+                    leafSizes[i] = leafSize;
+                }
+            }
+        }
+        segmented.shutdown();
+
+        return new Calibration(Math.max(Prototype4.MINIMUM_SIZE, sequentialCutoff), parallelism, sizes, leafSizes);
+    }
+
+    /**
+     * Returns the best time of a few sorts of data[0, size) with Prototype4, Prototype3 or (if both are null)
+     * Arrays.sort, after a warm-up.
+     */
+    static private long time(Prototype4 p4, Prototype3 p3, int[] data, int[] work, int size)
+    {
+        int[] arr = size == work.length ? work : new int[size];
+        long best = Long.MAX_VALUE;
+
+        for (int n = 0; n < WARMUP_COUNT + MEASURE_COUNT; n++)
+        {
+            System.arraycopy( data, 0, arr, 0, size );
+
+            long startTime = System.nanoTime();
+            if ( p4 != null ) p4.psort( arr ); else if ( p3 != null ) p3.psort( arr ); else Arrays.sort( arr );
+            long elapsedTime = System.nanoTime() - startTime;
+
+            if ( n >= WARMUP_COUNT )
+            {
+                best = Math.min(best, elapsedTime);
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Loads a profile written by {@link #save(Path)}, or returns null if it was written on a machine with a
+     * different number of processors.
+     */
+    static public Calibration load(Path profile) throws IOException
+    {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(profile))
+        {
+            properties.load(in);
+        }
+
+        if ( Integer.parseInt(properties.getProperty("processors", "0")) != Runtime.getRuntime().availableProcessors() )
+        {
+            return null;
+        }
+
+        try
+        {
+            int[] sizes = parse(properties.getProperty("sizes"));
+            int[] leafSizes = parse(properties.getProperty("leafSizes"));
+            return new Calibration(Integer.parseInt(properties.getProperty("sequentialCutoff")), Integer.parseInt(properties.getProperty("parallelism")), sizes, leafSizes);
+        }
+        catch ( NullPointerException | NumberFormatException ex )
+        {
+            throw new IllegalArgumentException("bad calibration profile " + profile + ": " + ex, ex);
+        }
+    }
+
+    public void save(Path profile) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("processors", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        properties.setProperty("sequentialCutoff", Integer.toString(sequentialCutoff));
+        properties.setProperty("parallelism", Integer.toString(parallelism));
+        properties.setProperty("sizes", format(sizes));
+        properties.setProperty("leafSizes", format(leafSizes));
+
+        try (OutputStream out = Files.newOutputStream(profile))
+        {
+            properties.store(out, "psort calibration");
+        }
+    }
+
+    static private int[] parse(String list)
+    {
+        String[] values = list.split(",");
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            result[i] = Integer.parseInt(values[i].trim());
+        }
+        return result;
+    }
+
+    static private String format(int[] values)
+    {
+        StringBuilder list = new StringBuilder();
+        for (int value : values)
+        {
+            list.append(list.length() == 0 ? "" : ",").append(value);
+        }
+        return list.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "sequentialCutoff=" + sequentialCutoff + ", parallelism=" + parallelism + ", sizes=" + Arrays.toString(sizes) + ", leafSizes=" + Arrays.toString(leafSizes);
+    }
+}
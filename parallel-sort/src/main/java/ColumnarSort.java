@@ -0,0 +1,523 @@
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ColumnarSort.java - parallel multi-key sort of tables stored as parallel primitive columns
+ * <p>
+ * A table stored as one primitive array per column (struct-of-arrays) is sorted by several key columns, each
+ * ascending or descending, and any number of payload columns are reordered with it, without ever creating an
+ * object per row.
+ * <p>
+ * Every key value is first mapped to an unsigned 64 bit value with the same order (flipping the sign bit, the
+ * usual bit trick for doubles and floats, and a complement for descending columns).  One parallel pass finds the
+ * smallest and largest of these per column, so a column only needs as many bits as its range of values: a column
+ * with 10 distinct small values needs 4 bits, and a constant column none.  The row key is then all the key columns'
+ * bits concatenated, the first key column in the most significant bits.
+ * <p>
+ * That key is sorted 32 bits at a time, least significant first, as in an LSD radix sort: each pass computes the
+ * 32 bit slice of every row's key in row order of the permutation so far, and sorts it with the permutation as a
+ * payload using Prototype4.psortKeyed, which is stable, so each pass keeps the order of the passes before it for
+ * equal slices.  Low cardinality columns share passes: three columns of 8 bits each are sorted in a single pass,
+ * however many rows there are.  Finally every key and payload column is gathered through the permutation in
+ * parallel.
+ * <p>
+ * The sort is stable: rows with equal keys keep their order.  Key columns can be int[], long[], double[],
+ * float[], short[], char[] or byte[]; payload columns can be any array, including Object[].  Doubles and floats
+ * sort as Double.compare and Float.compare do.
+ */
+public class ColumnarSort
+{
+    /**
+     * Rows per task of the parallel passes over the columns.
+     */
+    static final private int MINIMUM_CHUNK_SIZE = 65536;
+
+    /**
+     * A key column and its direction.
+     */
+    static public class Key
+    {
+        final Object column;
+        final boolean descending;
+
+        private Key(Object column, boolean descending)
+        {
+            this.column = column;
+            this.descending = descending;
+        }
+    }
+
+    static public Key ascending(Object column)
+    {
+        return new Key(column, false);
+    }
+
+    static public Key descending(Object column)
+    {
+        return new Key(column, true);
+    }
+
+    private final int parallelism;
+    private ExecutorService pool;
+    private Prototype4 sorter;
+
+    /**
+     * Creates a sorter with one pool thread per available processor.
+     */
+    public ColumnarSort()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a sorter with an explicit parallelism.
+     * @param parallelism the number of pool threads, for the column passes and for the key sorts
+     */
+    public ColumnarSort(int parallelism)
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pool = Executors.newFixedThreadPool(parallelism);
+        this.sorter = new Prototype4(parallelism);
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public void shutdown()
+    {
+        pool.shutdown();
+        sorter.shutdown();
+    }
+
+    /**
+     * Sorts the rows of a table by the key columns, reordering the key columns in place.
+     * @param keys the key columns, most significant first
+     */
+    public void sort(List<Key> keys)
+    {
+        sort(keys, Collections.emptyList());
+    }
+
+    /**
+     * Sorts the rows of a table by the key columns, reordering the key columns and the payload columns in place.
+     * A column that is both a key and a payload, or is given twice, is reordered once.
+     * @param keys the key columns, most significant first
+     * @param payload the other columns to reorder, each an array as long as the key columns
+     */
+    public void sort(List<Key> keys, List<?> payload)
+    {
+        int rows = rows(keys);
+        for (Object column : payload)
+        {
+            if ( column == null || !column.getClass().isArray() )
+            {
+                throw new IllegalArgumentException("payload column is not an array: " + column);
+            }
+            if ( Array.getLength(column) != rows )
+            {
+                throw new IllegalArgumentException("payload column length " + Array.getLength(column) + " differs from key column length " + rows);
+            }
+        }
+
+        int[] perm = order(keys);
+
+        Set<Object> columns = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Key key : keys)
+        {
+            columns.add(key.column);
+        }
+        columns.addAll(payload);
+
+        int[] bounds = chunks(rows);
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+
+        for (Object column : columns)
+        {
+            Object copy = Array.newInstance(column.getClass().getComponentType(), rows);
+            System.arraycopy( column, 0, copy, 0, rows );
+
+            workers.clear();
+            for (int c = 0; c + 1 < bounds.length; c++)
+            {
+                workers.add( new Gatherer(copy, column, perm, bounds[c], bounds[c + 1]) );
+            }
+
+            Tasks.invokeAll( pool, workers, "gather" );
+        }
+    }
+
+    /**
+     * Returns the permutation that stably sorts the rows by the key columns, leaving the columns unchanged:
+     * perm[0] is the index of the first row in sorted order, and so on.
+     * @param keys the key columns, most significant first
+     */
+    public int[] order(List<Key> keys)
+    {
+        int rows = rows(keys);
+        int columns = keys.size();
+        int[] bounds = chunks(rows);
+        int chunks = bounds.length - 1;
+
+        int[] perm = new int[rows];
+        for (int r = 0; r < rows; r++)
+        {
+            perm[r] = r;
+        }
+
+        // Range of the mapped values of each column.
+
+        long[][] ranges = new long[chunks][2 * columns];
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+
+        for (int c = 0; c < chunks; c++)
+        {
+            workers.add( new Ranger(keys, bounds[c], bounds[c + 1], ranges[c]) );
+        }
+
+        Tasks.invokeAll( pool, workers, "range" );
+
+        long[] min = new long[columns];
+        int[] bits = new int[columns];
+        int[] shift = new int[columns];
+        int totalBits = 0;
+
+        for (int k = columns - 1; k >= 0; k--)
+        {
+            long lo = -1L;
+            long hi = 0;
+            for (int c = 0; c < chunks; c++)
+            {
+                lo = Long.compareUnsigned(ranges[c][2 * k], lo) < 0 ? ranges[c][2 * k] : lo;
+                hi = Long.compareUnsigned(ranges[c][2 * k + 1], hi) > 0 ? ranges[c][2 * k + 1] : hi;
+            }
+
+            min[k] = lo;
+            bits[k] = rows == 0 ? 0 : 64 - Long.numberOfLeadingZeros(hi - lo);
+            shift[k] = totalBits;
+            totalBits += bits[k];
+        }
+
+        // One stable sort per 32 bits of the concatenated key, least significant first.
+
+        int[] slice = new int[rows];
+
+        for (int low = 0; low < totalBits; low += 32)
+        {
+            workers.clear();
+            for (int c = 0; c < chunks; c++)
+            {
+                workers.add( new Slicer(keys, min, bits, shift, low, perm, slice, bounds[c], bounds[c + 1]) );
+            }
+
+            Tasks.invokeAll( pool, workers, "slice" );
+
+            sorter.psortKeyed(slice, perm);
+        }
+
+        return perm;
+    }
+
+    static private int rows(List<Key> keys)
+    {
+        if ( keys.isEmpty() )
+        {
+            throw new IllegalArgumentException("no key columns");
+        }
+
+        int rows = Array.getLength(keys.get(0).column);
+        for (Key key : keys)
+        {
+            if ( Array.getLength(key.column) != rows )
+            {
+                throw new IllegalArgumentException("key column length " + Array.getLength(key.column) + " differs from " + rows);
+            }
+        }
+        return rows;
+    }
+
+    private int[] chunks(int rows)
+    {
+        int chunks = Math.max(1, Math.min(parallelism, rows / MINIMUM_CHUNK_SIZE));
+        int[] bounds = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++)
+        {
+            bounds[c] = (int)((long)rows * c / chunks);
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the value of a key column at a row mapped to an unsigned long with the same order as the column,
+     * reversed for a descending key.
+     */
+    static private long mapped(Key key, int row)
+    {
+        Object column = key.column;
+        long value;
+
+        if ( column instanceof int[] )
+        {
+            value = ((int[])column)[row] ^ Long.MIN_VALUE;
+        }
+        else if ( column instanceof long[] )
+        {
+            value = ((long[])column)[row] ^ Long.MIN_VALUE;
+        }
+        else if ( column instanceof double[] )
+        {
+            long bits = Double.doubleToLongBits(((double[])column)[row]);
+            value = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+        }
+        else if ( column instanceof float[] )
+        {
+            int bits = Float.floatToIntBits(((float[])column)[row]);
+            value = (bits ^ ((bits >> 31) | Integer.MIN_VALUE)) & 0xFFFFFFFFL;
+        }
+        else if ( column instanceof short[] )
+        {
+            value = ((short[])column)[row] ^ Long.MIN_VALUE;
+        }
+        else if ( column instanceof char[] )
+        {
+            value = ((char[])column)[row];
+        }
+        else if ( column instanceof byte[] )
+        {
+            value = ((byte[])column)[row] ^ Long.MIN_VALUE;
+        }
+        else
+        {
+            throw new IllegalArgumentException("not a sortable primitive column: " + column);
+        }
+
+        return key.descending ? ~value : value;
+    }
+
+    /**
+     * Finds the smallest and largest mapped value of every key column over rows [from, to), as unsigned longs.
+     */
+    static private class Ranger implements Callable<Object>
+    {
+        private List<Key> keys;
+        private int from;
+        private int to;
+        private long[] range;
+
+        public Ranger(List<Key> keys, int from, int to, long[] range)
+        {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.range = range;
+        }
+
+        public String call()
+        {
+            for (int k = 0; k < keys.size(); k++)
+            {
+                Key key = keys.get(k);
+                long lo = -1L;
+                long hi = 0;
+
+                for (int r = from; r < to; r++)
+                {
+                    long value = mapped(key, r);
+                    if ( Long.compareUnsigned(value, lo) < 0 )
+                    {
+                        lo = value;
+                    }
+                    if ( Long.compareUnsigned(value, hi) > 0 )
+                    {
+                        hi = value;
+                    }
+                }
+
+                range[2 * k] = lo;
+                range[2 * k + 1] = hi;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Computes bits [low, low + 32) of the concatenated key of row perm[i] for i in [from, to), as a signed int with
+     * the same order as the unsigned slice.  Column k holds bits [shift[k], shift[k] + bits[k]) of the key.
+     */
+    static private class Slicer implements Callable<Object>
+    {
+        private List<Key> keys;
+        private long[] min;
+        private int[] bits;
+        private int[] shift;
+        private int low;
+        private int[] perm;
+        private int[] slice;
+        private int from;
+        private int to;
+
+        public Slicer(List<Key> keys, long[] min, int[] bits, int[] shift, int low, int[] perm, int[] slice, int from, int to)
+        {
+            this.keys = keys;
+            this.min = min;
+            this.bits = bits;
+            this.shift = shift;
+            this.low = low;
+            this.perm = perm;
+            this.slice = slice;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String call()
+        {
+            Arrays.fill( slice, from, to, 0 );
+
+            for (int k = 0; k < keys.size(); k++)
+            {
+                if ( bits[k] == 0 || shift[k] + bits[k] <= low || shift[k] >= low + 32 )
+                {
+                    continue;
+                }
+
+                Key key = keys.get(k);
+                int offset = shift[k] - low;
+
+                for (int i = from; i < to; i++)
+                {
+                    long value = mapped(key, perm[i]) - min[k];
+                    slice[i] |= (int)(offset >= 0 ? value << offset : value >>> -offset);
+                }
+            }
+
+            for (int i = from; i < to; i++)
+            {
+                slice[i] ^= Integer.MIN_VALUE;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Sets dst[i] = src[perm[i]] for i in [from, to).
+     */
+    static private class Gatherer implements Callable<Object>
+    {
+        private Object src;
+        private Object dst;
+        private int[] perm;
+        private int from;
+        private int to;
+
+        public Gatherer(Object src, Object dst, int[] perm, int from, int to)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.perm = perm;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String call()
+        {
+            if ( src instanceof int[] )
+            {
+                int[] in = (int[])src;
+                int[] out = (int[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else if ( src instanceof long[] )
+            {
+                long[] in = (long[])src;
+                long[] out = (long[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else if ( src instanceof double[] )
+            {
+                double[] in = (double[])src;
+                double[] out = (double[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else if ( src instanceof float[] )
+            {
+                float[] in = (float[])src;
+                float[] out = (float[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else if ( src instanceof short[] )
+            {
+                short[] in = (short[])src;
+                short[] out = (short[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else if ( src instanceof char[] )
+            {
+                char[] in = (char[])src;
+                char[] out = (char[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else if ( src instanceof byte[] )
+            {
+                byte[] in = (byte[])src;
+                byte[] out = (byte[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else if ( src instanceof boolean[] )
+            {
+                boolean[] in = (boolean[])src;
+                boolean[] out = (boolean[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+            else
+            {
+                Object[] in = (Object[])src;
+                Object[] out = (Object[])dst;
+                for (int i = from; i < to; i++)
+                {
+                    out[i] = in[perm[i]];
+                }
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,617 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ExternalSort.java - out-of-core sort for binary files of ints or longs
+ * <p>
+ * The in-memory engines need the whole array (and a workspace) in memory.  This sorts files many times larger than
+ * that in two phases:
+ * <pre>
+ * 1. run generation: the input is cut into chunks that fit the memory budget.  Each chunk is memory-mapped with
+ *    FileChannel.map, copied into a mapped region of a run file and sorted there in place with
+ *    Prototype4.psort(IntBuffer) (or LongBuffer), which uses all the cores,
+ * 2. merge: the sorted runs are streamed through a k-way merge (a binary heap of run heads) into the output file.
+ *    If there are more runs than the budget allows read buffers for, groups of runs are merged into longer runs
+ *    first, one pass at a time.
+ * </pre>
+ * The merge does its I/O in blocks on a separate I/O pool, double-buffered: every run has two read blocks, and
+ * while the merge consumes one the next is being read; the output has two write blocks, and while one is being
+ * written the merge fills the other.  So the merge loop only waits when the disk can't keep up.
+ * <p>
+ * A file that fits in a single run is sorted straight into the output, with no merge phase.
+ * <p>
+ * Files are sequences of raw values in big-endian order (as written by DataOutputStream) unless another order is
+ * set with {@link #setByteOrder(ByteOrder)}.  Throughput of each phase of the last sort is available from
+ * {@link #getRunMegabytesPerSecond()} and {@link #getMergeMegabytesPerSecond()}.
+ */
+public class ExternalSort
+{
+    static final public long DEFAULT_MEMORY_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Size of each merge read and write block; a multiple of every element size.
+     */
+    static final private int BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Most runs merged at once, whatever the budget.
+     */
+    static final private int MAX_FAN_IN = 256;
+
+    /**
+     * Largest run, so that a run can be mapped in one MappedByteBuffer and sorted in one buffer.
+     */
+    static final private long MAX_RUN_BYTES = 1L << 30;
+
+    private final Prototype4 sorter;
+    private final long memoryBytes;
+    private Path tempDirectory;
+    private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+
+    // Statistics of the last sort.
+    private long bytes;
+    private int runCount;
+    private int mergePasses;
+    private long runNanos;
+    private long mergeNanos;
+
+    /**
+     * Creates an external sorter with the default memory budget.
+     * @param sorter the engine that sorts the runs
+     */
+    public ExternalSort(Prototype4 sorter)
+    {
+        this( sorter, DEFAULT_MEMORY_BYTES );
+    }
+
+    /**
+     * Creates an external sorter.
+     * @param sorter the engine that sorts the runs
+     * @param memoryBytes the memory for a run and its workspace, and for the merge blocks
+     */
+    public ExternalSort(Prototype4 sorter, long memoryBytes)
+    {
+        if ( memoryBytes < 8L * BLOCK_SIZE )
+        {
+            throw new IllegalArgumentException("memory budget must be at least " + 8L * BLOCK_SIZE + " bytes: " + memoryBytes);
+        }
+        this.sorter = sorter;
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * Sets the directory for the run files; by default the system temporary directory.
+     */
+    public void setTempDirectory(Path tempDirectory)
+    {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Sets the byte order of the values in the input and output files; by default big-endian.
+     */
+    public void setByteOrder(ByteOrder byteOrder)
+    {
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * Sorts a file of ints into another file.
+     * @param input the file to sort, whose length must be a multiple of 4
+     * @param output the file to write, replaced if it exists
+     */
+    public void sortInts(Path input, Path output) throws IOException
+    {
+        sort(input, output, Integer.BYTES);
+    }
+
+    /**
+     * Sorts a file of longs into another file.
+     * @param input the file to sort, whose length must be a multiple of 8
+     * @param output the file to write, replaced if it exists
+     */
+    public void sortLongs(Path input, Path output) throws IOException
+    {
+        sort(input, output, Long.BYTES);
+    }
+
+    public int getRunCount()
+    {
+        return runCount;
+    }
+
+    /**
+     * Returns the number of merge passes over the data in the last sort: 0 if it fit in one run, 1 if every run
+     * was merged at once.
+     */
+    public int getMergePasses()
+    {
+        return mergePasses;
+    }
+
+    /**
+     * Returns the throughput of run generation in the last sort: input MB per second of the phase.
+     */
+    public double getRunMegabytesPerSecond()
+    {
+        return megabytesPerSecond(bytes, runNanos);
+    }
+
+    /**
+     * Returns the throughput of the merge phase in the last sort: input MB per second of the phase, all passes
+     * together.
+     */
+    public double getMergeMegabytesPerSecond()
+    {
+        return megabytesPerSecond(bytes, mergeNanos);
+    }
+
+    static private double megabytesPerSecond(long bytes, long nanos)
+    {
+        return nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    private void sort(Path input, Path output, int width) throws IOException
+    {
+        long length = Files.size(input);
+        if ( length % width != 0 )
+        {
+            throw new IllegalArgumentException("file length " + length + " is not a multiple of " + width + ": " + input);
+        }
+        if ( Files.exists(output) && Files.isSameFile(input, output) )
+        {
+            throw new IllegalArgumentException("output is the input file: " + output);
+        }
+
+        bytes = length;
+        mergePasses = 0;
+        runNanos = 0;
+        mergeNanos = 0;
+
+        // Half the budget for the mapped run, half for its workspace.
+        long runBytes = Math.min(MAX_RUN_BYTES, memoryBytes / 2) / BLOCK_SIZE * BLOCK_SIZE;
+        runCount = (int)((length + runBytes - 1) / runBytes);
+
+        long startTime = System.nanoTime();
+        Path runFile = runCount <= 1 ? output : createTempFile();
+        List<long[]> runs;
+        try
+        {
+            runs = generateRuns(input, runFile, length, runBytes, width);
+        }
+        catch ( Throwable ex )
+        {
+            if ( runCount > 1 )
+            {
+                deleteAfterFailure(runFile, ex);
+            }
+            throw ex;
+        }
+        runNanos = System.nanoTime() - startTime;
+
+        if ( runCount <= 1 )
+        {
+            return;
+        }
+
+        startTime = System.nanoTime();
+        ExecutorService io = Executors.newFixedThreadPool(2);
+        try
+        {
+            runFile = mergeRuns(runFile, output, runs, width, io);
+        }
+        finally
+        {
+            io.shutdown();
+            if ( !runFile.equals(output) )
+            {
+                Files.deleteIfExists(runFile);
+            }
+        }
+        mergeNanos = System.nanoTime() - startTime;
+    }
+
+    /**
+     * Copies each chunk of the input into the same place in the run file and sorts it there.
+     * @return the offset and length in bytes of each run
+     */
+    private List<long[]> generateRuns(Path input, Path runFile, long length, long runBytes, int width) throws IOException
+    {
+        List<long[]> runs = new ArrayList<>();
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(runFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer workspace = null;
+
+            for (long offset = 0; offset < length; offset += runBytes)
+            {
+                long size = Math.min(runBytes, length - offset);
+
+                MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, offset, size);
+                dst.put(src);
+                dst.clear();
+                dst.order(byteOrder);
+
+                if ( workspace == null )
+                {
+                    workspace = ByteBuffer.allocateDirect((int)Math.min(runBytes, length)).order(ByteOrder.nativeOrder());
+                }
+                workspace.clear();
+
+                if ( width == Integer.BYTES )
+                {
+                    sorter.psort(dst.asIntBuffer(), workspace.asIntBuffer());
+                }
+                else
+                {
+                    sorter.psort(dst.asLongBuffer(), workspace.asLongBuffer());
+                }
+
+                runs.add(new long[] { offset, size });
+            }
+        }
+
+        return runs;
+    }
+
+    /**
+     * Merges the runs in runFile into output, first merging groups of runs into longer runs in new run files while
+     * there are more runs than the budget has read blocks for.  If a pass fails, the run file it was reading and
+     * the one it was writing, unless that is the output, are deleted.
+     * @return the last run file, which the caller deletes
+     */
+    private Path mergeRuns(Path runFile, Path output, List<long[]> runs, int width, ExecutorService io) throws IOException
+    {
+        // Two read blocks per run and two write blocks.
+        int fanIn = (int)Math.max(2, Math.min(MAX_FAN_IN, memoryBytes / (2L * BLOCK_SIZE) - 2));
+
+        while ( true )
+        {
+            boolean last = runs.size() <= fanIn;
+            Path target = last ? output : createTempFile();
+            List<long[]> merged = new ArrayList<>();
+
+            try (FileChannel in = FileChannel.open(runFile, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                long offset = 0;
+                for (int r = 0; r < runs.size(); r += fanIn)
+                {
+                    List<long[]> group = runs.subList(r, Math.min(runs.size(), r + fanIn));
+                    long size = merge(in, group, out, offset, width, io);
+                    merged.add(new long[] { offset, size });
+                    offset += size;
+                }
+            }
+            catch ( Throwable ex )
+            {
+                if ( !last )
+                {
+                    deleteAfterFailure(target, ex);
+                }
+                deleteAfterFailure(runFile, ex);
+                throw ex;
+            }
+
+            mergePasses++;
+
+            if ( last )
+            {
+                return runFile;
+            }
+
+            Files.delete(runFile);
+            runFile = target;
+            runs = merged;
+        }
+    }
+
+    /**
+     * Deletes a temporary file after a failure, adding any exception from the delete to the failure.
+     */
+    static private void deleteAfterFailure(Path file, Throwable failure)
+    {
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        catch ( IOException ex )
+        {
+            failure.addSuppressed(ex);
+        }
+    }
+
+    /**
+     * Merges a group of sorted runs of in into out at the given offset.
+     * @return the number of bytes written
+     */
+    private long merge(FileChannel in, List<long[]> group, FileChannel out, long offset, int width, ExecutorService io) throws IOException
+    {
+        int k = group.size();
+        RunReader[] readers = new RunReader[k];
+        int[] heap = new int[k];
+        int size = 0;
+        long total = 0;
+
+        for (int r = 0; r < k; r++)
+        {
+            long[] run = group.get(r);
+            readers[r] = new RunReader(in, run[0], run[1], width, byteOrder, io);
+            total += run[1];
+            if ( readers[r].advance() )
+            {
+                heap[size++] = r;
+            }
+        }
+
+        for (int i = size / 2 - 1; i >= 0; i--)
+        {
+            siftDown(heap, size, i, readers);
+        }
+
+        BlockWriter writer = new BlockWriter(out, offset, byteOrder, io);
+
+        while ( size > 0 )
+        {
+            RunReader top = readers[heap[0]];
+
+            if ( width == Integer.BYTES )
+            {
+                writer.putInt((int)top.head);
+            }
+            else
+            {
+                writer.putLong(top.head);
+            }
+
+            if ( !top.advance() )
+            {
+                heap[0] = heap[--size];
+            }
+            siftDown(heap, size, 0, readers);
+        }
+
+        writer.close();
+        return total;
+    }
+
+    static private void siftDown(int[] heap, int size, int i, RunReader[] readers)
+    {
+        int r = heap[i];
+        long value = readers[r].head;
+
+        while ( true )
+        {
+            int child = 2 * i + 1;
+            if ( child >= size )
+            {
+                break;
+            }
+            if ( child + 1 < size && readers[heap[child + 1]].head < readers[heap[child]].head )
+            {
+                child++;
+            }
+            if ( value <= readers[heap[child]].head )
+            {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+
+        heap[i] = r;
+    }
+
+    private Path createTempFile() throws IOException
+    {
+        return tempDirectory == null ? Files.createTempFile("runs", ".bin") : Files.createTempFile(tempDirectory, "runs", ".bin");
+    }
+
+    /**
+     * Waits for an I/O task, rethrowing its IOException.
+     */
+    static private ByteBuffer await(Future<ByteBuffer> pending) throws IOException
+    {
+        try
+        {
+            return pending.get();
+        }
+        catch ( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for I/O");
+        }
+        catch ( ExecutionException ex )
+        {
+            if ( ex.getCause() instanceof IOException )
+            {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException("I/O task failed: " + ex.getCause(), ex.getCause());
+        }
+    }
+
+    /**
+     * Reads one run sequentially in blocks, with the next block always being read in the background.  head holds
+     * the current value, widened to a long for int runs.
+     */
+    static private class RunReader
+    {
+        long head;
+
+        private FileChannel channel;
+        private long position;
+        private long end;
+        private int width;
+        private ExecutorService io;
+        private ByteBuffer current;
+        private ByteBuffer spare;
+        private Future<ByteBuffer> pending;
+
+        public RunReader(FileChannel channel, long offset, long length, int width, ByteOrder order, ExecutorService io)
+        {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+            this.width = width;
+            this.io = io;
+
+            int blockSize = (int)Math.min(BLOCK_SIZE, length);
+            current = ByteBuffer.allocateDirect(blockSize).order(order);
+            current.limit(0);
+            spare = ByteBuffer.allocateDirect(blockSize).order(order);
+            prefetch();
+        }
+
+        /**
+         * Moves to the next value of the run.
+         * @return false at the end of the run
+         */
+        public boolean advance() throws IOException
+        {
+            if ( !current.hasRemaining() )
+            {
+                if ( pending == null )
+                {
+                    return false;
+                }
+
+                spare = current;
+                current = await(pending);
+                pending = null;
+                prefetch();
+            }
+
+            head = width == Integer.BYTES ? current.getInt() : current.getLong();
+            return true;
+        }
+
+        private void prefetch()
+        {
+            if ( position >= end )
+            {
+                return;
+            }
+
+            final ByteBuffer block = spare;
+            final long from = position;
+            final int size = (int)Math.min(block.capacity(), end - position);
+            position += size;
+            spare = null;
+
+            pending = io.submit(() ->
+            {
+                block.clear();
+                block.limit(size);
+                while ( block.hasRemaining() )
+                {
+                    if ( channel.read(block, from + block.position()) < 0 )
+                    {
+                        throw new EOFException("run ends at " + (from + block.position()) + ", expected " + (from + size));
+                    }
+                }
+                block.flip();
+                return block;
+            });
+        }
+    }
+
+    /**
+     * Writes values sequentially in blocks; a full block is written in the background while the next one fills.
+     */
+    static private class BlockWriter
+    {
+        private FileChannel channel;
+        private long position;
+        private ExecutorService io;
+        private ByteBuffer current;
+        private ByteBuffer spare;
+        private Future<ByteBuffer> pending;
+
+        public BlockWriter(FileChannel channel, long offset, ByteOrder order, ExecutorService io)
+        {
+            this.channel = channel;
+            this.position = offset;
+            this.io = io;
+
+            current = ByteBuffer.allocateDirect(BLOCK_SIZE).order(order);
+            spare = ByteBuffer.allocateDirect(BLOCK_SIZE).order(order);
+        }
+
+        public void putInt(int value) throws IOException
+        {
+            if ( !current.hasRemaining() )
+            {
+                flush();
+            }
+            current.putInt(value);
+        }
+
+        public void putLong(long value) throws IOException
+        {
+            if ( !current.hasRemaining() )
+            {
+                flush();
+            }
+            current.putLong(value);
+        }
+
+        /**
+         * Writes the last block and waits for all writes to finish.
+         */
+        public void close() throws IOException
+        {
+            if ( current.position() > 0 )
+            {
+                flush();
+            }
+            if ( pending != null )
+            {
+                await(pending);
+                pending = null;
+            }
+        }
+
+        private void flush() throws IOException
+        {
+            // The block written before this one is free again once its write completes.
+
+            ByteBuffer free = pending == null ? spare : await(pending);
+
+            final ByteBuffer block = current;
+            final long at = position;
+            block.flip();
+            position += block.remaining();
+
+            pending = io.submit(() ->
+            {
+                while ( block.hasRemaining() )
+                {
+                    channel.write(block, at + block.position());
+                }
+                return block;
+            });
+
+            current = free;
+            current.clear();
+        }
+    }
+}
@@ -0,0 +1,644 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * InPlaceSort.java - memory constrained parallel sort
+ * <p>
+ * Every merge or scatter based engine here needs a workspace as large as the array, which doubles the peak memory
+ * of a sort.  This engine sorts in place: it is a parallel quicksort on the Fork/Join framework, and besides the
+ * array it only uses the recursion stack and the pending Fork/Join tasks.
+ * <p>
+ * Each step picks a pivot (median of three medians of three) and does a three-way partition of its range into
+ * values below, equal to and above the pivot, then sorts the two outer parts as parallel subtasks.  The equal part
+ * is already in place, so inputs with many duplicates get cheaper, not more expensive.
+ * <p>
+ * A sequential partition at the top would be a serial O(n) step.  Large ranges are instead partitioned in parallel,
+ * in place: both halves of the range are partitioned (recursively, in parallel), which leaves
+ * [small | large | small | large], and then the inner large and small blocks are exchanged by swapping just the
+ * shorter of the two with the far end of the other, in parallel chunks.
+ * <p>
+ * The sequential leaf sort is an introsort of its own rather than Arrays.sort, because Arrays.sort(int[]) may
+ * allocate a buffer to merge runs it finds.  Both the parallel recursion and the leaves switch to heapsort when the
+ * recursion gets deeper than {@link #maxRecursionDepth(int)}, so the worst case is O(n log n) and the depth is
+ * bounded even on adversarial input.
+ * <p>
+ * Auxiliary memory: no heap buffer proportional to n.  Each worker thread holds at most
+ * {@link #maxRecursionDepth(int)} recursion levels, each with a fixed size stack frame and Fork/Join task, so the
+ * extra memory is O(log n) per thread.
+ * <p>
+ * Because each partition step knows which ranks end up on which side, the same tasks also do partial sorts: only
+ * the parts that hold the requested ranks are partitioned further, which gives {@link #sortRange}, {@link #select}
+ * (a parallel quickselect) and {@link #topK}.
+ */
+public class InPlaceSort
+{
+    /**
+     * Ranges up to this size are sorted sequentially.
+     */
+    static final private int SEQUENTIAL_THRESHOLD = 8192;
+
+    /**
+     * Ranges above this size are partitioned in parallel.
+     */
+    static final private int PARALLEL_PARTITION_THRESHOLD = 1 << 18;
+
+    /**
+     * Ranges up to this size are sorted by insertion sort.
+     */
+    static final private int INSERTION_SORT_THRESHOLD = 32;
+
+    /**
+     * topK uses per-thread heaps up to k = length / TOP_K_HEAP_RATIO, and a quickselect on a copy above that.
+     */
+    static final private int TOP_K_HEAP_RATIO = 64;
+
+    /**
+     * From k = TOP_K_SAMPLE_MIN the heaps of topK only take values up to a bound estimated from a sample.
+     */
+    static final private int TOP_K_SAMPLE_MIN = 16;
+
+    /**
+     * The rank in the topK sample of its bound.  The sample is 2 * length / k values, so about 4k values are
+     * expected to be at most the bound; fewer than k are only with a probability of about 0.1%.
+     */
+    static final private int TOP_K_SAMPLE_RANK = 8;
+
+    private ForkJoinPool pool;
+
+    public InPlaceSort()
+    {
+        this( new ForkJoinPool() );
+    }
+
+    /**
+     * Creates a sorter that runs its tasks on an existing Fork/Join pool.
+     */
+    public InPlaceSort(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Returns the recursion depth after which a range is heapsorted instead: 2 * floor(log2(length)), as in
+     * introsort.  This bounds the auxiliary memory per thread.
+     */
+    static public int maxRecursionDepth(int length)
+    {
+        return 2 * (31 - Integer.numberOfLeadingZeros(Math.max(length, 1)));
+    }
+
+    /**
+     * Sorts an array in place using multiple threads via the Fork/Join framework.
+     * @param arr the array to sort
+     */
+    public void psort(int[] arr)
+    {
+        psort(arr, 0, arr.length);
+    }
+
+    /**
+     * Sorts the range [fromIndex, toIndex) of an array in place using multiple threads.
+     */
+    public void psort(int[] arr, int fromIndex, int toIndex)
+    {
+        if ( fromIndex < 0 || toIndex > arr.length || fromIndex > toIndex )
+        {
+            throw new ArrayIndexOutOfBoundsException("range [" + fromIndex + ", " + toIndex + ") of length " + arr.length);
+        }
+
+        if ( toIndex - fromIndex <= SEQUENTIAL_THRESHOLD )
+        {
+            introsort(arr, fromIndex, toIndex, maxRecursionDepth(toIndex - fromIndex));
+            return;
+        }
+
+        pool.invoke(new Sorter(arr, fromIndex, toIndex, maxRecursionDepth(toIndex - fromIndex)));
+    }
+
+    /**
+     * Sorts only the values that belong at ranks [fromRank, toRank) of the whole array, in place: afterwards
+     * arr[fromRank, toRank) is what it would be after a full sort, every value before fromRank is no greater than
+     * arr[fromRank] and every value from toRank on is no less than arr[toRank - 1].  Parts of the array that can't
+     * hold any of those ranks are partitioned but not sorted, so this costs O(n + m log m) for m ranks.
+     */
+    public void sortRange(int[] arr, int fromRank, int toRank)
+    {
+        if ( fromRank < 0 || toRank > arr.length || fromRank > toRank )
+        {
+            throw new ArrayIndexOutOfBoundsException("ranks [" + fromRank + ", " + toRank + ") of length " + arr.length);
+        }
+
+        if ( fromRank == toRank )
+        {
+            return;
+        }
+
+        if ( arr.length <= SEQUENTIAL_THRESHOLD )
+        {
+            introsort(arr, 0, arr.length, maxRecursionDepth(arr.length));
+            return;
+        }
+
+        pool.invoke(new Sorter(arr, 0, arr.length, fromRank, toRank, maxRecursionDepth(arr.length)));
+    }
+
+    /**
+     * Returns the value of rank n (0 is the smallest), moving it to arr[n] with no greater value before it and no
+     * smaller value after it, as C++ nth_element does.
+     */
+    public int select(int[] arr, int n)
+    {
+        if ( n < 0 || n >= arr.length )
+        {
+            throw new ArrayIndexOutOfBoundsException("rank " + n + " of length " + arr.length);
+        }
+
+        sortRange(arr, n, n + 1);
+        return arr[n];
+    }
+
+    /**
+     * Returns the k smallest values of arr in ascending order, leaving arr unchanged.
+     * <p>
+     * For small k every thread keeps the k smallest values of its part of the array in a heap, which most values
+     * are rejected from with a single comparison, so this is one parallel read of the array.  For larger k it is
+     * {@link #sortRange(int[], int, int)} on a copy.
+     * <p>
+     * A heap only rejects values once it holds small ones, so on descending input every value would go into it.
+     * For that the heaps only take values up to a bound that about 4k values are expected to be at most, the 8th
+     * smallest of an evenly spaced sample; in the rare case that fewer than k values turn out to be at most the
+     * bound, it falls back to sortRange on a copy.
+     */
+    public int[] topK(int[] arr, int k)
+    {
+        if ( k < 0 || k > arr.length )
+        {
+            throw new IllegalArgumentException("k must be between 0 and " + arr.length + ": " + k);
+        }
+
+        if ( k <= arr.length / TOP_K_HEAP_RATIO )
+        {
+            // A few pieces per thread: each piece's heap fills up with small values early on and then rejects
+            // almost everything, so fewer, larger pieces do less work.
+
+            int leafSize = Math.max(Math.max(SEQUENTIAL_THRESHOLD, 4 * k), arr.length / (4 * pool.getParallelism()));
+            int bound = k < TOP_K_SAMPLE_MIN ? Integer.MAX_VALUE : sampleBound(arr, k, leafSize);
+            int[] result = smallest(arr, k, bound, leafSize);
+            if ( result.length == k )
+            {
+                Arrays.sort( result );
+                return result;
+            }
+        }
+
+        int[] copy = arr.clone();
+        sortRange(copy, 0, k);
+        return Arrays.copyOf(copy, k);
+    }
+
+    /**
+     * Returns the {@link #TOP_K_SAMPLE_RANK}th smallest of 2 * length / k evenly spaced values of arr.
+     */
+    private int sampleBound(int[] arr, int k, int leafSize)
+    {
+        int m = (int)(2L * arr.length / k);
+        int[] sample = new int[m];
+        for (int i = 0; i < m; i++)
+        {
+            sample[i] = arr[(int)((long)i * arr.length / m)];
+        }
+        return smallest(sample, TOP_K_SAMPLE_RANK, Integer.MAX_VALUE, leafSize)[0];
+    }
+
+    /**
+     * Returns the k smallest values of arr that are at most bound, or all of them if there are fewer, as a max-heap.
+     */
+    private int[] smallest(int[] arr, int k, int bound, int leafSize)
+    {
+        return arr.length <= leafSize ? smallest(arr, 0, arr.length, k, bound) : pool.invoke(new Smallest(arr, 0, arr.length, k, bound, leafSize));
+    }
+
+    /**
+     * Sorts the values of [lo, hi) that belong at ranks [from, to).  A partition step only recurses into the parts
+     * that overlap those ranks, so with from = lo and to = hi it is the full parallel quicksort, and with a narrow
+     * rank range it is a parallel quickselect that leaves the rest of the range partitioned but unsorted.
+     */
+    static private class Sorter extends RecursiveAction
+    {
+        private static final long serialVersionUID = 7286590134275408751L;
+
+        private int[] arr;
+        private int lo;
+        private int hi;
+        private int from;
+        private int to;
+        private int depth;
+
+        public Sorter(int[] arr, int lo, int hi, int depth)
+        {
+            this(arr, lo, hi, lo, hi, depth);
+        }
+
+        public Sorter(int[] arr, int lo, int hi, int from, int to, int depth)
+        {
+            this.arr = arr;
+            this.lo = lo;
+            this.hi = hi;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        public void compute()
+        {
+            if ( to <= lo || from >= hi )
+            {
+                return;
+            }
+
+            if ( hi - lo <= SEQUENTIAL_THRESHOLD || depth == 0 )
+            {
+                introsort(arr, lo, hi, depth);
+                return;
+            }
+
+            int pivot = pivot(arr, lo, hi);
+            int lt;
+            int gt;
+
+            if ( hi - lo > PARALLEL_PARTITION_THRESHOLD )
+            {
+                // [lo, lt) < pivot, [lt, hi) >= pivot, then [lt, gt) == pivot, [gt, hi) > pivot.
+                lt = new Partitioner(arr, lo, hi, pivot, false).invoke();
+                gt = new Partitioner(arr, lt, hi, pivot, true).invoke();
+            }
+            else
+            {
+                long bounds = partition3(arr, lo, hi, pivot);
+                lt = (int)(bounds >>> 32);
+                gt = (int)bounds;
+            }
+
+            invokeAll( new Sorter(arr, lo, lt, from, to, depth - 1), new Sorter(arr, gt, hi, from, to, depth - 1) );
+        }
+    }
+
+    /**
+     * Finds the k smallest values of [lo, hi) of arr that are at most bound, in no particular order, by splitting the
+     * range in two until it is at most leafSize long, keeping the k smallest of each piece in a max-heap and then
+     * keeping the k smallest of each pair of results.
+     */
+    static private class Smallest extends RecursiveTask<int[]>
+    {
+        private static final long serialVersionUID = -2491578349720145734L;
+
+        private int[] arr;
+        private int lo;
+        private int hi;
+        private int k;
+        private int bound;
+        private int leafSize;
+
+        public Smallest(int[] arr, int lo, int hi, int k, int bound, int leafSize)
+        {
+            this.arr = arr;
+            this.lo = lo;
+            this.hi = hi;
+            this.k = k;
+            this.bound = bound;
+            this.leafSize = leafSize;
+        }
+
+        public int[] compute()
+        {
+            if ( hi - lo <= leafSize )
+            {
+                return smallest(arr, lo, hi, k, bound);
+            }
+
+            int mid = (lo + hi) >>> 1;
+            Smallest left = new Smallest(arr, lo, mid, k, bound, leafSize);
+            Smallest right = new Smallest(arr, mid, hi, k, bound, leafSize);
+            invokeAll( left, right );
+
+            int[] a = left.join();
+            int[] b = right.join();
+            int[] both = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy( b, 0, both, a.length, b.length );
+            return smallest(both, 0, both.length, k, bound);
+        }
+    }
+
+    /**
+     * Partitions [lo, hi) in parallel into values that belong before the pivot and the rest, and returns the index
+     * of the first element of the rest.  Values before the pivot are those &lt; pivot, or &lt;= pivot if inclusive.
+     */
+    static private class Partitioner extends RecursiveTask<Integer>
+    {
+        private static final long serialVersionUID = -5226716406914226047L;
+
+        private int[] arr;
+        private int lo;
+        private int hi;
+        private int pivot;
+        private boolean inclusive;
+
+        public Partitioner(int[] arr, int lo, int hi, int pivot, boolean inclusive)
+        {
+            this.arr = arr;
+            this.lo = lo;
+            this.hi = hi;
+            this.pivot = pivot;
+            this.inclusive = inclusive;
+        }
+
+        public Integer compute()
+        {
+            if ( hi - lo <= PARALLEL_PARTITION_THRESHOLD / 4 )
+            {
+                return partition(arr, lo, hi, pivot, inclusive);
+            }
+
+            int mid = (lo + hi) >>> 1;
+            Partitioner left = new Partitioner(arr, lo, mid, pivot, inclusive);
+            Partitioner right = new Partitioner(arr, mid, hi, pivot, inclusive);
+            invokeAll( left, right );
+
+            int m1 = left.join();
+            int m2 = right.join();
+
+            // [lo, m1) small, [m1, mid) large, [mid, m2) small, [m2, hi) large.  Swap the shorter of the two inner
+            // blocks with the far end of the other one.
+
+            int large = mid - m1;
+            int small = m2 - mid;
+            int count = Math.min(large, small);
+            new Swapper(arr, m1, m2 - count, count).invoke();
+
+            return m1 + small;
+        }
+    }
+
+    /**
+     * Swaps arr[a, a + count) with arr[b, b + count) in parallel chunks; the two ranges don't overlap.
+     */
+    static private class Swapper extends RecursiveAction
+    {
+        private static final long serialVersionUID = 3550766519683658347L;
+
+        private int[] arr;
+        private int a;
+        private int b;
+        private int count;
+
+        public Swapper(int[] arr, int a, int b, int count)
+        {
+            this.arr = arr;
+            this.a = a;
+            this.b = b;
+            this.count = count;
+        }
+
+        public void compute()
+        {
+            if ( count <= SEQUENTIAL_THRESHOLD * 4 )
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    int tmp = arr[a + i];
+                    arr[a + i] = arr[b + i];
+                    arr[b + i] = tmp;
+                }
+                return;
+            }
+
+            int half = count / 2;
+            invokeAll( new Swapper(arr, a, b, half), new Swapper(arr, a + half, b + half, count - half) );
+        }
+    }
+
+    /**
+     * Returns the k smallest values of src[from, to) that are at most bound, or all of them if there are fewer, as
+     * a max-heap.
+     */
+    static private int[] smallest(int[] src, int from, int to, int k, int bound)
+    {
+        int[] heap = new int[Math.min(k, to - from)];
+        int n = 0;
+        int i = from;
+        for (; i < to && n < heap.length; i++)
+        {
+            if ( src[i] <= bound )
+            {
+                heap[n++] = src[i];
+            }
+        }
+        if ( n < heap.length )
+        {
+            heap = Arrays.copyOf(heap, n);
+        }
+
+        for (int j = n / 2 - 1; j >= 0; j--)
+        {
+            siftDown(heap, 0, j, n);
+        }
+
+        // Once the heap is full its top is at most bound, so the bound needs no check of its own.
+
+        if ( n > 0 )
+        {
+            for (; i < to; i++)
+            {
+                if ( src[i] < heap[0] )
+                {
+                    heap[0] = src[i];
+                    siftDown(heap, 0, 0, n);
+                }
+            }
+        }
+
+        return heap;
+    }
+
+    /**
+     * Median of three medians of three, spread over the range.
+     */
+    static private int pivot(int[] arr, int lo, int hi)
+    {
+        int len = hi - lo;
+        int step = len / 8;
+        int mid = lo + len / 2;
+
+        if ( len < 64 )
+        {
+            return median(arr[lo], arr[mid], arr[hi - 1]);
+        }
+
+        return median(
+                median(arr[lo], arr[lo + step], arr[lo + 2 * step]),
+                median(arr[mid - step], arr[mid], arr[mid + step]),
+                median(arr[hi - 1 - 2 * step], arr[hi - 1 - step], arr[hi - 1]));
+    }
+
+    static private int median(int a, int b, int c)
+    {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /**
+     * Sequentially partitions [lo, hi) into values before the pivot and the rest; see {@link Partitioner}.
+     */
+    static private int partition(int[] arr, int lo, int hi, int pivot, boolean inclusive)
+    {
+        int i = lo;
+        int j = hi - 1;
+
+        while ( true )
+        {
+            while ( i <= j && (arr[i] < pivot || (inclusive && arr[i] == pivot)) )
+            {
+                i++;
+            }
+            while ( i <= j && !(arr[j] < pivot || (inclusive && arr[j] == pivot)) )
+            {
+                j--;
+            }
+            if ( i >= j )
+            {
+                return i;
+            }
+            int tmp = arr[i];
+            arr[i] = arr[j];
+            arr[j] = tmp;
+            i++;
+            j--;
+        }
+    }
+
+    /**
+     * Sequential three-way (Dutch national flag) partition of [lo, hi) around the pivot, which must occur in the
+     * range.  Returns lt in the high 32 bits and gt in the low 32 bits, where [lo, lt) &lt; pivot,
+     * [lt, gt) == pivot and [gt, hi) &gt; pivot.
+     */
+    static private long partition3(int[] arr, int lo, int hi, int pivot)
+    {
+        int lt = lo;
+        int i = lo;
+        int gt = hi;
+
+        while ( i < gt )
+        {
+            int value = arr[i];
+            if ( value < pivot )
+            {
+                arr[i++] = arr[lt];
+                arr[lt++] = value;
+            }
+            else if ( value > pivot )
+            {
+                arr[i] = arr[--gt];
+                arr[gt] = value;
+            }
+            else
+            {
+                i++;
+            }
+        }
+
+        return ((long)lt << 32) | gt;
+    }
+
+    /**
+     * Sequential in-place introsort of [lo, hi): quicksort with three-way partitioning, recursing into the smaller
+     * part and looping on the larger so the stack stays O(log n), insertion sort for short ranges and heapsort once
+     * depth runs out.
+     */
+    static void introsort(int[] arr, int lo, int hi, int depth)
+    {
+        while ( hi - lo > INSERTION_SORT_THRESHOLD )
+        {
+            if ( depth-- <= 0 )
+            {
+                heapsort(arr, lo, hi);
+                return;
+            }
+
+            long bounds = partition3(arr, lo, hi, pivot(arr, lo, hi));
+            int lt = (int)(bounds >>> 32);
+            int gt = (int)bounds;
+
+            if ( lt - lo < hi - gt )
+            {
+                introsort(arr, lo, lt, depth);
+                lo = gt;
+            }
+            else
+            {
+                introsort(arr, gt, hi, depth);
+                hi = lt;
+            }
+        }
+
+        for (int i = lo + 1; i < hi; i++)
+        {
+            int value = arr[i];
+            int j = i - 1;
+            while ( j >= lo && arr[j] > value )
+            {
+                arr[j + 1] = arr[j];
+                j--;
+            }
+            arr[j + 1] = value;
+        }
+    }
+
+    static private void heapsort(int[] arr, int lo, int hi)
+    {
+        int n = hi - lo;
+
+        for (int i = n / 2 - 1; i >= 0; i--)
+        {
+            siftDown(arr, lo, i, n);
+        }
+        for (int end = n - 1; end > 0; end--)
+        {
+            int tmp = arr[lo];
+            arr[lo] = arr[lo + end];
+            arr[lo + end] = tmp;
+            siftDown(arr, lo, 0, end);
+        }
+    }
+
+    static private void siftDown(int[] arr, int lo, int i, int n)
+    {
+        int value = arr[lo + i];
+
+        while ( true )
+        {
+            int child = 2 * i + 1;
+            if ( child >= n )
+            {
+                break;
+            }
+            if ( child + 1 < n && arr[lo + child + 1] > arr[lo + child] )
+            {
+                child++;
+            }
+            if ( arr[lo + child] <= value )
+            {
+                break;
+            }
+            arr[lo + i] = arr[lo + child];
+            i = child;
+        }
+
+        arr[lo + i] = value;
+    }
+}
@@ -0,0 +1,324 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * InputGenerator.java - seeded test and benchmark inputs with realistic distributions
+ * <p>
+ * The performance tests used to sort either a reverse-ordered sequence, which Arrays.sort detects as a single run,
+ * or uniform random values, neither of which looks like production data.  Every distribution here is available for
+ * int[] and long[]:
+ * <pre>
+ * uniform           uniform random values over the whole range of the type
+ * zipf              heavy duplicates: ranks with probability about 1/rank over 2^20 ranks, so a few values are very
+ *                   common and most are rare (rank r is stored scrambled, as r times an odd constant)
+ * few-unique        16 distinct random values
+ * sorted            0, 1, 2, ...
+ * reversed          size, size - 1, ..., 1
+ * nearly-sorted     sorted, then a percentage of the elements (1 by default) swapped with another element of the same
+ *                   block of {@link #BLOCK_SIZE}, so no element moves further than that
+ * organ-pipe        ascending to the middle, then descending
+ * sawtooth          16 ascending runs of equal length
+ * quicksort-killer  Musser's median-of-3 killer sequence, which drives a quicksort that takes the median of the
+ *                   first, middle and last elements as its pivot to quadratic time
+ * </pre>
+ * The array is generated in blocks of {@link #BLOCK_SIZE} elements, in parallel on the common Fork/Join pool.  Each
+ * block has its own random generator, seeded from the seed and the block number, so the same seed and size always
+ * give the same data whatever the number of threads, and generating hundreds of millions of elements scales with
+ * the cores.
+ */
+public class InputGenerator
+{
+    /**
+     * Elements generated per task, and the range within which nearly-sorted swaps elements.
+     */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Zipf ranks run from 1 to 2^ZIPF_OCTAVES.  With probability 1/rank every octave [2^k, 2^(k+1)) is equally
+     * likely, so a rank is an octave picked uniformly times 2^f for f uniform in [0, 1).  2^f comes from a 32 bit
+     * fixed point table of 2^POW2_BITS steps with linear interpolation: Math.pow, or any double to integer
+     * conversion, made this several times slower than the uniform distribution.
+     */
+    static final private int ZIPF_OCTAVES = 20;
+    static final private int POW2_BITS = 10;
+    static final private long[] POW2 = new long[(1 << POW2_BITS) + 1];
+
+    static
+    {
+        for (int i = 0; i < POW2.length; i++)
+        {
+            POW2[i] = (long)(Math.pow(2, (double)i / (1 << POW2_BITS)) * (1L << 32));
+        }
+    }
+
+    static final private int FEW_UNIQUE_VALUES = 16;
+    static final private int SAWTOOTH_TEETH = 16;
+
+    /**
+     * Spreads zipf ranks over the value range; odd, so distinct ranks stay distinct in both 64 and 32 bits.
+     */
+    static final private long SCRAMBLE = 0x9E3779B97F4A7C15L;
+
+    public enum Distribution
+    {
+        UNIFORM("uniform"),
+        ZIPF("zipf"),
+        FEW_UNIQUE("few-unique"),
+        SORTED("sorted"),
+        REVERSED("reversed"),
+        NEARLY_SORTED("nearly-sorted"),
+        ORGAN_PIPE("organ-pipe"),
+        SAWTOOTH("sawtooth"),
+        QUICKSORT_KILLER("quicksort-killer");
+
+        private final String label;
+
+        private Distribution(String label)
+        {
+            this.label = label;
+        }
+
+        /**
+         * Returns the distribution with the given label, as used in the test output and the benchmark parameters.
+         */
+        static public Distribution forLabel(String label)
+        {
+            for (Distribution distribution : values())
+            {
+                if ( distribution.label.equals( label ) )
+                {
+                    return distribution;
+                }
+            }
+            throw new IllegalArgumentException("unknown distribution: " + label);
+        }
+
+        @Override
+        public String toString()
+        {
+            return label;
+        }
+    }
+
+    private final long seed;
+    private double swapPercent = 1;
+
+    public InputGenerator(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the percentage of elements that nearly-sorted swaps out of place.
+     */
+    public void setSwapPercent(double swapPercent)
+    {
+        if ( swapPercent < 0 || swapPercent > 100 )
+        {
+            throw new IllegalArgumentException("swap percent must be between 0 and 100: " + swapPercent);
+        }
+        this.swapPercent = swapPercent;
+    }
+
+    public int[] ints(Distribution distribution, int size)
+    {
+        int[] arr = new int[size];
+        fill(arr, distribution);
+        return arr;
+    }
+
+    public long[] longs(Distribution distribution, int size)
+    {
+        long[] arr = new long[size];
+        fill(arr, distribution);
+        return arr;
+    }
+
+    public void fill(int[] arr, Distribution distribution)
+    {
+        fill(arr, null, arr.length, distribution);
+    }
+
+    public void fill(long[] arr, Distribution distribution)
+    {
+        fill(null, arr, arr.length, distribution);
+    }
+
+    private void fill(int[] ints, long[] longs, int size, Distribution distribution)
+    {
+        int blocks = (int)(((long)size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+        // The few-unique values are shared by all blocks, and each block seeds its own generator with the next
+        // value.  (Seeds that differ by a constant would give SplittableRandoms whose sequences are shifted copies
+        // of each other.)
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] fewUnique = new long[FEW_UNIQUE_VALUES];
+        for (int v = 0; v < fewUnique.length; v++)
+        {
+            fewUnique[v] = random.nextLong();
+        }
+        long[] blockSeeds = new long[blocks];
+        for (int block = 0; block < blocks; block++)
+        {
+            blockSeeds[block] = random.nextLong();
+        }
+
+        Filler filler = new Filler(ints, longs, size, distribution, fewUnique, blockSeeds, 0, blocks);
+        if ( blocks <= 1 )
+        {
+            filler.compute();
+        }
+        else
+        {
+            ForkJoinPool.commonPool().invoke(filler);
+        }
+    }
+
+    /**
+     * Fills blocks [fromBlock, toBlock) of either ints or longs.
+     */
+    private class Filler extends RecursiveAction
+    {
+        private static final long serialVersionUID = -2318765120946712408L;
+
+        private int[] ints;
+        private long[] longs;
+        private int size;
+        private Distribution distribution;
+        private long[] fewUnique;
+        private long[] blockSeeds;
+        private int fromBlock;
+        private int toBlock;
+
+        public Filler(int[] ints, long[] longs, int size, Distribution distribution, long[] fewUnique, long[] blockSeeds, int fromBlock, int toBlock)
+        {
+            this.ints = ints;
+            this.longs = longs;
+            this.size = size;
+            this.distribution = distribution;
+            this.fewUnique = fewUnique;
+            this.blockSeeds = blockSeeds;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        public void compute()
+        {
+            if ( toBlock - fromBlock > 1 )
+            {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new Filler(ints, longs, size, distribution, fewUnique, blockSeeds, fromBlock, mid),
+                        new Filler(ints, longs, size, distribution, fewUnique, blockSeeds, mid, toBlock));
+                return;
+            }
+
+            for (int block = fromBlock; block < toBlock; block++)
+            {
+                fillBlock(block);
+            }
+        }
+
+        private void fillBlock(int block)
+        {
+            SplittableRandom random = new SplittableRandom(blockSeeds[block]);
+            int lo = block * BLOCK_SIZE;
+            int hi = (int)Math.min((long)lo + BLOCK_SIZE, size);
+            int half = size / 2;
+            int tooth = Math.max(1, (size + SAWTOOTH_TEETH - 1) / SAWTOOTH_TEETH);
+
+            for (int d = lo; d < hi; d++)
+            {
+                long value;
+
+                switch (distribution)
+                {
+                    case UNIFORM:
+                        value = random.nextLong();
+                        break;
+                    case ZIPF:
+                        value = zipfRank(random.nextLong()) * SCRAMBLE;
+                        break;
+                    case FEW_UNIQUE:
+                        value = fewUnique[random.nextInt(FEW_UNIQUE_VALUES)];
+                        break;
+                    case REVERSED:
+                        value = size - d;
+                        break;
+                    case ORGAN_PIPE:
+                        value = d < half ? d : size - 1 - d;
+                        break;
+                    case SAWTOOTH:
+                        value = d % tooth;
+                        break;
+                    case QUICKSORT_KILLER:
+                        value = killer(d, half);
+                        break;
+                    default:
+                        // sorted, and nearly-sorted before its swaps
+                        value = d;
+                }
+
+                if ( ints != null )
+                {
+                    ints[d] = (int)value;
+                }
+                else
+                {
+                    longs[d] = value;
+                }
+            }
+
+            if ( distribution == Distribution.NEARLY_SORTED )
+            {
+                long swaps = Math.round((hi - lo) * swapPercent / 200);
+                for (long s = 0; s < swaps; s++)
+                {
+                    swap(lo + random.nextInt(hi - lo), lo + random.nextInt(hi - lo));
+                }
+            }
+        }
+
+        private void swap(int i, int j)
+        {
+            if ( ints != null )
+            {
+                int t = ints[i]; ints[i] = ints[j]; ints[j] = t;
+            }
+            else
+            {
+                long t = longs[i]; longs[i] = longs[j]; longs[j] = t;
+            }
+        }
+    }
+
+    /**
+     * Maps 64 random bits to a rank from 1 to 2^ZIPF_OCTAVES with probability about 1/rank: the top 32 bits pick the
+     * octave, the next POW2_BITS the table step, and the 22 bits below those interpolate within the step.
+     */
+    static private long zipfRank(long bits)
+    {
+        int octave = (int)(((bits >>> 32) * ZIPF_OCTAVES) >>> 32);
+        int i = (int)(bits >>> (32 - POW2_BITS)) & ((1 << POW2_BITS) - 1);
+        long fraction = bits & ((1L << (32 - POW2_BITS)) - 1);
+        long pow2 = POW2[i] + (((POW2[i + 1] - POW2[i]) * fraction) >>> (32 - POW2_BITS));
+        return (pow2 << octave) >>> 32;
+    }
+
+    /**
+     * Element d of Musser's median-of-3 killer sequence of 2k elements: for odd i &lt; k, element i - 1 is i and
+     * element i is k + i, and element k + i - 1 is 2i for every i from 1 to k.  An odd last element gets 2k + 1.
+     */
+    static private long killer(int d, int k)
+    {
+        if ( d >= 2 * k )
+        {
+            return 2L * k + 1;
+        }
+        if ( d >= k )
+        {
+            return 2L * (d - k + 1);
+        }
+        return (d & 1) == 0 ? d + 1 : (long)k + d;
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * KeyedArray.java - an int key array with a payload array that moves with it
+ * <p>
+ * Prototype4's Sorter and Merger tasks hold the array they work on as an Object and pick a kernel for its type.
+ * Passing the keys and the payload together in one of these lets a key/payload sort go through the same segment
+ * and merge tree: every kernel that moves a key moves the payload element at the same index with it.  There is one
+ * of these per array, never one per element.
+ */
+class KeyedArray
+{
+    final int[] keys;
+    
+    /** An int[] or long[] as long as keys. */
+    final Object payload;
+    
+    KeyedArray(int[] keys, Object payload)
+    {
+        this.keys = keys;
+        this.payload = payload;
+    }
+}
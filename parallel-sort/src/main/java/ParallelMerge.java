@@ -0,0 +1,1190 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Comparator;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelMerge.java - split merges for the parallel sort prototypes
+ * <p>
+ * Both Prototype3 and Prototype4 finish with a single merge of two runs that covers the whole array, which runs on
+ * one thread no matter how many cores are available.  That serial O(n) step limits the speedup (Amdahl's law).
+ * <p>
+ * A merge of two sorted runs can be cut into independent pieces: for any output position k, the first k merged
+ * elements are made up of the first i elements of run 1 and the first k - i elements of run 2, and i (the "co-rank"
+ * of k) can be found by a binary search over the two runs.  Cutting the output at evenly spaced positions gives
+ * chunks of equal size that can be merged on different threads with no coordination, each one writing its own
+ * range of the destination.
+ * <p>
+ * The co-rank takes equal elements from run 1 first, so the split merge is stable.
+ * <p>
+ * There is a co-rank and a merge kernel for each primitive type that Prototype4 sorts.  They are the int versions
+ * with the element type substituted, except that doubles and floats compare with {@link #lessThan(double, double)}
+ * (or its branch-free form {@link #key(double)}) so that -0.0, 0.0 and NaN end up in the same order as with
+ * Arrays.sort.  The array merge kernels are branch-free, except where the int and long ones find a predictable
+ * pattern (see {@link #merge(int[], int[], int, int, int, int, int)}), and Prototype1, 2 and 3 merge through the
+ * int one.
+ * <p>
+ * Object arrays are merged with a stable galloping merge and split with a comparator based co-rank.
+ * <p>
+ * IntBuffers and LongBuffers, which may be direct (off-heap), are merged and split like int and long arrays, with
+ * absolute gets and puts.
+ * <p>
+ * A {@link KeyedArray} is split on its keys and merged with a kernel that moves the payload along with the keys.
+ * <p>
+ * Prototype4 uses {@link #split} to create one Merger task per chunk on its executor, and Prototype3 uses
+ * {@link MergeTask}, which splits recursively on the Fork/Join pool.
+ */
+public class ParallelMerge
+{
+    /**
+     * Merges smaller than this are not split any further; the binary searches and task overhead would cost more
+     * than the merge.
+     */
+    static final public int MINIMUM_CHUNK_SIZE = 8192;
+
+    /**
+     * The number of consecutive wins by one run after which the object merge switches to galloping, as in TimSort.
+     */
+    static final private int MIN_GALLOP = 7;
+
+    /**
+     * The int and long merges decide how to merge each block of this many steps from a branch-free probe of
+     * {@link #MERGE_PROBE_LENGTH} steps at its start.
+     */
+    static final private int MERGE_BLOCK_LENGTH = 4096;
+
+    static final private int MERGE_PROBE_LENGTH = 64;
+
+    /**
+     * Returns the co-rank of output position k in the merge of src[offset1, offset1 + len1) and
+     * src[offset2, offset2 + len2): the number of elements of the first run among the first k merged elements.
+     * @param k the output position, 0 &lt;= k &lt;= len1 + len2
+     */
+    static public int coRank(int[] src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        // Find the smallest i for which run1[i] belongs after run2[k - i - 1].  On equal values the element from
+        // the first run goes first, so run1[i] has to be strictly greater.
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( src[offset1 + i] <= src[offset2 + k - i - 1] )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    static public int coRank(long[] src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( src[offset1 + i] <= src[offset2 + k - i - 1] )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    static public int coRank(double[] src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( !lessThan(src[offset2 + k - i - 1], src[offset1 + i]) )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    static public int coRank(float[] src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( !lessThan(src[offset2 + k - i - 1], src[offset1 + i]) )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    static public int coRank(short[] src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( src[offset1 + i] <= src[offset2 + k - i - 1] )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    static public int coRank(char[] src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( src[offset1 + i] <= src[offset2 + k - i - 1] )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    static public int coRank(byte[] src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( src[offset1 + i] <= src[offset2 + k - i - 1] )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Returns the co-rank of output position k for a run pair in a buffer, which can be direct (off-heap); see
+     * {@link #coRank(int[], int, int, int, int, int)}.  Indexes are absolute, so the buffer's position is ignored.
+     */
+    static public int coRank(IntBuffer src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( src.get(offset1 + i) <= src.get(offset2 + k - i - 1) )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    static public int coRank(LongBuffer src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( src.get(offset1 + i) <= src.get(offset2 + k - i - 1) )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Returns the co-rank of output position k for a run pair of objects; see
+     * {@link #coRank(int[], int, int, int, int, int)}.  Equal elements of the first run go first, as in the merge.
+     */
+    static public int coRank(Object[] src, int offset1, int len1, int offset2, int len2, int k, Comparator<Object> comparator)
+    {
+        int lo = Math.max(0, k - len2);
+        int hi = Math.min(k, len1);
+
+        while ( lo < hi )
+        {
+            int i = (lo + hi) >>> 1;
+
+            if ( comparator.compare(src[offset1 + i], src[offset2 + k - i - 1]) <= 0 )
+            {
+                lo = i + 1;
+            }
+            else
+            {
+                hi = i;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Returns the co-rank of output position k for a run pair in any primitive array type, IntBuffer, LongBuffer
+     * or KeyedArray; see {@link #coRank(int[], int, int, int, int, int)}.
+     */
+    static public int coRank(Object src, int offset1, int len1, int offset2, int len2, int k)
+    {
+        if ( src instanceof int[] )
+        {
+            return coRank((int[])src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof long[] )
+        {
+            return coRank((long[])src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof double[] )
+        {
+            return coRank((double[])src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof float[] )
+        {
+            return coRank((float[])src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof short[] )
+        {
+            return coRank((short[])src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof char[] )
+        {
+            return coRank((char[])src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof byte[] )
+        {
+            return coRank((byte[])src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof IntBuffer )
+        {
+            return coRank((IntBuffer)src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof LongBuffer )
+        {
+            return coRank((LongBuffer)src, offset1, len1, offset2, len2, k);
+        }
+        else if ( src instanceof KeyedArray )
+        {
+            return coRank(((KeyedArray)src).keys, offset1, len1, offset2, len2, k);
+        }
+        throw new IllegalArgumentException("not a sortable primitive array: " + src);
+    }
+
+    /**
+     * Cuts the merge of src[offset1, offset1 + len1) and src[offset2, offset2 + len2) into at most parts chunks of
+     * about the same size, none smaller than {@link #MINIMUM_CHUNK_SIZE} unless there is only one.  src can be any
+     * primitive array type, IntBuffer, LongBuffer or KeyedArray.
+     * @return the output positions of the chunk boundaries, followed by the matching co-ranks:
+     *         chunk c covers output [cuts[c], cuts[c + 1]) and the first run [cuts[n + c], cuts[n + c + 1]),
+     *         where n = cuts.length / 2
+     */
+    static public int[] split(Object src, int offset1, int len1, int offset2, int len2, int parts)
+    {
+        return split(src, offset1, len1, offset2, len2, parts, null);
+    }
+
+    /**
+     * Cuts a merge into chunks like {@link #split(Object, int, int, int, int, int)}, where src can also be an
+     * object array ordered by the comparator.
+     */
+    static public int[] split(Object src, int offset1, int len1, int offset2, int len2, int parts, Comparator<Object> comparator)
+    {
+        int total = len1 + len2;
+        parts = Math.max(1, Math.min(parts, total / MINIMUM_CHUNK_SIZE));
+
+        int[] cuts = new int[2 * (parts + 1)];
+
+        for (int c = 0; c <= parts; c++)
+        {
+            int k = (int)((long)total * c / parts);
+            cuts[c] = k;
+            if ( src instanceof Object[] )
+            {
+                cuts[parts + 1 + c] = coRank((Object[])src, offset1, len1, offset2, len2, k, comparator);
+            }
+            else
+            {
+                cuts[parts + 1 + c] = coRank(src, offset1, len1, offset2, len2, k);
+            }
+        }
+
+        return cuts;
+    }
+
+    /**
+     * Fork/Join task that merges src[offset1, offset1 + len1) and src[offset2, offset2 + len2) into dst starting
+     * at dstOffset, splitting the merge in two at the co-rank of its midpoint until the pieces are smaller than
+     * {@link #MINIMUM_CHUNK_SIZE}.
+     */
+    static public class MergeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = -3209483207474386027L;
+
+        private int[] src;
+        private int[] dst;
+        private int offset1;
+        private int len1;
+        private int offset2;
+        private int len2;
+        private int dstOffset;
+
+        public MergeTask(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.offset1 = offset1;
+            this.len1 = len1;
+            this.offset2 = offset2;
+            this.len2 = len2;
+            this.dstOffset = dstOffset;
+        }
+
+        public void compute()
+        {
+            int total = len1 + len2;
+
+            if ( total < 2 * MINIMUM_CHUNK_SIZE )
+            {
+                merge(src, dst, offset1, len1, offset2, len2, dstOffset);
+                return;
+            }
+
+            int k = total / 2;
+            int i = coRank(src, offset1, len1, offset2, len2, k);
+            int j = k - i;
+
+            invokeAll(
+                    new MergeTask(src, dst, offset1, i, offset2, j, dstOffset),
+                    new MergeTask(src, dst, offset1 + i, len1 - i, offset2 + j, len2 - j, dstOffset + k)
+                    );
+        }
+    }
+
+    /**
+     * Fork/Join task that copies src[offset, offset + len) to the same positions of dst in parallel pieces.
+     */
+    static public class CopyTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 6573059329087014311L;
+
+        private int[] src;
+        private int[] dst;
+        private int offset;
+        private int len;
+
+        public CopyTask(int[] src, int[] dst, int offset, int len)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.offset = offset;
+            this.len = len;
+        }
+
+        public void compute()
+        {
+            if ( len < 2 * MINIMUM_CHUNK_SIZE )
+            {
+                System.arraycopy( src, offset, dst, offset, len );
+                return;
+            }
+
+            int half = len / 2;
+            invokeAll( new CopyTask(src, dst, offset, half), new CopyTask(src, dst, offset + half, len - half) );
+        }
+    }
+
+    /**
+     * Sequentially merges src[offset1, offset1 + len1) and src[offset2, offset2 + len2) into dst starting at dstOffset.
+     * <p>
+     * The merge loop used to test i &lt; len1 &amp;&amp; j &lt; len2 and then branch on the comparison for every
+     * element, and on random data the comparison branch goes the wrong way about half the time.  Here neither run
+     * can run out within min(remaining1, remaining2) steps, so the inner loop runs that many steps with the step
+     * count as its only exit, and whatever is left of one run at the end is copied with System.arraycopy.  Inside
+     * the loop the comparison is turned into 0 or 1 with sign arithmetic, which selects the output element by
+     * masking and advances i and j, so there is no data dependent branch for the CPU to mispredict.  That about
+     * doubles the speed on random runs.  C2 can't vectorize a merge (the loads depend on the comparisons), so a
+     * branch-free scalar loop is as far as plain Java goes.
+     * <p>
+     * Where the runs interleave in a pattern the branch predictor learns, though, the branch is free and the
+     * branch-free loop is 30 - 40% slower: each step's loads wait for the previous step's comparison, where a
+     * predicted branch lets the CPU run ahead.  One run winning long stretches is such a pattern, and so is strict
+     * alternation, which is what the sorted halves of organ-pipe, sawtooth and quicksort-killer input give.  So
+     * every block of {@link #MERGE_BLOCK_LENGTH} steps starts with {@link #MERGE_PROBE_LENGTH} branch-free steps
+     * that count how often the output switches runs, and if that is almost never or almost every time, finishes
+     * the block with a plain branching loop.  Runs that don't overlap at all are copied without a probe.
+     * <p>
+     * Equal elements are taken from the first run, so the merge is stable.  The long kernel is the same with the
+     * element type substituted.  The other primitive kernels, which Prototype4 doesn't use by default, are
+     * branch-free throughout; doubles and floats compare through {@link #key(double)}.
+     */
+    static public void merge(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = offset1;
+        int j = offset2;
+        int end1 = offset1 + len1;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+
+        if ( len1 > 0 && len2 > 0 && src[end2 - 1] < src[offset1] )
+        {
+            System.arraycopy( src, offset2, dst, k, len2 );
+            System.arraycopy( src, offset1, dst, k + len2, len1 );
+            return;
+        }
+
+        // Neither run can run out within n steps, so no step of a block needs a bounds test.
+
+        for (int n = len1 > 0 && len2 > 0 && src[end1 - 1] <= src[offset2] ? 0 : Math.min(len1, len2); n > 0; n = Math.min(end1 - i, end2 - j))
+        {
+            int block = Math.min(n, MERGE_BLOCK_LENGTH);
+            int probe = Math.min(block, MERGE_PROBE_LENGTH);
+            int switches = 0;
+            int last = 0;
+
+            for (int m = 0; m < probe; m++)
+            {
+                int a = src[i];
+                int b = src[j];
+                int takeB = (int)(((long)b - a) >>> 63);
+                dst[k++] = a ^ ((a ^ b) & -takeB);
+                i += 1 - takeB;
+                j += takeB;
+                switches += takeB ^ last;
+                last = takeB;
+            }
+
+            boolean predictable = switches <= probe / 8 || switches >= probe - probe / 8;
+            int taken1 = predictable ? mergeSteps(src, dst, i, j, k, block - probe) : mergeStepsBranchFree(src, dst, i, j, k, block - probe);
+            j += block - probe - taken1;
+            i += taken1;
+            k += block - probe;
+        }
+
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    static public void merge(long[] src, long[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = offset1;
+        int j = offset2;
+        int end1 = offset1 + len1;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+
+        if ( len1 > 0 && len2 > 0 && src[end2 - 1] < src[offset1] )
+        {
+            System.arraycopy( src, offset2, dst, k, len2 );
+            System.arraycopy( src, offset1, dst, k + len2, len1 );
+            return;
+        }
+
+        for (int n = len1 > 0 && len2 > 0 && src[end1 - 1] <= src[offset2] ? 0 : Math.min(len1, len2); n > 0; n = Math.min(end1 - i, end2 - j))
+        {
+            int block = Math.min(n, MERGE_BLOCK_LENGTH);
+            int probe = Math.min(block, MERGE_PROBE_LENGTH);
+            int switches = 0;
+            int last = 0;
+
+            for (int m = 0; m < probe; m++)
+            {
+                long a = src[i];
+                long b = src[j];
+                int takeB = less(b, a);
+                dst[k++] = a ^ ((a ^ b) & -(long)takeB);
+                i += 1 - takeB;
+                j += takeB;
+                switches += takeB ^ last;
+                last = takeB;
+            }
+
+            boolean predictable = switches <= probe / 8 || switches >= probe - probe / 8;
+            int taken1 = predictable ? mergeSteps(src, dst, i, j, k, block - probe) : mergeStepsBranchFree(src, dst, i, j, k, block - probe);
+            j += block - probe - taken1;
+            i += taken1;
+            k += block - probe;
+        }
+
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    static public void merge(double[] src, double[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = offset1;
+        int j = offset2;
+        int end1 = offset1 + len1;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+
+        for (int n = Math.min(len1, len2); n > 0; n = Math.min(end1 - i, end2 - j))
+        {
+            for (int m = 0; m < n; m++)
+            {
+                long a = Double.doubleToRawLongBits(src[i]);
+                long b = Double.doubleToRawLongBits(src[j]);
+                int takeB = less(key(src[j]), key(src[i]));
+                dst[k++] = Double.longBitsToDouble(a ^ ((a ^ b) & -(long)takeB));
+                i += 1 - takeB;
+                j += takeB;
+            }
+        }
+
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    static public void merge(float[] src, float[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = offset1;
+        int j = offset2;
+        int end1 = offset1 + len1;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+
+        for (int n = Math.min(len1, len2); n > 0; n = Math.min(end1 - i, end2 - j))
+        {
+            for (int m = 0; m < n; m++)
+            {
+                int a = Float.floatToRawIntBits(src[i]);
+                int b = Float.floatToRawIntBits(src[j]);
+                int takeB = (int)(((long)key(src[j]) - key(src[i])) >>> 63);
+                dst[k++] = Float.intBitsToFloat(a ^ ((a ^ b) & -takeB));
+                i += 1 - takeB;
+                j += takeB;
+            }
+        }
+
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    static public void merge(short[] src, short[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = offset1;
+        int j = offset2;
+        int end1 = offset1 + len1;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+
+        for (int n = Math.min(len1, len2); n > 0; n = Math.min(end1 - i, end2 - j))
+        {
+            for (int m = 0; m < n; m++)
+            {
+                int a = src[i];
+                int b = src[j];
+                int takeB = (b - a) >>> 31;
+                dst[k++] = (short)(a ^ ((a ^ b) & -takeB));
+                i += 1 - takeB;
+                j += takeB;
+            }
+        }
+
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    static public void merge(char[] src, char[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = offset1;
+        int j = offset2;
+        int end1 = offset1 + len1;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+
+        for (int n = Math.min(len1, len2); n > 0; n = Math.min(end1 - i, end2 - j))
+        {
+            for (int m = 0; m < n; m++)
+            {
+                int a = src[i];
+                int b = src[j];
+                int takeB = (b - a) >>> 31;
+                dst[k++] = (char)(a ^ ((a ^ b) & -takeB));
+                i += 1 - takeB;
+                j += takeB;
+            }
+        }
+
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    static public void merge(byte[] src, byte[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = offset1;
+        int j = offset2;
+        int end1 = offset1 + len1;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+
+        for (int n = Math.min(len1, len2); n > 0; n = Math.min(end1 - i, end2 - j))
+        {
+            for (int m = 0; m < n; m++)
+            {
+                int a = src[i];
+                int b = src[j];
+                int takeB = (b - a) >>> 31;
+                dst[k++] = (byte)(a ^ ((a ^ b) & -takeB));
+                i += 1 - takeB;
+                j += takeB;
+            }
+        }
+
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    /**
+     * Runs steps steps of a merge at src[i] and src[j] into dst from k with a comparison branch, for input where the
+     * branch is predictable.  Neither run may run out within those steps.  Returns how many came from the first run.
+     */
+    static private int mergeSteps(int[] src, int[] dst, int i, int j, int k, int steps)
+    {
+        int i0 = i;
+        for (int end = k + steps; k < end; k++)
+        {
+            if ( src[j] < src[i] )
+            {
+                dst[k] = src[j++];
+            }
+            else
+            {
+                dst[k] = src[i++];
+            }
+        }
+        return i - i0;
+    }
+
+    /**
+     * The same with the branch-free step of {@link #merge(int[], int[], int, int, int, int, int)}.  Each loop gets a
+     * method of its own, which C2 compiles better than the two side by side in merge.
+     */
+    static private int mergeStepsBranchFree(int[] src, int[] dst, int i, int j, int k, int steps)
+    {
+        int i0 = i;
+        for (int end = k + steps; k < end; k++)
+        {
+            int a = src[i];
+            int b = src[j];
+            int takeB = (int)(((long)b - a) >>> 63);
+            dst[k] = a ^ ((a ^ b) & -takeB);
+            i += 1 - takeB;
+            j += takeB;
+        }
+        return i - i0;
+    }
+
+    static private int mergeSteps(long[] src, long[] dst, int i, int j, int k, int steps)
+    {
+        int i0 = i;
+        for (int end = k + steps; k < end; k++)
+        {
+            if ( src[j] < src[i] )
+            {
+                dst[k] = src[j++];
+            }
+            else
+            {
+                dst[k] = src[i++];
+            }
+        }
+        return i - i0;
+    }
+
+    static private int mergeStepsBranchFree(long[] src, long[] dst, int i, int j, int k, int steps)
+    {
+        int i0 = i;
+        for (int end = k + steps; k < end; k++)
+        {
+            long a = src[i];
+            long b = src[j];
+            int takeB = less(b, a);
+            dst[k] = a ^ ((a ^ b) & -(long)takeB);
+            i += 1 - takeB;
+            j += takeB;
+        }
+        return i - i0;
+    }
+
+    /**
+     * The merge loop that {@link #merge(int[], int[], int, int, int, int, int)} replaced, with a bounds test and a
+     * comparison branch for every element.  Only useful for comparing performance.
+     */
+    static void mergeBranching(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while ( k < len1 + len2 )
+        {
+            if (i < len1 && j < len2)
+            {
+                if ( src[offset2 + j] < src[offset1 + i] )
+                {
+                    dst[dstOffset + k++] = src[offset2 + j++];
+                }
+                else
+                {
+                    dst[dstOffset + k++] = src[offset1 + i++];
+                }
+            }
+
+            else if (i < len1)
+            {
+                dst[dstOffset + k++] = src[offset1 + i++];
+            }
+
+            else
+            {
+                dst[dstOffset + k++] = src[offset2 + j++];
+            }
+        }
+    }
+
+    /**
+     * Sequentially merges a run pair of a buffer, which can be direct (off-heap), into dst with absolute gets and
+     * puts, so neither buffer's position changes.
+     */
+    static public void merge(IntBuffer src, IntBuffer dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while ( k < len1 + len2 )
+        {
+            if (i < len1 && j < len2)
+            {
+                if ( src.get(offset2 + j) < src.get(offset1 + i) )
+                {
+                    dst.put(dstOffset + k++, src.get(offset2 + j++));
+                }
+                else
+                {
+                    dst.put(dstOffset + k++, src.get(offset1 + i++));
+                }
+            }
+
+            else if (i < len1)
+            {
+                dst.put(dstOffset + k++, src.get(offset1 + i++));
+            }
+
+            else
+            {
+                dst.put(dstOffset + k++, src.get(offset2 + j++));
+            }
+        }
+    }
+
+    static public void merge(LongBuffer src, LongBuffer dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while ( k < len1 + len2 )
+        {
+            if (i < len1 && j < len2)
+            {
+                if ( src.get(offset2 + j) < src.get(offset1 + i) )
+                {
+                    dst.put(dstOffset + k++, src.get(offset2 + j++));
+                }
+                else
+                {
+                    dst.put(dstOffset + k++, src.get(offset1 + i++));
+                }
+            }
+
+            else if (i < len1)
+            {
+                dst.put(dstOffset + k++, src.get(offset1 + i++));
+            }
+
+            else
+            {
+                dst.put(dstOffset + k++, src.get(offset2 + j++));
+            }
+        }
+    }
+
+    /**
+     * Sequentially merges a run pair of int keys into dst, moving the payload element at each key's index with it.
+     * Equal keys are taken from the first run first, so the merge is stable.
+     */
+    static public void merge(int[] src, int[] srcPayload, int[] dst, int[] dstPayload, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while ( k < len1 + len2 )
+        {
+            if ( i < len1 && (j >= len2 || src[offset1 + i] <= src[offset2 + j]) )
+            {
+                dst[dstOffset + k] = src[offset1 + i];
+                dstPayload[dstOffset + k++] = srcPayload[offset1 + i++];
+            }
+            else
+            {
+                dst[dstOffset + k] = src[offset2 + j];
+                dstPayload[dstOffset + k++] = srcPayload[offset2 + j++];
+            }
+        }
+    }
+
+    static public void merge(int[] src, long[] srcPayload, int[] dst, long[] dstPayload, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+
+        while ( k < len1 + len2 )
+        {
+            if ( i < len1 && (j >= len2 || src[offset1 + i] <= src[offset2 + j]) )
+            {
+                dst[dstOffset + k] = src[offset1 + i];
+                dstPayload[dstOffset + k++] = srcPayload[offset1 + i++];
+            }
+            else
+            {
+                dst[dstOffset + k] = src[offset2 + j];
+                dstPayload[dstOffset + k++] = srcPayload[offset2 + j++];
+            }
+        }
+    }
+
+    /**
+     * Sequentially merges a run pair of any primitive array type, IntBuffer, LongBuffer or KeyedArray into dst,
+     * which must have the same type as src.  The type is checked once per call, so nothing is boxed inside the
+     * merge loops.
+     */
+    static public void merge(Object src, Object dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        if ( src instanceof int[] )
+        {
+            merge((int[])src, (int[])dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof long[] )
+        {
+            merge((long[])src, (long[])dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof double[] )
+        {
+            merge((double[])src, (double[])dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof float[] )
+        {
+            merge((float[])src, (float[])dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof short[] )
+        {
+            merge((short[])src, (short[])dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof char[] )
+        {
+            merge((char[])src, (char[])dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof byte[] )
+        {
+            merge((byte[])src, (byte[])dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof IntBuffer )
+        {
+            merge((IntBuffer)src, (IntBuffer)dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof LongBuffer )
+        {
+            merge((LongBuffer)src, (LongBuffer)dst, offset1, len1, offset2, len2, dstOffset);
+        }
+        else if ( src instanceof KeyedArray )
+        {
+            KeyedArray in = (KeyedArray)src;
+            KeyedArray out = (KeyedArray)dst;
+            if ( in.payload instanceof int[] )
+            {
+                merge(in.keys, (int[])in.payload, out.keys, (int[])out.payload, offset1, len1, offset2, len2, dstOffset);
+            }
+            else
+            {
+                merge(in.keys, (long[])in.payload, out.keys, (long[])out.payload, offset1, len1, offset2, len2, dstOffset);
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("not a sortable primitive array: " + src);
+        }
+    }
+
+    /**
+     * Stably merges object runs src[offset1, offset1 + len1) and src[offset2, offset2 + len2) into dst starting at
+     * dstOffset.
+     * <p>
+     * This is the TimSort merge strategy without the in-place part.  Elements are taken one at a time until one run
+     * has won {@link #MIN_GALLOP} times in a row; then the merge gallops, using an exponential search to find how
+     * many elements of each run go before the head of the other and copying them in one System.arraycopy.  It
+     * stays galloping while that keeps paying off, and the threshold adapts like TimSort's minGallop.  Comparisons
+     * are the expensive part of an object merge, so on partly ordered data this needs far fewer of them.
+     */
+    static public void merge(Object[] src, Object[] dst, int offset1, int len1, int offset2, int len2, int dstOffset, Comparator<Object> comparator)
+    {
+        int i = offset1;
+        int end1 = offset1 + len1;
+        int j = offset2;
+        int end2 = offset2 + len2;
+        int k = dstOffset;
+        int minGallop = MIN_GALLOP;
+
+        outer:
+        while ( i < end1 && j < end2 )
+        {
+            int count1 = 0;
+            int count2 = 0;
+
+            // One element at a time until one run starts winning consistently.
+            do
+            {
+                if ( comparator.compare(src[j], src[i]) < 0 )
+                {
+                    dst[k++] = src[j++];
+                    count2++;
+                    count1 = 0;
+                    if ( j == end2 )
+                    {
+                        break outer;
+                    }
+                }
+                else
+                {
+                    dst[k++] = src[i++];
+                    count1++;
+                    count2 = 0;
+                    if ( i == end1 )
+                    {
+                        break outer;
+                    }
+                }
+            }
+            while ( (count1 | count2) < minGallop );
+
+            // Gallop: copy everything from run 1 that is <= the head of run 2, then everything from run 2 that
+            // is < the head of run 1, until neither stretch is long enough to be worth it.
+            do
+            {
+                count1 = gallop(src[j], src, i, end1 - i, comparator, true);
+                if ( count1 != 0 )
+                {
+                    System.arraycopy( src, i, dst, k, count1 );
+                    i += count1;
+                    k += count1;
+                    if ( i == end1 )
+                    {
+                        break outer;
+                    }
+                }
+                dst[k++] = src[j++];
+                if ( j == end2 )
+                {
+                    break outer;
+                }
+
+                count2 = gallop(src[i], src, j, end2 - j, comparator, false);
+                if ( count2 != 0 )
+                {
+                    System.arraycopy( src, j, dst, k, count2 );
+                    j += count2;
+                    k += count2;
+                    if ( j == end2 )
+                    {
+                        break outer;
+                    }
+                }
+                dst[k++] = src[i++];
+                if ( i == end1 )
+                {
+                    break outer;
+                }
+
+                minGallop--;
+            }
+            while ( count1 >= MIN_GALLOP || count2 >= MIN_GALLOP );
+
+            if ( minGallop < 0 )
+            {
+                minGallop = 0;
+            }
+            minGallop += 2;  // penalize leaving gallop mode
+        }
+
+        // At most one of the runs has elements left.
+        System.arraycopy( src, i, dst, k, end1 - i );
+        System.arraycopy( src, j, dst, k + end1 - i, end2 - j );
+    }
+
+    /**
+     * Returns how many elements at the start of the sorted range a[base, base + len) go before key: the elements
+     * that are &lt;= key if inclusive, otherwise the elements that are &lt; key.  Probes at offsets 1, 3, 7, ... and
+     * then binary searches the last gap, so the cost is logarithmic in the answer rather than in len.
+     */
+    static private int gallop(Object key, Object[] a, int base, int len, Comparator<Object> comparator, boolean inclusive)
+    {
+        int limit = inclusive ? 0 : -1;
+        int lo = 0;
+        int step = 1;
+
+        while ( step <= len - lo && comparator.compare(a[base + lo + step - 1], key) <= limit )
+        {
+            lo += step;
+            step <<= 1;
+        }
+
+        int hi = Math.min(len, lo + step - 1);
+
+        while ( lo < hi )
+        {
+            int mid = (lo + hi) >>> 1;
+
+            if ( comparator.compare(a[base + mid], key) <= limit )
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Returns 1 if x &lt; y, else 0, without a branch: the sign of x - y, corrected for overflow (Hacker's Delight
+     * 2-12).
+     */
+    static int less(long x, long y)
+    {
+        long d = x - y;
+        return (int)((d ^ ((x ^ y) & (d ^ x))) >>> 63);
+    }
+
+    /**
+     * Returns a long that orders like the double under {@link #lessThan(double, double)}: the IEEE bits with the
+     * magnitude bits flipped for negative values, so -0.0 comes before 0.0 and NaN (made canonical) after infinity.
+     */
+    static long key(double d)
+    {
+        long bits = Double.doubleToLongBits(d);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    static int key(float f)
+    {
+        int bits = Float.floatToIntBits(f);
+        return bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+    }
+
+    /**
+     * The order used by Arrays.sort(double[]) (and Double.compare): -0.0 before 0.0, and NaN after everything
+     * else.  The ordinary comparisons decide all but the equal and NaN cases.
+     */
+    static boolean lessThan(double a, double b)
+    {
+        if ( a < b )
+        {
+            return true;
+        }
+        if ( a > b )
+        {
+            return false;
+        }
+        return Double.compare(a, b) < 0;
+    }
+
+    /**
+     * The order used by Arrays.sort(float[]); see {@link #lessThan(double, double)}.
+     */
+    static boolean lessThan(float a, float b)
+    {
+        if ( a < b )
+        {
+            return true;
+        }
+        if ( a > b )
+        {
+            return false;
+        }
+        return Float.compare(a, b) < 0;
+    }
+}
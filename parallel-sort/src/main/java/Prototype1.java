@@ -12,7 +12,11 @@ public class Prototype1
     
     public void psort(int[] arr)
     {
-        buffer = new int[arr.length];
+        // Keep the buffer from the previous call if it is big enough.
+        if ( buffer == null || buffer.length < arr.length )
+        {
+            buffer = new int[arr.length];
+        }
         doSort(arr, 0, arr.length);
     }
     
@@ -55,34 +59,7 @@ public class Prototype1
     {
         System.out.println("doMerge: offset1=" + offset1 + ", len1=" + len1 + ", offset2=" + offset2 + ", len2=" + len2);
         
-        int i = 0;
-        int j = 0;
-        int k = 0;
-        
-        while ( k < len1 + len2 )
-        {
-            if (i < len1 && j < len2)
-            {
-                if ( arr[offset1 + i] < arr[offset2 + j] )
-                {
-                    buffer[offset1 + k++] = arr[offset1 + i++];
-                }
-                else
-                {
-                    buffer[offset1 + k++] = arr[offset2 + j++];
-                }                
-            }
-            
-            else if (i < len1)
-            {
-                buffer[offset1 + k++] = arr[offset1 + i++];                
-            }
-            
-            else
-            {
-                buffer[offset1 + k++] = arr[offset2 + j++];                                
-            }
-        }
+        ParallelMerge.merge(arr, buffer, offset1, len1, offset2, len2, offset1);
         
         System.arraycopy( buffer, offset1, arr, offset1, len1 + len2 );
     }
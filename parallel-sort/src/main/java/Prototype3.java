@@ -23,22 +23,47 @@ import java.util.concurrent.RecursiveAction;
  * sizes perform better).
  * <p>
  * Something else to profile is seeing if the scratch buffer getting allocated per request is an issue
- * for large data sets.
+ * for large data sets.  (It is: at 10M ints it is a 40 MB humongous allocation per request.  The buffer now
+ * comes from a {@link WorkspacePool}, or the caller can pass its own.)
  * <p>
  * This would be something to investigate in a fourth prototype.
  * <p>
  * A fifth prototype could implement its own threading model in order to demonstrate how that might work.
+ * (That is {@link Prototype5}.)
+ * <p>
+ * Merges of large segments, in particular the top-level merge, are split at co-ranked positions
+ * (see {@link ParallelMerge}) so that they run on all the threads of the pool rather than just one.
+ * <p>
+ * The pool size, the size below which Arrays.sort is used directly, and the segment size for each array length
+ * come from a {@link Calibration}, unless a segment size is set.
  */
 public class Prototype3
 {
-    static final private int DEFAULT_SEGMENT_MAX_SIZE = 10000;
+    static final int DEFAULT_SEGMENT_MAX_SIZE = 10000;
     
-    private int segment_max_size = DEFAULT_SEGMENT_MAX_SIZE;
-    private ForkJoinPool pool = new ForkJoinPool();
+    private int segment_max_size = 0;
+    private Calibration calibration;
+    private ForkJoinPool pool;
+    private WorkspacePool workspacePool = WorkspacePool.getShared();
     public boolean debug = false;
     
+    /**
+     * Creates a sorter with the parallelism, sequential cutoff and segment sizes of the default {@link Calibration}.
+     */
     public Prototype3()
     {
+        this( Calibration.getDefault() );
+    }
+    
+    public Prototype3(Calibration calibration)
+    {
+        this.calibration = calibration;
+        this.pool = new ForkJoinPool(calibration.getParallelism());
+    }
+    
+    public void shutdown()
+    {
+        pool.shutdown();
     }
     
     public void setDebug(boolean debug)
@@ -46,19 +71,66 @@ public class Prototype3
         this.debug = debug;
     }
     
+    /**
+     * Sets a fixed segment size.
+     * @param size the largest segment that is sorted with Arrays.sort, or 0 (the default) for the calibrated leaf
+     *        size for each array length
+     */
     public void setSegmentSize(int size)
     {
         segment_max_size = size;
     }
     
+    /**
+     * Sets the pool that workspaces are taken from; by default the shared {@link WorkspacePool}.
+     */
+    public void setWorkspacePool(WorkspacePool workspacePool)
+    {
+        this.workspacePool = workspacePool;
+    }
+    
     /**
      * Sorts an array using multiple threads via the Fork/Join framework.
      * @param arr the array to sort
      */
     public void psort(int[] arr)
     {
-        int[] buffer = new int[arr.length];
-        pool.invoke(new Worker(arr, 0, arr.length, segment_max_size, buffer, debug));
+        if ( arr.length < calibration.getSequentialCutoff() )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        int[] buffer = workspacePool.acquireInts(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array using multiple threads via the Fork/Join framework, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param workspace scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(int[] arr, int[] workspace)
+    {
+        if ( workspace.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + workspace.length + " is less than array length " + arr.length);
+        }
+        if ( arr.length < calibration.getSequentialCutoff() )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        int segmentSize = segment_max_size > 0 ? segment_max_size : calibration.getLeafSize(arr.length);
+        pool.invoke(new Worker(arr, 0, arr.length, segmentSize, workspace, debug));
     }
     
     static private class Worker extends RecursiveAction
@@ -113,7 +185,24 @@ public class Prototype3
                 
                 invokeAll( new Worker(arr, offset1, len1, seg_max_size, buffer, debug), new Worker(arr, offset2, len2, seg_max_size, buffer, debug) );
                 
-                doMerge(arr, offset1, len1, offset2, len2);
+                if ( len < 2 * ParallelMerge.MINIMUM_CHUNK_SIZE )
+                {
+                    doMerge(arr, offset1, len1, offset2, len2);
+                }
+                else
+                {
+                    // Large merges (including the top-level one) are split at co-ranked positions and merged into
+                    // the buffer on several threads.  The copy back is a separate parallel step because a chunk
+                    // copied back early could overwrite input that another chunk is still reading.
+                    
+                    if (debug)
+                    {
+                        System.out.println("compute: running a split merge, offset1=" + offset1 + ", len1=" + len1 + ", offset2=" + offset2 + ", len2=" + len2);
+                    }
+                    
+                    new ParallelMerge.MergeTask(arr, buffer, offset1, len1, offset2, len2, offset1).invoke();
+                    new ParallelMerge.CopyTask(buffer, arr, offset1, len).invoke();
+                }
             }
 
             if (debug)
@@ -134,34 +223,7 @@ public class Prototype3
                 System.out.println("doMerge: offset1=" + offset1 + ", len1=" + len1 + ", offset2=" + offset2 + ", len2=" + len2);
             }
 
-            int i = 0;
-            int j = 0;
-            int k = 0;
-
-            while ( k < len1 + len2 )
-            {
-                if (i < len1 && j < len2)
-                {
-                    if ( arr[offset1 + i] < arr[offset2 + j] )
-                    {
-                        buffer[offset1 + k++] = arr[offset1 + i++];
-                    }
-                    else
-                    {
-                        buffer[offset1 + k++] = arr[offset2 + j++];
-                    }                
-                }
-
-                else if (i < len1)
-                {
-                    buffer[offset1 + k++] = arr[offset1 + i++];                
-                }
-
-                else
-                {
-                    buffer[offset1 + k++] = arr[offset2 + j++];                                
-                }
-            }
+            ParallelMerge.merge(arr, buffer, offset1, len1, offset2, len2, offset1);
 
             System.arraycopy( buffer, offset1, arr, offset1, len1 + len2 );
         }
@@ -1,10 +1,23 @@
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Comparator;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Prototype4.java - parallel sort utility
@@ -37,26 +50,154 @@ import java.util.concurrent.Future;
  * overhead that I suspected with the recursive approach.
  * <p>
  * Also since this approach isn't recursive, instead of using the Fork/Join framework, this uses a fixed thread pool
- * of size 4, and runs the 4 sort tasks in parallel to completion, then the 2 first merges in parallel.
+ * and runs the sort tasks in parallel to completion, then each level of merges in parallel.  The pool size comes
+ * from a {@link Calibration} (by default Runtime.availableProcessors()) or an explicit parallelism, and arrays
+ * below the calibration's sequential cutoff are sorted with Arrays.sort on the caller thread; the array is cut into
+ * the smallest power of 4 segments that keeps every thread busy (4 on a 4 core box, as before, 64 on a 32 or 64
+ * core box), so the merge tree is log2(segments) levels deep.
  * <p>
- * What isn't done yet is to eliminate copies from the workspace array back into the source array.
- * Performance testing shows significantly better performance for the very large 10M array, and I predict
- * that eliminating the copy back during the merge would address the current performance difference with java.util.Arrays.parallelSort().
+ * The merges no longer copy the workspace array back into the source array.  As in ArraysParallelSortHelpers,
+ * the main array and the workspace swap roles on each merge level: the first merges read the sorted segments
+ * from the source array and write into the workspace, the next level reads from the workspace and writes into the
+ * source array, and so on.  With an even number of merge levels the result always ends up in the caller's array.
+ * The old copy-back behaviour is kept behind {@link #setCopyBack(boolean)} so the two can be compared in Test4.
+ * <p>
+ * Besides int[], psort accepts long[], double[], float[], short[], char[] and byte[].  All of them go through the
+ * same segment and merge tree; the Sorter and Merger tasks hold the array as an Object and pick the Arrays.sort
+ * overload or the {@link ParallelMerge} merge kernel for its type once per task, so no element is ever boxed.
+ * <p>
+ * Object arrays with a Comparator go through the same tree too, with a stable TimSort at the leaves and a stable
+ * galloping merge, so that psort(T[], Comparator) is a stable parallel merge sort.
+ * <p>
+ * The upper levels of the merge tree have fewer merges than threads, and the final level has just one.  Those
+ * merges are cut into chunks by {@link ParallelMerge#split}, so the final merge is no longer a serial step.
+ * <p>
+ * IntBuffers and LongBuffers, including direct buffers and views of mapped files, are sorted in place through the
+ * same Sorter and Merger tasks, with a direct buffer as the workspace, so off-heap data doesn't have to be copied
+ * into an array and back.  Each segment is sorted in a pooled heap array, so buffer segments are capped at
+ * {@link #MAXIMUM_BUFFER_SEGMENT} elements (there are more of them, but still a power of 4) to bound the heap used.
+ * <p>
+ * psortKeyed(int[] keys, payload) sorts keys and moves an int[] or long[] payload with them, through the same tree: the
+ * two arrays travel together as a {@link KeyedArray}, the leaves sort keys packed with their index, and the merges
+ * move a payload element with every key.  Both are stable, so equal keys keep their payload order, and
+ * {@link #argsort(int[])} is that sort with the identity permutation as the payload.
+ * <p>
+ * int and long arrays are first scanned in parallel for natural runs by {@link RunDetector}.  Sorted input returns
+ * straight away, descending runs are reversed in place, and input made of a few long runs (no more
+ * than there would be segments) is merged run by run through the same merge levels instead of being
+ * cut at fixed offsets.  On random data the scan gives up within the first few elements.
+ * <p>
+ * {@link #setMetrics(SortMetrics)} turns on per phase instrumentation: the time spent sorting segments, merging
+ * and copying, per task run and queue wait times, and the bytes the merges write, as counters, a JMX MBean and,
+ * with the jfr module, JFR events.  It is off by default, and then costs a null check per phase.
+ * <p>
+ * The leaf sorts and merges of int and long arrays go through {@link SortKernels}: scalar by default, or with
+ * {@link #setKernels(SortKernels)} and {@link SortKernels#vectorized()}, sorting networks and bitonic merges in
+ * vector registers where the Vector API is available.
+ * <p>
+ * {@link #psortAll(int[][])} and {@link #psortAll(int[], int[])} sort a batch of many small arrays (or ranges of
+ * one array) by spreading whole arrays over the threads instead of splitting each one, and split only arrays too
+ * large to share a thread.
+ * <p>
+ * {@link #psortAsync(int[])} runs the same tree without blocking the caller, returning a CompletableFuture: each
+ * phase is started by the last task of the previous one, and the sort can be cancelled or given a deadline.
  */
 public class Prototype4
 {
-    static final private int MINIMUM_SIZE = 1000;
+    /**
+     * The smallest segment, and the smallest sequential cutoff a {@link Calibration} can set.
+     */
+    static final int MINIMUM_SIZE = 1000;
+    
+    /**
+     * Largest segment of a buffer sort.  Buffer segments are sorted in a heap array, so this bounds the heap used
+     * per thread however large the buffer is.
+     */
+    static final int MAXIMUM_BUFFER_SEGMENT = 1 << 20;
+    
+    /**
+     * Tasks per pool thread in a batch sort.  The packing evens out the estimated costs; a few tasks per thread even
+     * out the rest.
+     */
+    static final int BATCH_TASKS_PER_THREAD = 4;
     
-    private ExecutorService pool = Executors.newFixedThreadPool(4);
+    private final int parallelism;
+    private final int sequentialCutoff;
+    private ExecutorService pool;
     public boolean debug = false;
+    private boolean copyBack = false;
+    private boolean adaptive = true;
+    private WorkspacePool workspacePool = WorkspacePool.getShared();
+    private ForkJoinPool inPlacePool;
+    private InPlaceSort inPlaceSort;
+    private SortMetrics metrics;
+    private SortKernels kernels = SortKernels.scalar();
     
+    /**
+     * Creates a sorter with the parallelism and sequential cutoff of the default {@link Calibration}: one pool thread
+     * per available processor and {@link #MINIMUM_SIZE} unless it has been calibrated.
+     */
     public Prototype4()
     {
+        this( Calibration.getDefault() );
+    }
+    
+    /**
+     * Creates a sorter with an explicit parallelism, and the sequential cutoff of the default {@link Calibration}.
+     * @param parallelism the number of pool threads, which also sets the number of segments
+     */
+    public Prototype4(int parallelism)
+    {
+        this( parallelism, Calibration.getDefault().getSequentialCutoff() );
+    }
+    
+    /**
+     * Creates a sorter with the parallelism and sequential cutoff of a calibration.
+     */
+    public Prototype4(Calibration calibration)
+    {
+        this( calibration.getParallelism(), calibration.getSequentialCutoff() );
+    }
+    
+    private Prototype4(int parallelism, int sequentialCutoff)
+    {
+        this( parallelism, sequentialCutoff, null );
+    }
+    
+    /**
+     * For {@link Prototype5}, which runs the phases on its own scheduler.
+     * @param pool the executor that runs the tasks of each phase, or null for a fixed thread pool of parallelism
+     */
+    Prototype4(int parallelism, int sequentialCutoff, ExecutorService pool)
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.sequentialCutoff = sequentialCutoff;
+        this.pool = pool != null ? pool : Executors.newFixedThreadPool(parallelism);
+        this.inPlacePool = new ForkJoinPool(parallelism);
+        this.inPlaceSort = new InPlaceSort(inPlacePool);
+    }
+    
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+    
+    /**
+     * Returns the length below which arrays are sorted with Arrays.sort on the caller thread.
+     */
+    public int getSequentialCutoff()
+    {
+        return sequentialCutoff;
     }
     
     public void shutdown()
     {
         pool.shutdown();
+        inPlacePool.shutdown();
     }
     
     public void setDebug(boolean debug)
@@ -64,92 +205,1371 @@ public class Prototype4
         this.debug = debug;
     }
     
+    /**
+     * Selects the pre ping-pong merge behaviour, where every merge writes into the workspace and then copies
+     * the merged range back into the source array.  Only useful for comparing performance.
+     * @param copyBack true to copy back after every merge, false (the default) to swap array roles per level
+     */
+    public void setCopyBack(boolean copyBack)
+    {
+        this.copyBack = copyBack;
+    }
+    
+    /**
+     * Turns the scan for natural runs of int and long arrays on or off; see {@link RunDetector}.  Only useful for
+     * comparing performance.
+     * @param adaptive true (the default) to merge the natural runs of presorted input, false to always sort segments
+     */
+    public void setAdaptive(boolean adaptive)
+    {
+        this.adaptive = adaptive;
+    }
+    
+    /**
+     * Records the phases and tasks of every sort that goes through the segment and merge tree in a
+     * {@link SortMetrics}, or stops recording them if null (the default).  Sorts below the sequential cutoff, input
+     * found to be sorted already and asynchronous sorts are not recorded.  To count workspace allocations as well,
+     * give the metrics to the {@link WorkspacePool} too.
+     */
+    public void setMetrics(SortMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    public SortMetrics getMetrics()
+    {
+        return metrics;
+    }
+    
+    /**
+     * Sets the kernels that sort the segments of int and long arrays and merge them; by default
+     * {@link SortKernels#scalar()}.
+     */
+    public void setKernels(SortKernels kernels)
+    {
+        this.kernels = kernels;
+    }
+    
+    public SortKernels getKernels()
+    {
+        return kernels;
+    }
+    
+    /**
+     * Sets the pool that workspaces are taken from; by default the shared {@link WorkspacePool}.
+     */
+    public void setWorkspacePool(WorkspacePool workspacePool)
+    {
+        this.workspacePool = workspacePool;
+    }
+    
     /**
      * Sorts an array using multiple threads via ExecutorService.
      * @param arr the array to sort
      */
     public void psort(int[] arr)
     {
-        if ( arr.length < MINIMUM_SIZE )
+        if ( arr.length < sequentialCutoff )
         {
             Arrays.sort( arr );
             return;
         }
         
-        int[] buffer = new int[arr.length];
+        // Sorted and reversed input need no workspace.
+        
+        int[] runs = findRuns(arr, arr.length);
+        if ( runs != null && runs.length == 2 )
+        {
+            return;
+        }
         
-        // Logically divide the array into 4 segments and sort each segment.
+        int[] buffer = workspacePool.acquireInts(arr.length);
+        try
+        {
+            sortOrMerge(arr, buffer, arr.length, runs);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array using multiple threads without a workspace, for arrays too large to allocate one for.  This
+     * runs {@link InPlaceSort} on a Fork/Join pool of the same parallelism: the extra memory is O(log n) per thread
+     * (see {@link InPlaceSort#maxRecursionDepth(int)}) instead of a second array, but it is usually somewhat
+     * slower than {@link #psort(int[])}.
+     * @param arr the array to sort
+     */
+    public void psortInPlace(int[] arr)
+    {
+        inPlaceSort.psort(arr);
+    }
+    
+    /**
+     * Returns the k smallest values of arr in ascending order, without sorting the rest; see
+     * {@link InPlaceSort#topK(int[], int)}.  arr is left unchanged.
+     */
+    public int[] topK(int[] arr, int k)
+    {
+        return inPlaceSort.topK(arr, k);
+    }
+    
+    /**
+     * Returns the value of rank n of arr and moves it to arr[n], partitioning the array around it in place; see
+     * {@link InPlaceSort#select(int[], int)}.
+     */
+    public int select(int[] arr, int n)
+    {
+        return inPlaceSort.select(arr, n);
+    }
+    
+    /**
+     * Sorts just ranks [fromRank, toRank) of arr into place; see {@link InPlaceSort#sortRange(int[], int, int)}.
+     */
+    public void sortRange(int[] arr, int fromRank, int toRank)
+    {
+        inPlaceSort.sortRange(arr, fromRank, toRank);
+    }
+    
+    /**
+     * Sorts an array using multiple threads via ExecutorService, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(int[] arr, int[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
         
-        int offset1 = 0;
-        int offset3 = arr.length / 2;
-        int offset2 = offset3 / 2;
-        int offset4 = offset3 + offset2;
-        int len1 = offset2;
-        int len2 = offset3 - offset2;
-        int len3 = offset4 - offset3;
-        int len4 = arr.length - offset4;
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
         
-        ArrayList<Callable<Object>> workers = new ArrayList<>();
+        sortOrMerge(arr, buffer, arr.length, findRuns(arr, arr.length));
+    }
+    
+    /**
+     * Sorts each of a batch of arrays, using multiple threads via ExecutorService.  Rather than sorting the arrays
+     * one after another, each on every thread (or, below the sequential cutoff, on the caller thread alone), this
+     * sorts different arrays on different threads: the arrays are packed into a few tasks per pool thread by their
+     * n log n cost, the largest first into the least loaded task, and each task sorts its arrays whole.  An array
+     * that would cost more than a thread's share of the batch is sorted afterwards with {@link #psort(int[])}.
+     * Batches too small to be worth the pool are sorted on the caller thread.
+     * @param arrays the arrays to sort; each is sorted independently
+     */
+    public void psortAll(int[][] arrays)
+    {
+        sortAll(arrays, null, null, arrays.length);
+    }
+    
+    /**
+     * Sorts each of the ranges [offsets[i], offsets[i + 1]) of one backing array independently, as
+     * {@link #psortAll(int[][])} does for separate arrays.  A range too large to share a task is copied into a
+     * pooled workspace, sorted there with the whole pool and copied back.
+     * @param data the backing array
+     * @param offsets the bounds of the ranges, ascending: n + 1 offsets for n ranges
+     */
+    public void psortAll(int[] data, int[] offsets)
+    {
+        for (int i = 0; i < offsets.length; i++)
+        {
+            if ( offsets[i] < 0 || offsets[i] > data.length || (i > 0 && offsets[i] < offsets[i - 1]) )
+            {
+                throw new IllegalArgumentException("offsets must ascend within the array length " + data.length + ": offsets[" + i + "]=" + offsets[i]);
+            }
+        }
+        
+        sortAll(null, data, offsets, Math.max(offsets.length - 1, 0));
+    }
+    
+    /**
+     * Starts sorting an array on the pool and returns straight away, with a future that completes with the array
+     * once it is sorted.  No thread waits for another along the way: each phase of the sort is started by the
+     * last task of the one before, so the caller only queues the first task, and a virtual thread can call this
+     * (and join the future) without pinning its carrier thread.
+     * <p>
+     * Cancelling the future stops the sort: tasks that haven't started are skipped, the ones that are running
+     * finish their segment or chunk, and arr is left holding its elements in some order.  The future is not
+     * cancelled there and then but once those tasks have finished, so arr is never written after the future
+     * completes; cancel returns true if the sort was still running, though one that was finishing its last step
+     * may still complete normally.  If a task throws, the future completes exceptionally with that exception, and
+     * arr is left the same way.  Asynchronous sorts don't
+     * scan for natural runs, as that scan waits for its tasks, and are not recorded in the metrics.
+     * <p>
+     * On a {@link Prototype5} of parallelism 1 there is no thread but the caller, and the sort runs before this
+     * returns.
+     * @param arr the array to sort; it must not be touched until the future completes
+     */
+    public CompletableFuture<int[]> psortAsync(int[] arr)
+    {
+        return sortAsync(arr, 0, null);
+    }
+    
+    /**
+     * Starts sorting an array on the pool, as {@link #psortAsync(int[])}, with a deadline: if the sort hasn't
+     * finished in time it is stopped as if it had been cancelled, and the future completes exceptionally with a
+     * TimeoutException once its running tasks have finished.
+     * @param arr the array to sort
+     * @param timeout how long the sort may take, from this call
+     */
+    public CompletableFuture<int[]> psortAsync(int[] arr, long timeout, TimeUnit unit)
+    {
+        return sortAsync(arr, timeout, unit);
+    }
+    
+    /**
+     * Starts sorting an array of longs on the pool; see {@link #psortAsync(int[])}.
+     * @param arr the array to sort
+     */
+    public CompletableFuture<long[]> psortAsync(long[] arr)
+    {
+        return sortAsync(arr, 0, null);
+    }
+    
+    /**
+     * Starts sorting an array of longs on the pool with a deadline; see {@link #psortAsync(int[], long, TimeUnit)}.
+     * @param arr the array to sort
+     * @param timeout how long the sort may take, from this call
+     */
+    public CompletableFuture<long[]> psortAsync(long[] arr, long timeout, TimeUnit unit)
+    {
+        return sortAsync(arr, timeout, unit);
+    }
+    
+    /**
+     * Sorts an array of longs using multiple threads via ExecutorService.
+     * @param arr the array to sort
+     */
+    public void psort(long[] arr)
+    {
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        // Sorted and reversed input need no workspace.
+        
+        int[] runs = findRuns(arr, arr.length);
+        if ( runs != null && runs.length == 2 )
+        {
+            return;
+        }
+        
+        long[] buffer = workspacePool.acquireLongs(arr.length);
+        try
+        {
+            sortOrMerge(arr, buffer, arr.length, runs);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array of longs using multiple threads via ExecutorService, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(long[] arr, long[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+        
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        sortOrMerge(arr, buffer, arr.length, findRuns(arr, arr.length));
+    }
+    
+    /**
+     * Sorts an array of doubles using multiple threads via ExecutorService.
+     * <p>
+     * The order is the same as Arrays.sort(double[]): -0.0 sorts before 0.0 and NaNs sort last.
+     * @param arr the array to sort
+     */
+    public void psort(double[] arr)
+    {
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        double[] buffer = workspacePool.acquireDoubles(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array of doubles using multiple threads via ExecutorService, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(double[] arr, double[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+        
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
         
-        workers.add( new Sorter(arr, offset1, len1, debug ) );
-        workers.add( new Sorter(arr, offset2, len2, debug ) );
-        workers.add( new Sorter(arr, offset3, len3, debug ) );
-        workers.add( new Sorter(arr, offset4, len4, debug ) );
+        sortAndMerge(arr, buffer, arr.length, null);
+    }
+    
+    /**
+     * Sorts an array of floats using multiple threads via ExecutorService.
+     * <p>
+     * The order is the same as Arrays.sort(float[]): -0.0 sorts before 0.0 and NaNs sort last.
+     * @param arr the array to sort
+     */
+    public void psort(float[] arr)
+    {
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
         
+        float[] buffer = workspacePool.acquireFloats(arr.length);
         try
         {
-            List<Future<Object>> firstSortResults = pool.invokeAll( workers );
-            
-            for (Future<Object> result : firstSortResults)
-            {
-                result.get();  // check for error; raises an exception if the worker raised an exception
-            }
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array of floats using multiple threads via ExecutorService, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(float[] arr, float[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+        
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        sortAndMerge(arr, buffer, arr.length, null);
+    }
+    
+    /**
+     * Sorts an array of shorts using multiple threads via ExecutorService.
+     * @param arr the array to sort
+     */
+    public void psort(short[] arr)
+    {
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        short[] buffer = workspacePool.acquireShorts(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array of shorts using multiple threads via ExecutorService, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(short[] arr, short[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+        
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        sortAndMerge(arr, buffer, arr.length, null);
+    }
+    
+    /**
+     * Sorts an array of chars using multiple threads via ExecutorService.
+     * @param arr the array to sort
+     */
+    public void psort(char[] arr)
+    {
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        char[] buffer = workspacePool.acquireChars(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array of chars using multiple threads via ExecutorService, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(char[] arr, char[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+        
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        sortAndMerge(arr, buffer, arr.length, null);
+    }
+    
+    /**
+     * Sorts an array of bytes using multiple threads via ExecutorService.
+     * @param arr the array to sort
+     */
+    public void psort(byte[] arr)
+    {
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        byte[] buffer = workspacePool.acquireBytes(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+    
+    /**
+     * Sorts an array of bytes using multiple threads via ExecutorService, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(byte[] arr, byte[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+        
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+        
+        sortAndMerge(arr, buffer, arr.length, null);
+    }
+    
+    /**
+     * Sorts the remaining ints of a buffer (from its position to its limit) in place, using multiple threads via
+     * ExecutorService.  The buffer can be direct, or a view of a mapped file, and its position and limit don't
+     * change.  The workspace is a direct buffer from the workspace pool, so nothing of the size of the data is put
+     * on the heap.  A direct buffer holds at most Integer.MAX_VALUE bytes; larger buffers need a workspace passed
+     * in with {@link #psort(IntBuffer, IntBuffer)}.
+     * @param arr the buffer to sort
+     * @throws IllegalArgumentException if arr has more ints remaining than a direct workspace can hold
+     */
+    public void psort(IntBuffer arr)
+    {
+        if ( arr.remaining() < sequentialCutoff )
+        {
+            sortSmall(arr.slice());
+            return;
+        }
+        
+        ByteBuffer workspace = workspacePool.acquireDirect(directWorkspaceBytes(arr.remaining(), Integer.BYTES));
+        try
+        {
+            psort(arr, workspace.order(ByteOrder.nativeOrder()).asIntBuffer());
+        }
+        finally
+        {
+            workspacePool.release(workspace);
+        }
+    }
+    
+    /**
+     * Sorts the remaining ints of a buffer in place with a caller supplied workspace.
+     * @param arr the buffer to sort
+     * @param buffer scratch space with at least as many ints remaining as arr; its contents are overwritten
+     */
+    public void psort(IntBuffer arr, IntBuffer buffer)
+    {
+        if ( buffer.remaining() < arr.remaining() )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.remaining() + " is less than buffer length " + arr.remaining());
+        }
+        
+        if ( arr.remaining() < sequentialCutoff )
+        {
+            sortSmall(arr.slice());
+            return;
+        }
+        
+        sortAndMerge(arr.slice(), buffer.slice(), arr.remaining(), null);
+    }
+    
+    /**
+     * Sorts the remaining longs of a buffer in place; see {@link #psort(IntBuffer)}.
+     * @param arr the buffer to sort
+     */
+    public void psort(LongBuffer arr)
+    {
+        if ( arr.remaining() < sequentialCutoff )
+        {
+            sortSmall(arr.slice());
+            return;
+        }
+        
+        ByteBuffer workspace = workspacePool.acquireDirect(directWorkspaceBytes(arr.remaining(), Long.BYTES));
+        try
+        {
+            psort(arr, workspace.order(ByteOrder.nativeOrder()).asLongBuffer());
+        }
+        finally
+        {
+            workspacePool.release(workspace);
+        }
+    }
+    
+    /**
+     * Sorts the remaining longs of a buffer in place with a caller supplied workspace.
+     * @param arr the buffer to sort
+     * @param buffer scratch space with at least as many longs remaining as arr; its contents are overwritten
+     */
+    public void psort(LongBuffer arr, LongBuffer buffer)
+    {
+        if ( buffer.remaining() < arr.remaining() )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.remaining() + " is less than buffer length " + arr.remaining());
+        }
+        
+        if ( arr.remaining() < sequentialCutoff )
+        {
+            sortSmall(arr.slice());
+            return;
+        }
+        
+        sortAndMerge(arr.slice(), buffer.slice(), arr.remaining(), null);
+    }
+    
+    /**
+     * Returns the size in bytes of a direct workspace for length elements of elementSize bytes.
+     */
+    static private int directWorkspaceBytes(int length, int elementSize)
+    {
+        if ( length > Integer.MAX_VALUE / elementSize )
+        {
+            throw new IllegalArgumentException("buffer length " + length + " is too large for a direct workspace; pass a workspace");
+        }
+        return length * elementSize;
+    }
+    
+    private void sortSmall(Buffer arr)
+    {
+        Sorter.sort(arr, 0, arr.limit(), null, workspacePool);
+    }
+    
+    /**
+     * Sorts int keys and moves an int payload (row ids, for example) with them, using multiple threads via
+     * ExecutorService.  The sort is stable: payload elements with equal keys keep their order.
+     * @param keys the keys to sort
+     * @param payload the values to reorder with the keys, as long as keys
+     */
+    public void psortKeyed(int[] keys, int[] payload)
+    {
+        checkPayload(keys, payload.length);
+        
+        int[] keyBuffer = workspacePool.acquireInts(keys.length);
+        int[] payloadBuffer = workspacePool.acquireInts(keys.length);
+        try
+        {
+            psortKeyed(keys, payload, keyBuffer, payloadBuffer);
+        }
+        finally
+        {
+            workspacePool.release(keyBuffer);
+            workspacePool.release(payloadBuffer);
+        }
+    }
+    
+    /**
+     * Stably sorts int keys with an int payload, with caller supplied workspaces.
+     * @param keys the keys to sort
+     * @param payload the values to reorder with the keys, as long as keys
+     * @param keyBuffer scratch space at least as long as keys; its contents are overwritten
+     * @param payloadBuffer scratch space at least as long as keys; its contents are overwritten
+     */
+    public void psortKeyed(int[] keys, int[] payload, int[] keyBuffer, int[] payloadBuffer)
+    {
+        checkPayload(keys, payload.length);
+        checkWorkspace(keys, keyBuffer.length, payloadBuffer.length);
+        
+        sortKeyed(new KeyedArray(keys, payload), new KeyedArray(keyBuffer, payloadBuffer), keys.length);
+    }
+    
+    /**
+     * Sorts int keys and moves a long payload with them; see {@link #psortKeyed(int[], int[])}.
+     * @param keys the keys to sort
+     * @param payload the values to reorder with the keys, as long as keys
+     */
+    public void psortKeyed(int[] keys, long[] payload)
+    {
+        checkPayload(keys, payload.length);
+        
+        int[] keyBuffer = workspacePool.acquireInts(keys.length);
+        long[] payloadBuffer = workspacePool.acquireLongs(keys.length);
+        try
+        {
+            psortKeyed(keys, payload, keyBuffer, payloadBuffer);
+        }
+        finally
+        {
+            workspacePool.release(keyBuffer);
+            workspacePool.release(payloadBuffer);
+        }
+    }
+    
+    /**
+     * Stably sorts int keys with a long payload, with caller supplied workspaces.
+     * @param keys the keys to sort
+     * @param payload the values to reorder with the keys, as long as keys
+     * @param keyBuffer scratch space at least as long as keys; its contents are overwritten
+     * @param payloadBuffer scratch space at least as long as keys; its contents are overwritten
+     */
+    public void psortKeyed(int[] keys, long[] payload, int[] keyBuffer, long[] payloadBuffer)
+    {
+        checkPayload(keys, payload.length);
+        checkWorkspace(keys, keyBuffer.length, payloadBuffer.length);
+        
+        sortKeyed(new KeyedArray(keys, payload), new KeyedArray(keyBuffer, payloadBuffer), keys.length);
+    }
+    
+    /**
+     * Returns the permutation that stably sorts keys: the index in keys of the smallest key, then of the next
+     * smallest, and so on, with equal keys in index order.  keys is left unchanged.
+     * @param keys the keys to order
+     * @return perm such that keys[perm[0]] &lt;= keys[perm[1]] &lt;= ...
+     */
+    public int[] argsort(int[] keys)
+    {
+        int[] perm = new int[keys.length];
+        for (int i = 0; i < perm.length; i++)
+        {
+            perm[i] = i;
+        }
+        
+        int[] copy = workspacePool.acquireInts(keys.length);
+        try
+        {
+            System.arraycopy( keys, 0, copy, 0, keys.length );
+            psortKeyed(new KeyedArray(copy, perm), keys.length);
+        }
+        finally
+        {
+            workspacePool.release(copy);
+        }
+        
+        return perm;
+    }
+    
+    /**
+     * Sorts the first length keys of a KeyedArray with its payload, with pooled workspaces.
+     */
+    private void psortKeyed(KeyedArray arr, int length)
+    {
+        int[] keyBuffer = workspacePool.acquireInts(length);
+        int[] payloadBuffer = workspacePool.acquireInts(length);
+        try
+        {
+            sortKeyed(arr, new KeyedArray(keyBuffer, payloadBuffer), length);
+        }
+        finally
+        {
+            workspacePool.release(keyBuffer);
+            workspacePool.release(payloadBuffer);
+        }
+    }
+    
+    private void sortKeyed(KeyedArray arr, KeyedArray buffer, int length)
+    {
+        if ( length < sequentialCutoff )
+        {
+            Sorter.sort(arr, 0, length, null, workspacePool);
+            return;
+        }
+        
+        sortAndMerge(arr, buffer, length, null);
+    }
+    
+    static private void checkPayload(int[] keys, int payloadLength)
+    {
+        if ( payloadLength != keys.length )
+        {
+            throw new IllegalArgumentException("payload length " + payloadLength + " differs from key length " + keys.length);
+        }
+    }
+    
+    static private void checkWorkspace(int[] keys, int keyBufferLength, int payloadBufferLength)
+    {
+        if ( Math.min(keyBufferLength, payloadBufferLength) < keys.length )
+        {
+            throw new IllegalArgumentException("workspace length " + Math.min(keyBufferLength, payloadBufferLength) + " is less than array length " + keys.length);
+        }
+    }
+    
+    /**
+     * Sorts an array of objects using multiple threads via ExecutorService.  The sort is stable: equal elements
+     * keep their relative order.
+     * <p>
+     * The segments are sorted with Arrays.sort(T[], Comparator), which is a TimSort and so takes advantage of runs
+     * that are already in order, and merged with a galloping merge that copies whole stretches of a run at a time
+     * when one run keeps winning.  Partly ordered data is therefore much cheaper than random data.
+     * @param arr the array to sort
+     * @param comparator the order to sort in, or null for the natural ordering
+     */
+    public <T> void psort(T[] arr, Comparator<? super T> comparator)
+    {
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr, comparator );
+            return;
+        }
+        
+        // Object workspaces are not pooled: a pooled buffer would keep the sorted objects reachable.
+        psort(arr, comparator, new Object[arr.length]);
+    }
+    
+    /**
+     * Sorts an array of objects using multiple threads via ExecutorService, with a caller supplied workspace.
+     * The workspace is left holding references to the elements of arr.
+     * @param arr the array to sort
+     * @param comparator the order to sort in, or null for the natural ordering
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void psort(T[] arr, Comparator<? super T> comparator, Object[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+        
+        if ( arr.length < sequentialCutoff )
+        {
+            Arrays.sort( arr, comparator );
+            return;
+        }
+        
+        Comparator<Object> order = (Comparator<Object>)comparator;
+        if ( order == null )
+        {
+            order = (a, b) -> ((Comparable<Object>)a).compareTo(b);
+        }
+        
+        sortAndMerge(arr, buffer, arr.length, order);
+    }
+    
+    /**
+     * Returns the natural runs of an int[] or long[] as found by {@link RunDetector#findRuns}, which has already
+     * reversed the descending ones, or null if there are too many for merging them to pay off (or adaptive is off).
+     */
+    private int[] findRuns(Object arr, int length)
+    {
+        if ( !adaptive )
+        {
+            return null;
+        }
+        // With no more runs than segments there are no more merge levels than in sortAndMerge, and no segment sorts.
+        // With more, Arrays.sort finds the runs within each segment anyway, and does better than extra levels.
+        
+        return RunDetector.findRuns(pool, parallelism, arr, length, segmentCount(length));
+    }
+    
+    /**
+     * Merges the natural runs found by {@link #findRuns}, or sorts and merges segments if it found too many.
+     */
+    private void sortOrMerge(Object arr, Object buffer, int length, int[] runs)
+    {
+        if ( runs == null )
+        {
+            sortAndMerge(arr, buffer, length, null);
+        }
+        else if ( runs.length > 2 )
+        {
+            SortMetrics metrics = this.metrics;
+            SortMetrics.SortEvent event = metrics == null ? null : metrics.beginSort();
+            
+            mergeRuns(arr, buffer, runs, null);
+            
+            if ( event != null )
+            {
+                metrics.endSort(event, arr, length, runs.length - 1);
+            }
+        }
+    }
+    
+    /**
+     * Sorts the segments of arr and merges them, for any primitive array type, or for an object array when a
+     * comparator is given.  The Sorter and Merger tasks check the array type once each and then run a kernel
+     * specialized for it.
+     */
+    private void sortAndMerge(Object arr, Object buffer, int length, Comparator<Object> comparator)
+    {
+        SortMetrics metrics = this.metrics;
+        SortMetrics.SortEvent event = metrics == null ? null : metrics.beginSort();
+        
+        // Logically divide the array into equal segments and sort each segment.
+        
+        int segments = segmentCount( length );
+        if ( arr instanceof Buffer )
+        {
+            while ( length / segments > MAXIMUM_BUFFER_SEGMENT && segments <= Integer.MAX_VALUE / 4 )
+            {
+                segments *= 4;
+            }
+        }
+        int[] bounds = new int[segments + 1];
+        for (int s = 0; s <= segments; s++)
+        {
+            bounds[s] = (int)((long)length * s / segments);
+        }
+        
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+        
+        for (int s = 0; s < segments; s++)
+        {
+            workers.add( new Sorter(arr, bounds[s], bounds[s + 1] - bounds[s], comparator, kernels, workspacePool, debug ) );
+        }
+        
+        invokeAll( workers, SortMetrics.Phase.SORT, metrics );
+        
+        mergeRuns(arr, buffer, bounds, comparator);
+        
+        if ( event != null )
+        {
+            metrics.endSort(event, arr, length, segments);
+        }
+    }
+    
+    /**
+     * Starts an {@link AsyncSort} of an int[] or long[], with a deadline unless unit is null.
+     */
+    private <A> CompletableFuture<A> sortAsync(A arr, long timeout, TimeUnit unit)
+    {
+        AsyncSort<A> sort = new AsyncSort<>(arr);
+        try
+        {
+            if ( unit != null )
+            {
+                sort.deadline = Deadlines.timer.schedule(() -> sort.stop(
+                        new TimeoutException("sort of " + sort.length + " elements did not finish within " + timeout + " " + unit)), timeout, unit);
+            }
+            pool.execute( sort::start );
+        }
+        catch ( RejectedExecutionException ex )
+        {
+            sort.stop( ex );
+            sort.abandon();
+        }
+        return sort.result;
+    }
+    
+    /**
+     * Runs the tasks of one phase on the pool, timing the phase and the tasks if metrics is not null.
+     */
+    private void invokeAll(ArrayList<Callable<Object>> workers, SortMetrics.Phase phase, SortMetrics metrics)
+    {
+        if ( metrics == null )
+        {
+            Tasks.invokeAll( pool, workers, phase.toString() );
+            return;
+        }
+        
+        long startTime = System.nanoTime();
+        Tasks.invokeAll( pool, metrics.timed(workers, phase), phase.toString() );
+        metrics.recordPhase(phase, System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Merges the sorted runs [bounds[r], bounds[r + 1]) of arr into one.  Pairs of consecutive runs are merged one
+     * level of the merge tree at a time, running the merges of each level in parallel; a level with a single merge
+     * task runs on the current thread.  The array and the workspace swap roles on each level.  For the segments of
+     * sortAndMerge the run count is a power of 4, so the number of levels is even and the final level writes into
+     * the source array; natural runs can come in any number, so a run left without a partner is copied across with
+     * the level's merges, and an odd number of levels ends with a parallel copy back into arr.
+     */
+    private void mergeRuns(Object arr, Object buffer, int[] bounds, Comparator<Object> comparator)
+    {
+        SortMetrics metrics = this.metrics;
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+        
+        Object src = arr;
+        Object dst = buffer;
+        int runs = bounds.length - 1;
+        int length = bounds[runs] - bounds[0];
+        
+        while ( runs > 1 )
+        {
+            workers.clear();
+            int[] next = addMergeLevel(workers, arr, buffer, src, dst, bounds, comparator);
+            
+            if ( workers.size() == 1 && metrics == null )
+            {
+                ((Merger)workers.get( 0 )).call();
+            }
+            else if ( workers.size() == 1 )
+            {
+                runTimed( (Merger)workers.get( 0 ), metrics );
+            }
+            else
+            {
+                invokeAll( workers, SortMetrics.Phase.MERGE, metrics );
+            }
+            
+            if ( metrics != null )
+            {
+                // Every element is written once per level, but with copyBack the odd run stays put and the
+                // merged ones are written twice.
+                
+                int merged = bounds[runs - runs % 2] - bounds[0];
+                metrics.recordCopy( arr, copyBack ? 2L * merged : length );
+            }
+            
+            if ( !copyBack )
+            {
+                Object tmp = src;
+                src = dst;
+                dst = tmp;
+            }
+            bounds = next;
+            runs = next.length - 1;
+        }
+        
+        if ( src != arr )
+        {
+            workers.clear();
+            addCopiers(workers, src, arr, bounds[0], bounds[1], length);
+            invokeAll( workers, SortMetrics.Phase.COPY, metrics );
+            
+            if ( metrics != null )
+            {
+                metrics.recordCopy( arr, length );
+            }
+        }
+    }
+    
+    /**
+     * Adds the tasks of one level of the merge tree to workers: the merges of each pair of consecutive runs
+     * [bounds[r], bounds[r + 1]) from src into dst (or, with copyBack, from arr into buffer and back), and a copy of
+     * a run left without a partner.  Returns the bounds of the runs after the level.
+     */
+    private int[] addMergeLevel(ArrayList<Callable<Object>> workers, Object arr, Object buffer, Object src, Object dst, int[] bounds, Comparator<Object> comparator)
+    {
+        int runs = bounds.length - 1;
+        int length = bounds[runs] - bounds[0];
+        
+        // Once there are fewer merges than threads, split each merge into chunks at co-ranked positions
+        // so the upper levels (and the final merge) still use every thread.
+        
+        int merges = runs / 2;
+        int parts = copyBack ? 1 : (parallelism + merges - 1) / merges;
+        int[] next = new int[(runs + 1) / 2 + 1];
+        
+        for (int r = 0; r + 1 < runs; r += 2)
+        {
+            int offset1 = bounds[r];
+            int offset2 = bounds[r + 1];
+            int len1 = offset2 - offset1;
+            int len2 = bounds[r + 2] - offset2;
+            next[r / 2] = offset1;
+            
+            if ( copyBack )
+            {
+                workers.add( new Merger(arr, buffer, comparator, kernels, true, debug, offset1, len1, offset2, len2) );
+            }
+            else if ( parts == 1 )
+            {
+                workers.add( new Merger(src, dst, comparator, kernels, false, debug, offset1, len1, offset2, len2) );
+            }
+            else
+            {
+                int[] cuts = ParallelMerge.split(src, offset1, len1, offset2, len2, parts, comparator);
+                int n = cuts.length / 2;
+                
+                for (int c = 0; c < n - 1; c++)
+                {
+                    int i0 = cuts[n + c];
+                    int i1 = cuts[n + c + 1];
+                    int j0 = cuts[c] - i0;
+                    int j1 = cuts[c + 1] - i1;
+                    workers.add( new Merger(src, dst, comparator, kernels, false, debug, offset1 + i0, i1 - i0, offset2 + j0, j1 - j0, offset1 + cuts[c]) );
+                }
+            }
+        }
+        
+        if ( runs % 2 == 1 )
+        {
+            next[runs / 2] = bounds[runs - 1];
+            if ( !copyBack )
+            {
+                addCopiers(workers, src, dst, bounds[runs - 1], bounds[runs], length);
+            }
+        }
+        next[next.length - 1] = bounds[runs];
+        return next;
+    }
+    
+    /**
+     * Runs a merge on the current thread as a timed merge phase of one task.
+     */
+    static private void runTimed(Merger merger, SortMetrics metrics)
+    {
+        long startTime = System.nanoTime();
+        try
+        {
+            metrics.runTimed( merger, SortMetrics.Phase.MERGE );
+        }
+        catch ( Exception ex )
+        {
+            throw Tasks.propagate(ex, "merge");
+        }
+        metrics.recordPhase(SortMetrics.Phase.MERGE, System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Adds tasks that copy src[from, to) to the same range of dst, in pieces of about total / parallelism.
+     */
+    private void addCopiers(ArrayList<Callable<Object>> workers, Object src, Object dst, int from, int to, int total)
+    {
+        int piece = Math.max(ParallelMerge.MINIMUM_CHUNK_SIZE, total / parallelism + 1);
+        for (int offset = from; offset < to; offset += piece)
+        {
+            workers.add( new Copier(src, dst, offset, Math.min(piece, to - offset)) );
+        }
+    }
+    
+    /**
+     * Sorts the count arrays of a batch, either arrays[i] or data[offsets[i], offsets[i + 1]); see
+     * {@link #psortAll(int[][])}.
+     */
+    private void sortAll(int[][] arrays, int[] data, int[] offsets, int count)
+    {
+        // Order the arrays by length, packed with their index so as not to box them.  Arrays of 0 or 1 elements
+        // are sorted already.
+        
+        long[] order = new long[count];
+        int n = 0;
+        long totalLength = 0;
+        long totalCost = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int length = arrays != null ? arrays[i].length : offsets[i + 1] - offsets[i];
+            if ( length > 1 )
+            {
+                order[n++] = (long)length << 32 | i;
+                totalLength += length;
+                totalCost += cost(length);
+            }
+        }
+        
+        if ( parallelism == 1 || totalLength < sequentialCutoff )
+        {
+            BatchSorter all = new BatchSorter(arrays, data, offsets, kernels, workspacePool, new int[n], 0, n);
+            for (int k = 0; k < n; k++)
+            {
+                all.items[k] = (int)order[k];
+            }
+            all.call();
+            return;
+        }
+        
+        Arrays.sort( order, 0, n );
+        
+        // The largest arrays are worth sorting one at a time on the whole pool if they alone would hold up a
+        // thread for more than its share of the batch.
+        
+        int batched = n;
+        while ( batched > 0 )
+        {
+            int length = (int)(order[batched - 1] >>> 32);
+            if ( length < sequentialCutoff || cost(length) * parallelism <= totalCost )
+            {
+                break;
+            }
+            batched--;
+        }
+        
+        // Longest processing time first: each array, largest first, goes into the task with the least cost so far.
+        // The tasks are a min-heap of (cost << 16 | task), so the root is always the one to add to.
+        
+        int tasks = Math.min(batched, Math.min(parallelism * BATCH_TASKS_PER_THREAD, 1 << 16));
+        long[] heap = new long[tasks];
+        for (int t = 0; t < tasks; t++)
+        {
+            heap[t] = t;
+        }
+        int[] taskOf = new int[batched];
+        int[] taskSize = new int[tasks + 1];
+        for (int k = batched - 1; k >= 0; k--)
+        {
+            int task = (int)(heap[0] & 0xffff);
+            taskOf[k] = task;
+            taskSize[task + 1]++;
+            heap[0] += cost((int)(order[k] >>> 32)) << 16;
+            siftDown(heap, tasks);
+        }
+        
+        // Group the indexes by task, each task's a range of one array.
+        
+        for (int t = 0; t < tasks; t++)
+        {
+            taskSize[t + 1] += taskSize[t];
+        }
+        int[] items = new int[batched];
+        int[] next = Arrays.copyOf(taskSize, tasks);
+        for (int k = batched - 1; k >= 0; k--)
+        {
+            items[next[taskOf[k]]++] = (int)order[k];
+        }
+        
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+        for (int t = 0; t < tasks; t++)
+        {
+            workers.add( new BatchSorter(arrays, data, offsets, kernels, workspacePool, items, taskSize[t], taskSize[t + 1]) );
+        }
+        if ( tasks > 0 )
+        {
+            invokeAll( workers, SortMetrics.Phase.SORT, metrics );
+        }
+        
+        for (int k = batched; k < n; k++)
+        {
+            int i = (int)order[k];
+            if ( arrays != null )
+            {
+                psort(arrays[i]);
+            }
+            else
+            {
+                psortRange(data, offsets[i], offsets[i + 1]);
+            }
+        }
+    }
+    
+    /**
+     * Returns the estimated cost of sorting length elements, n log n, to balance batch tasks by.
+     */
+    static private long cost(int length)
+    {
+        return (long)length * (32 - Integer.numberOfLeadingZeros(length));
+    }
+    
+    /**
+     * Restores the min-heap order of heap[0, size) after its root has grown.
+     */
+    static private void siftDown(long[] heap, int size)
+    {
+        long root = heap[0];
+        int i = 0;
+        for (int child = 1; child < size; child = 2 * i + 1)
+        {
+            if ( child + 1 < size && heap[child + 1] < heap[child] )
+            {
+                child++;
+            }
+            if ( root <= heap[child] )
+            {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = root;
+    }
+    
+    /**
+     * Sorts data[from, to) with the whole pool.  The segment and merge tree works from index 0, so the range is
+     * copied into a pooled workspace and back; that is two passes over a range that is only sorted this way when
+     * it is large enough for the sort to dwarf them.
+     */
+    private void psortRange(int[] data, int from, int to)
+    {
+        int length = to - from;
+        int[] work = workspacePool.acquireInts(length);
+        int[] buffer = workspacePool.acquireInts(length);
+        try
+        {
+            System.arraycopy( data, from, work, 0, length );
+            sortOrMerge(work, buffer, length, findRuns(work, length));
+            System.arraycopy( work, 0, data, from, length );
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+            workspacePool.release(work);
+        }
+    }
+    
+    /**
+     * Returns the number of segments to sort in parallel: the smallest power of 4 that gives every pool thread
+     * a segment, reduced while the segments would be smaller than {@link #MINIMUM_SIZE} (but never below 4).
+     * The depth of the merge tree is log2 of this.
+     */
+    int segmentCount(int length)
+    {
+        int segments = 4;
+        while ( segments < parallelism && segments <= Integer.MAX_VALUE / 4 )
+        {
+            segments *= 4;
+        }
+        while ( segments > 4 && length / segments < MINIMUM_SIZE )
+        {
+            segments /= 4;
+        }
+        return segments;
+    }
+    
+    /**
+     * Returns a view of buffer[from, to) with its position at 0, which the bulk gets and puts of one task can move
+     * without affecting the others.
+     */
+    static private IntBuffer window(IntBuffer buffer, int from, int to)
+    {
+        IntBuffer view = buffer.duplicate();
+        view.limit(to);
+        view.position(from);
+        return view.slice();
+    }
+    
+    static private LongBuffer window(LongBuffer buffer, int from, int to)
+    {
+        LongBuffer view = buffer.duplicate();
+        view.limit(to);
+        view.position(from);
+        return view.slice();
+    }
+    
+    /**
+     * Copies src[offset, offset + len) to the same range of dst, for arrays or buffers of the same type.
+     */
+    static private void copy(Object src, Object dst, int offset, int len)
+    {
+        if ( src instanceof IntBuffer )
+        {
+            window((IntBuffer)dst, offset, offset + len).put(window((IntBuffer)src, offset, offset + len));
+        }
+        else if ( src instanceof LongBuffer )
+        {
+            window((LongBuffer)dst, offset, offset + len).put(window((LongBuffer)src, offset, offset + len));
+        }
+        else if ( src instanceof KeyedArray )
+        {
+            System.arraycopy( ((KeyedArray)src).keys, offset, ((KeyedArray)dst).keys, offset, len );
+            System.arraycopy( ((KeyedArray)src).payload, offset, ((KeyedArray)dst).payload, offset, len );
         }
-        catch ( Exception ex )
+        else
         {
-            // TODO development only
-            throw new RuntimeException("One of the first sort tasks threw an exception: " + ex, ex);
+            System.arraycopy( src, offset, dst, offset, len );
         }
-        
-        workers.clear();
-        
-        // Merge the first and second segment, and the third and fourth segment in parallel.
-        
-        workers.add( new Merger(arr, buffer, debug, offset1, len1, offset2, len2) );
-        workers.add( new Merger(arr, buffer, debug, offset3, len3, offset4, len4) );
-        
-        try
+    }
+    
+    /**
+     * Returns element i of an array or buffer, boxed, for the debug output.
+     */
+    static private Object element(Object arr, int i)
+    {
+        if ( arr instanceof IntBuffer )
         {
-            List<Future<Object>> firstMergeResults = pool.invokeAll( workers );
-            
-            for (Future<Object> result : firstMergeResults)
-            {
-                result.get();  // check for error; raises an exception if the worker raised an exception
-            }
+            return ((IntBuffer)arr).get(i);
         }
-        catch ( Exception ex )
+        else if ( arr instanceof LongBuffer )
         {
-            // TODO development only
-            throw new RuntimeException("One of the first merge tasks threw an exception: " + ex, ex);
+            return ((LongBuffer)arr).get(i);
         }
-        
-        // Merge the two merged segments on the current thread.
-        new Merger(arr, buffer, debug, offset1, len1 + len2, offset3, len3 + len4).call();
+        else if ( arr instanceof KeyedArray )
+        {
+            return ((KeyedArray)arr).keys[i] + "/" + java.lang.reflect.Array.get(((KeyedArray)arr).payload, i);
+        }
+        return java.lang.reflect.Array.get(arr, i);
     }
     
     static private class Sorter implements Callable<Object>
     {
         boolean debug;
         
-        private int[] arr;
+        private Object arr;
         private int offset;
         private int len;
+        private Comparator<Object> comparator;
+        private SortKernels kernels;
+        private WorkspacePool workspacePool;
         
-        public Sorter(int[] arr, int offset, int len, boolean debug)
+        public Sorter(Object arr, int offset, int len, Comparator<Object> comparator, SortKernels kernels, WorkspacePool workspacePool, boolean debug)
         {
             this.arr = arr;
             this.offset = offset;
             this.len = len;
+            this.comparator = comparator;
+            this.kernels = kernels;
+            this.workspacePool = workspacePool;
             
             this.debug = debug;
         }
@@ -161,42 +1581,214 @@ public class Prototype4
                 System.out.println("Sorter: offset=" + offset + ", len=" + len);
             }
 
-            Arrays.sort(arr, offset, offset + len);
+            if ( arr instanceof int[] )
+            {
+                kernels.sort((int[])arr, offset, offset + len, workspacePool);
+            }
+            else if ( arr instanceof long[] )
+            {
+                kernels.sort((long[])arr, offset, offset + len, workspacePool);
+            }
+            else
+            {
+                sort(arr, offset, offset + len, comparator, workspacePool);
+            }
             
             if ( debug )
             {
                 System.out.print("Sorter complete, offset=" + offset + ", len=" + len + ": " );
-                for (int i = offset; i < len; i++)
+                for (int i = offset; i < offset + len; i++)
                 {
-                    System.out.print((offset + i) + ": " + arr[offset + i] + ", ");
+                    System.out.print(i + ": " + element(arr, i) + ", ");
                 }
                 System.out.println();
             }
             
             return null;
         }
+        
+        static private void sort(Object arr, int from, int to, Comparator<Object> comparator, WorkspacePool workspacePool)
+        {
+            if ( arr instanceof Object[] )
+            {
+                Arrays.sort((Object[])arr, from, to, comparator);
+            }
+            else if ( arr instanceof int[] )
+            {
+                Arrays.sort((int[])arr, from, to);
+            }
+            else if ( arr instanceof long[] )
+            {
+                Arrays.sort((long[])arr, from, to);
+            }
+            else if ( arr instanceof double[] )
+            {
+                Arrays.sort((double[])arr, from, to);
+            }
+            else if ( arr instanceof float[] )
+            {
+                Arrays.sort((float[])arr, from, to);
+            }
+            else if ( arr instanceof short[] )
+            {
+                Arrays.sort((short[])arr, from, to);
+            }
+            else if ( arr instanceof char[] )
+            {
+                Arrays.sort((char[])arr, from, to);
+            }
+            else if ( arr instanceof byte[] )
+            {
+                Arrays.sort((byte[])arr, from, to);
+            }
+            else if ( arr instanceof KeyedArray )
+            {
+                sortKeyed((KeyedArray)arr, from, to, workspacePool);
+            }
+            else
+            {
+                sortBuffer(arr, from, to, workspacePool);
+            }
+        }
+        
+        /**
+         * Stably sorts a range of keys with their payload.  Each key is packed into the high half of a long with its
+         * index in the range in the low half, so a single Arrays.sort(long[]) orders by key and then by index; the
+         * keys are unpacked and the payload gathered by index from a copy.
+         */
+        static private void sortKeyed(KeyedArray arr, int from, int to, WorkspacePool workspacePool)
+        {
+            int len = to - from;
+            int[] keys = arr.keys;
+            long[] packed = workspacePool.acquireLongs(len);
+            Object copy = null;
+            
+            try
+            {
+                for (int i = 0; i < len; i++)
+                {
+                    packed[i] = ((long)keys[from + i] << 32) | i;
+                }
+                Arrays.sort(packed, 0, len);
+                
+                for (int i = 0; i < len; i++)
+                {
+                    keys[from + i] = (int)(packed[i] >> 32);
+                }
+                
+                if ( arr.payload instanceof int[] )
+                {
+                    int[] payload = (int[])arr.payload;
+                    int[] original = workspacePool.acquireInts(len);
+                    copy = original;
+                    System.arraycopy( payload, from, original, 0, len );
+                    for (int i = 0; i < len; i++)
+                    {
+                        payload[from + i] = original[(int)packed[i]];
+                    }
+                }
+                else
+                {
+                    long[] payload = (long[])arr.payload;
+                    long[] original = workspacePool.acquireLongs(len);
+                    copy = original;
+                    System.arraycopy( payload, from, original, 0, len );
+                    for (int i = 0; i < len; i++)
+                    {
+                        payload[from + i] = original[(int)packed[i]];
+                    }
+                }
+            }
+            finally
+            {
+                workspacePool.release(packed);
+                if ( copy != null )
+                {
+                    workspacePool.release(copy);
+                }
+            }
+        }
+        
+        /**
+         * Sorts a range of an IntBuffer or LongBuffer by copying it into a pooled heap array, sorting that and
+         * copying it back.  Both copies are bulk transfers, and the range is at most
+         * {@link #MAXIMUM_BUFFER_SEGMENT} long.
+         */
+        static private void sortBuffer(Object arr, int from, int to, WorkspacePool workspacePool)
+        {
+            if ( arr instanceof IntBuffer )
+            {
+                IntBuffer range = window((IntBuffer)arr, from, to);
+                int[] work = workspacePool.acquireInts(to - from);
+                try
+                {
+                    range.get(work, 0, to - from);
+                    Arrays.sort(work, 0, to - from);
+                    range.position(0);
+                    range.put(work, 0, to - from);
+                }
+                finally
+                {
+                    workspacePool.release(work);
+                }
+            }
+            else
+            {
+                LongBuffer range = window((LongBuffer)arr, from, to);
+                long[] work = workspacePool.acquireLongs(to - from);
+                try
+                {
+                    range.get(work, 0, to - from);
+                    Arrays.sort(work, 0, to - from);
+                    range.position(0);
+                    range.put(work, 0, to - from);
+                }
+                finally
+                {
+                    workspacePool.release(work);
+                }
+            }
+        }
     }
 
+    /**
+     * Merges two sorted ranges of src into dst starting at dstOffset, which for a whole merge of two consecutive
+     * ranges is offset1 and for a chunk of a split merge is the chunk's output position.  If copyBack is set,
+     * dst is a scratch buffer and the merged range is copied back into src afterwards.
+     */
     static private class Merger implements Callable<Object>
     {
-        private int[] buffer;
         boolean debug;
+        boolean copyBack;
         
-        private int[] arr;
+        private Object src;
+        private Object dst;
         private int offset1;
         private int len1;
         private int offset2;
         private int len2;
+        private int dstOffset;
+        private Comparator<Object> comparator;
+        private SortKernels kernels;
 
-        public Merger(int[] arr, int[] buffer, boolean debug, int offset1, int len1, int offset2, int len2)
+        public Merger(Object src, Object dst, Comparator<Object> comparator, SortKernels kernels, boolean copyBack, boolean debug, int offset1, int len1, int offset2, int len2)
         {
-            this.arr = arr;
+            this(src, dst, comparator, kernels, copyBack, debug, offset1, len1, offset2, len2, offset1);
+        }
+        
+        public Merger(Object src, Object dst, Comparator<Object> comparator, SortKernels kernels, boolean copyBack, boolean debug, int offset1, int len1, int offset2, int len2, int dstOffset)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.comparator = comparator;
+            this.kernels = kernels;
             this.offset1 = offset1;
             this.len1 = len1;
             this.offset2 = offset2;
             this.len2 = len2;
+            this.dstOffset = dstOffset;
             
-            this.buffer = buffer;
+            this.copyBack = copyBack;
             this.debug = debug;
         }
         
@@ -204,55 +1796,380 @@ public class Prototype4
         {
             if (debug)
             {
-                System.out.println("Merger: offset1=" + offset1 + ", len1=" + len1 + ", offset2=" + offset2 + ", len2=" + len2);
+                System.out.println("Merger: offset1=" + offset1 + ", len1=" + len1 + ", offset2=" + offset2 + ", len2=" + len2 + ", dstOffset=" + dstOffset);
             }
 
-            int i = 0;
-            int j = 0;
-            int k = 0;
+            if ( src instanceof Object[] )
+            {
+                ParallelMerge.merge((Object[])src, (Object[])dst, offset1, len1, offset2, len2, dstOffset, comparator);
+            }
+            else if ( src instanceof int[] )
+            {
+                kernels.merge((int[])src, (int[])dst, offset1, len1, offset2, len2, dstOffset);
+            }
+            else if ( src instanceof long[] )
+            {
+                kernels.merge((long[])src, (long[])dst, offset1, len1, offset2, len2, dstOffset);
+            }
+            else
+            {
+                ParallelMerge.merge(src, dst, offset1, len1, offset2, len2, dstOffset);
+            }
 
-            while ( k < len1 + len2 )
+            if ( copyBack )
+            {
+                copy( dst, src, dstOffset, len1 + len2 );
+            }
+            
+            if ( debug )
             {
-                if (i < len1 && j < len2)
+                Object merged = copyBack ? src : dst;
+                System.out.print("Merger complete, offset=" + dstOffset + ", len=" + (len1 + len2) + ": " );
+                for (int o = dstOffset; o < dstOffset + len1 + len2; o++)
                 {
-                    if ( arr[offset1 + i] < arr[offset2 + j] )
-                    {
-                        buffer[offset1 + k++] = arr[offset1 + i++];
-                    }
-                    else
-                    {
-                        buffer[offset1 + k++] = arr[offset2 + j++];
-                    }                
+                    System.out.print(o + ": " + element(merged, o) + ", ");
                 }
+                System.out.println();
+            }
+            
+            return null;
+        }
+    }
 
-                else if (i < len1)
+    /**
+     * Copies a range of src to the same range of dst: a run that has no partner on a merge level, or a piece of the
+     * result when the merges of natural runs end in the workspace.
+     */
+    static private class Copier implements Callable<Object>
+    {
+        private Object src;
+        private Object dst;
+        private int offset;
+        private int len;
+        
+        public Copier(Object src, Object dst, int offset, int len)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.offset = offset;
+            this.len = len;
+        }
+        
+        public String call()
+        {
+            copy( src, dst, offset, len );
+            return null;
+        }
+    }
+    
+    /**
+     * Sorts whole arrays of a batch, arrays[i] or data[offsets[i], offsets[i + 1]) for the indexes items[from, to).
+     */
+    static private class BatchSorter implements Callable<Object>
+    {
+        private int[][] arrays;
+        private int[] data;
+        private int[] offsets;
+        private SortKernels kernels;
+        private WorkspacePool workspacePool;
+        private int[] items;
+        private int from;
+        private int to;
+        
+        public BatchSorter(int[][] arrays, int[] data, int[] offsets, SortKernels kernels, WorkspacePool workspacePool, int[] items, int from, int to)
+        {
+            this.arrays = arrays;
+            this.data = data;
+            this.offsets = offsets;
+            this.kernels = kernels;
+            this.workspacePool = workspacePool;
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+        
+        public String call()
+        {
+            for (int k = from; k < to; k++)
+            {
+                int i = items[k];
+                if ( arrays != null )
                 {
-                    buffer[offset1 + k++] = arr[offset1 + i++];                
+                    kernels.sort(arrays[i], 0, arrays[i].length, workspacePool);
                 }
-
                 else
                 {
-                    buffer[offset1 + k++] = arr[offset2 + j++];                                
+                    kernels.sort(data, offsets[i], offsets[i + 1], workspacePool);
                 }
             }
-
-            // The merge still copies the local buffer back to the source array for each merge.  However
-            // the JDK parallelSort merges the first results into the local buffer then on the final merge
-            // merges the local buffer back into the source array.  Try that approach in another prototype.
-            
-            System.arraycopy( buffer, offset1, arr, offset1, len1 + len2 );
+            return null;
+        }
+    }
+    
+    /**
+     * One asynchronous sort of an int[] or long[]: the segment sorts and merge levels of sortAndMerge and mergeRuns,
+     * driven by the tasks rather than by a waiting caller.  Each phase is a count of outstanding tasks, and the task
+     * that brings it to 0 starts the next phase on its own pool thread.  Once the sort is stopped (by cancellation,
+     * the deadline or a failed task) the remaining tasks of the phase return without running, and the last of them
+     * cleans up and only then completes the future, as the running tasks may still be writing to arr.
+     */
+    private class AsyncSort<A>
+    {
+        final A arr;
+        final int length;
+        final CompletableFuture<A> result = new Result();
+        final AtomicInteger pending = new AtomicInteger();
+        volatile boolean stopped;
+        volatile Throwable error;
+        ScheduledFuture<?> deadline;
+        
+        // The state between phases, handed from one pool thread to the next through pending.
+        
+        Object buffer;
+        Object src;
+        Object dst;
+        int[] bounds;
+        int[] next;
+        boolean copying;
+        
+        AsyncSort(A arr)
+        {
+            this.arr = arr;
+            this.length = java.lang.reflect.Array.getLength(arr);
+        }
+        
+        /**
+         * Stops the sort, keeping the first reason it was stopped for.
+         */
+        void stop(Throwable ex)
+        {
+            if ( error == null )
+            {
+                error = ex;
+            }
+            stopped = true;
+        }
+        
+        /**
+         * Sorts small arrays there and then, and otherwise starts the segment sorts.
+         */
+        void start()
+        {
+            if ( stopped )
+            {
+                abandon();
+                return;
+            }
             
-            if ( debug )
+            try
             {
-                System.out.print("Merger complete, offset=" + offset1 + ", len=" + (len1 + len2) + ": " );
-                for (int o = offset1; o < len1 + len2; o++)
+                if ( length < sequentialCutoff )
                 {
-                    System.out.print((offset1 + o) + ": " + arr[offset1 + o] + ", ");
+                    new Sorter(arr, 0, length, null, kernels, workspacePool, debug).call();
+                    complete();
+                    return;
                 }
-                System.out.println();
+                
+                buffer = arr instanceof int[] ? workspacePool.acquireInts(length) : workspacePool.acquireLongs(length);
+                src = arr;
+                dst = buffer;
+                
+                int segments = segmentCount( length );
+                bounds = new int[segments + 1];
+                ArrayList<Callable<Object>> workers = new ArrayList<>();
+                for (int s = 0; s <= segments; s++)
+                {
+                    bounds[s] = (int)((long)length * s / segments);
+                    if ( s > 0 )
+                    {
+                        workers.add( new Sorter(arr, bounds[s - 1], bounds[s] - bounds[s - 1], null, kernels, workspacePool, debug) );
+                    }
+                }
+                dispatch( workers );
+            }
+            catch ( Throwable ex )
+            {
+                stop( ex );
+                abandon();
+            }
+        }
+        
+        void dispatch(ArrayList<Callable<Object>> workers)
+        {
+            int n = workers.size();
+            pending.set( n );
+            for (int t = 0; t < n; t++)
+            {
+                Callable<Object> task = workers.get( t );
+                try
+                {
+                    pool.execute( () -> run( task ) );
+                }
+                catch ( RejectedExecutionException ex )
+                {
+                    stop( ex );
+                    if ( pending.addAndGet( t - n ) == 0 )
+                    {
+                        phaseDone();
+                    }
+                    return;
+                }
+            }
+        }
+        
+        void run(Callable<Object> task)
+        {
+            try
+            {
+                if ( !stopped )
+                {
+                    task.call();
+                }
+            }
+            catch ( Throwable ex )
+            {
+                stop( ex );
+            }
+            finally
+            {
+                if ( pending.decrementAndGet() == 0 )
+                {
+                    phaseDone();
+                }
+            }
+        }
+        
+        /**
+         * Starts the next merge level, or the copy back into arr after an odd number of levels, or completes.
+         */
+        void phaseDone()
+        {
+            if ( stopped )
+            {
+                abandon();
+                return;
             }
             
-            return null;
+            try
+            {
+                if ( copying )
+                {
+                    complete();
+                    return;
+                }
+                if ( next != null )
+                {
+                    if ( !copyBack )
+                    {
+                        Object tmp = src;
+                        src = dst;
+                        dst = tmp;
+                    }
+                    bounds = next;
+                    next = null;
+                }
+                
+                ArrayList<Callable<Object>> workers = new ArrayList<>();
+                if ( bounds.length > 2 )
+                {
+                    next = addMergeLevel(workers, arr, buffer, src, dst, bounds, null);
+                }
+                else if ( src != arr )
+                {
+                    addCopiers(workers, src, arr, 0, length, length);
+                    copying = true;
+                }
+                else
+                {
+                    complete();
+                    return;
+                }
+                dispatch( workers );
+            }
+            catch ( Throwable ex )
+            {
+                stop( ex );
+                abandon();
+            }
+        }
+        
+        /**
+         * Completes the future once arr is sorted; a sort stopped while its last phase ran is reported as stopped.
+         */
+        void complete()
+        {
+            release();
+            if ( error != null )
+            {
+                result.completeExceptionally( error );
+            }
+            else
+            {
+                result.complete( arr );
+            }
+        }
+        
+        /**
+         * Cleans up a stopped sort.  The sort phase works in place and a merge level only reads src, so src always
+         * holds every element; they are copied back into arr if src is the workspace.
+         */
+        void abandon()
+        {
+            if ( buffer != null && src != arr )
+            {
+                System.arraycopy( src, 0, arr, 0, length );
+            }
+            release();
+            result.completeExceptionally( error );
+        }
+        
+        void release()
+        {
+            if ( buffer != null )
+            {
+                workspacePool.release(buffer);
+                buffer = null;
+            }
+            if ( deadline != null )
+            {
+                deadline.cancel(false);
+            }
+        }
+        
+        /**
+         * The future of the sort.  Cancelling it only stops the sort; it is completed with a CancellationException
+         * by whichever task cleans up.
+         */
+        private class Result extends CompletableFuture<A>
+        {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning)
+            {
+                if ( isDone() )
+                {
+                    return false;
+                }
+                stop( new CancellationException("sort of " + length + " elements was cancelled") );
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * The thread that enforces the deadlines of asynchronous sorts, started on first use.  It only stops sorts, so
+     * one is enough for every sorter.
+     */
+    static class Deadlines
+    {
+        static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "Prototype4-deadlines");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        static
+        {
+            timer.setRemoveOnCancelPolicy(true);
         }
     }
 }
@@ -0,0 +1,52 @@
+/**
+ * Prototype5.java - parallel sort utility
+ * <p>
+ * Coding requirement: Java program: Use multiple threads to sort an array of numbers.
+ * <p>
+ * The fifth prototype suggested in Prototype3: the same segment and merge tree as {@link Prototype4}, with its own
+ * threading model.  Prototype4 hands every phase to a fixed thread pool through invokeAll, so each phase pays for a
+ * Future per task and a shared queue, and its threads fall asleep between phases and have to be woken for the next
+ * one.  In results/Prototype4.csv psort loses to Arrays.sort all the way from 10K to 1M elements, where the sorting
+ * itself takes no longer than those hand-offs.
+ * <p>
+ * Here the phases run on a {@link SortScheduler}: parallelism - 1 persistent workers with a deque each, which
+ * take work from each other when they run out, spin briefly before they park, and meet the caller at a countdown
+ * barrier at the end of each phase.  The calling thread does its share of every phase instead of waiting, so
+ * a phase of one task (the final merge when it isn't split, for instance) costs no hand-off at all, and with a
+ * parallelism of 1 the whole sort runs on the caller.
+ * <p>
+ * Everything else (the segment counts, the ping-pong merges, run detection, the kernels, metrics and the
+ * sequential cutoff) is Prototype4's.
+ */
+public class Prototype5 extends Prototype4
+{
+    /**
+     * Creates a sorter with the parallelism and sequential cutoff of the default {@link Calibration}.
+     */
+    public Prototype5()
+    {
+        this( Calibration.getDefault() );
+    }
+
+    /**
+     * Creates a sorter with an explicit parallelism, and the sequential cutoff of the default {@link Calibration}.
+     * @param parallelism the number of threads that run each phase, counting the caller
+     */
+    public Prototype5(int parallelism)
+    {
+        this( parallelism, Calibration.getDefault().getSequentialCutoff() );
+    }
+
+    /**
+     * Creates a sorter with the parallelism and sequential cutoff of a calibration.
+     */
+    public Prototype5(Calibration calibration)
+    {
+        this( calibration.getParallelism(), calibration.getSequentialCutoff() );
+    }
+
+    private Prototype5(int parallelism, int sequentialCutoff)
+    {
+        super( parallelism, sequentialCutoff, new SortScheduler(parallelism) );
+    }
+}
@@ -0,0 +1,451 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RadixSort.java - parallel LSD radix sort for int and long keys
+ * <p>
+ * An alternative engine to Prototype3 and Prototype4.  Instead of sorting segments with Arrays.sort and merging
+ * them, this sorts by one 8 bit digit at a time, least significant digit first: 4 passes for ints, 8 for longs.
+ * Each pass is a stable counting sort from the array into the workspace (or back), so the number of passes is
+ * fixed and doesn't depend on the input order, and each element is read twice and written once per pass.
+ * <p>
+ * Each pass runs in three steps:
+ * <pre>
+ * 1. every thread counts the digit values in its own chunk of the array (per-thread histograms),
+ * 2. the histograms are turned into a starting offset per digit value per chunk (prefix sums), chunk by chunk
+ *    within each digit value so that the pass stays stable,
+ * 3. every thread scatters the elements of its chunk to those offsets in the other array.
+ * </pre>
+ * The first counting step counts all the digits at once.  A digit that has the same value for every key (for
+ * example the top bytes of small non-negative values) can't change the order, so its pass is skipped.
+ * <p>
+ * Signed keys are handled by flipping the sign bit of the most significant digit, which puts the negative values
+ * before the positive ones.
+ * <p>
+ * The array and workspace swap roles on each pass, as with the ping-pong merges in Prototype4; if an odd number of
+ * passes ran, the result is copied back into the caller's array in parallel.
+ */
+public class RadixSort
+{
+    /**
+     * Below this Arrays.sort is faster than setting up the passes.
+     */
+    static final int MINIMUM_SIZE = 4096;
+
+    static final private int DIGIT_BITS = 8;
+    static final private int RADIX = 1 << DIGIT_BITS;
+    static final private int MASK = RADIX - 1;
+
+    /**
+     * Chunks smaller than this aren't worth a task of their own.
+     */
+    static final private int MINIMUM_CHUNK_SIZE = 16384;
+
+    private final int parallelism;
+    private ExecutorService pool;
+    private WorkspacePool workspacePool = WorkspacePool.getShared();
+
+    /**
+     * Creates a sorter with one pool thread per available processor.
+     */
+    public RadixSort()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a sorter with an explicit parallelism.
+     * @param parallelism the number of pool threads, which is also the number of chunks per pass
+     */
+    public RadixSort(int parallelism)
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Sets the pool that workspaces are taken from; by default the shared {@link WorkspacePool}.
+     */
+    public void setWorkspacePool(WorkspacePool workspacePool)
+    {
+        this.workspacePool = workspacePool;
+    }
+
+    /**
+     * Sorts an array of ints with a parallel radix sort.
+     * @param arr the array to sort
+     */
+    public void psort(int[] arr)
+    {
+        if ( arr.length < MINIMUM_SIZE )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+
+        int[] buffer = workspacePool.acquireInts(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+
+    /**
+     * Sorts an array of ints with a parallel radix sort, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(int[] arr, int[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+
+        if ( arr.length < MINIMUM_SIZE )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+
+        sort(arr, buffer, arr.length, Integer.SIZE / DIGIT_BITS);
+    }
+
+    /**
+     * Sorts an array of longs with a parallel radix sort.
+     * @param arr the array to sort
+     */
+    public void psort(long[] arr)
+    {
+        if ( arr.length < MINIMUM_SIZE )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+
+        long[] buffer = workspacePool.acquireLongs(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+
+    /**
+     * Sorts an array of longs with a parallel radix sort, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(long[] arr, long[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+
+        if ( arr.length < MINIMUM_SIZE )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+
+        sort(arr, buffer, arr.length, Long.SIZE / DIGIT_BITS);
+    }
+
+    /**
+     * Runs the passes over an int[] or long[] and its workspace.
+     */
+    private void sort(Object arr, Object buffer, int length, int digits)
+    {
+        int chunks = Math.max(1, Math.min(parallelism, length / MINIMUM_CHUNK_SIZE));
+        int[] bounds = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++)
+        {
+            bounds[c] = (int)((long)length * c / chunks);
+        }
+
+        // Count every digit of every key in one pass over the array.
+
+        int[][] counts = new int[chunks][digits * RADIX];
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+
+        for (int c = 0; c < chunks; c++)
+        {
+            workers.add( new Counter(arr, bounds[c], bounds[c + 1], 0, digits, counts[c]) );
+        }
+
+        Tasks.invokeAll( pool, workers, "count" );
+
+        // Whether a digit is the same for every key depends only on the set of keys, so the first counts decide
+        // which passes to skip.
+
+        boolean[] skip = new boolean[digits];
+        for (int digit = 0; digit < digits; digit++)
+        {
+            skip[digit] = isConstant(counts, digit * RADIX, length);
+        }
+
+        Object src = arr;
+        Object dst = buffer;
+        boolean firstPass = true;
+
+        for (int digit = 0; digit < digits; digit++)
+        {
+            if ( skip[digit] )
+            {
+                continue;
+            }
+
+            // The first pass uses the histograms already counted.  After a scatter the chunks hold different
+            // keys, so later passes count their digit again.
+
+            int base = digit * RADIX;
+
+            if ( !firstPass )
+            {
+                workers.clear();
+                for (int c = 0; c < chunks; c++)
+                {
+                    workers.add( new Counter(src, bounds[c], bounds[c + 1], digit, 1, counts[c]) );
+                }
+
+                Tasks.invokeAll( pool, workers, "count" );
+                base = 0;
+            }
+
+            // Starting offset of each digit value for each chunk: all smaller digit values first, then the same
+            // digit value in the earlier chunks.
+
+            int[][] offsets = new int[chunks][RADIX];
+            int offset = 0;
+            for (int b = 0; b < RADIX; b++)
+            {
+                for (int c = 0; c < chunks; c++)
+                {
+                    offsets[c][b] = offset;
+                    offset += counts[c][base + b];
+                }
+            }
+
+            workers.clear();
+            for (int c = 0; c < chunks; c++)
+            {
+                workers.add( new Scatter(src, dst, bounds[c], bounds[c + 1], digit, digits, offsets[c]) );
+            }
+
+            Tasks.invokeAll( pool, workers, "scatter" );
+
+            Object tmp = src;
+            src = dst;
+            dst = tmp;
+            firstPass = false;
+        }
+
+        if ( src != arr )
+        {
+            workers.clear();
+            for (int c = 0; c < chunks; c++)
+            {
+                workers.add( new Copier(src, arr, bounds[c], bounds[c + 1] - bounds[c]) );
+            }
+
+            Tasks.invokeAll( pool, workers, "copy" );
+        }
+    }
+
+    /**
+     * True if one digit value accounts for all the keys, summed over the chunks' histograms at base.
+     */
+    static private boolean isConstant(int[][] counts, int base, int length)
+    {
+        for (int b = 0; b < RADIX; b++)
+        {
+            int total = 0;
+            for (int[] chunk : counts)
+            {
+                total += chunk[base + b];
+            }
+            if ( total != 0 )
+            {
+                return total == length;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns digit d (0 is the least significant) of an int key as an unsigned bucket index, with the sign bit
+     * flipped in the most significant digit so that negative keys sort first.
+     */
+    static private int bucket(int key, int d, int digits)
+    {
+        int b = (key >>> (d * DIGIT_BITS)) & MASK;
+        return d == digits - 1 ? b ^ (RADIX >> 1) : b;
+    }
+
+    static private int bucket(long key, int d, int digits)
+    {
+        int b = (int)(key >>> (d * DIGIT_BITS)) & MASK;
+        return d == digits - 1 ? b ^ (RADIX >> 1) : b;
+    }
+
+    /**
+     * Counts digits [firstDigit, firstDigit + digits) of the keys in [from, to) into counts, one RADIX sized
+     * histogram per digit.
+     */
+    static private class Counter implements Callable<Object>
+    {
+        private Object arr;
+        private int from;
+        private int to;
+        private int firstDigit;
+        private int digits;
+        private int[] counts;
+
+        public Counter(Object arr, int from, int to, int firstDigit, int digits, int[] counts)
+        {
+            this.arr = arr;
+            this.from = from;
+            this.to = to;
+            this.firstDigit = firstDigit;
+            this.digits = digits;
+            this.counts = counts;
+        }
+
+        public String call()
+        {
+            Arrays.fill( counts, 0, digits * RADIX, 0 );
+
+            if ( arr instanceof int[] )
+            {
+                int[] keys = (int[])arr;
+                int total = Integer.SIZE / DIGIT_BITS;
+
+                for (int i = from; i < to; i++)
+                {
+                    int key = keys[i];
+                    for (int d = 0; d < digits; d++)
+                    {
+                        counts[d * RADIX + bucket(key, firstDigit + d, total)]++;
+                    }
+                }
+            }
+            else
+            {
+                long[] keys = (long[])arr;
+                int total = Long.SIZE / DIGIT_BITS;
+
+                for (int i = from; i < to; i++)
+                {
+                    long key = keys[i];
+                    for (int d = 0; d < digits; d++)
+                    {
+                        counts[d * RADIX + bucket(key, firstDigit + d, total)]++;
+                    }
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Moves the keys in [from, to) of src to their place in dst for one digit, starting from this chunk's offset
+     * for each digit value.
+     */
+    static private class Scatter implements Callable<Object>
+    {
+        private Object src;
+        private Object dst;
+        private int from;
+        private int to;
+        private int digit;
+        private int digits;
+        private int[] offsets;
+
+        public Scatter(Object src, Object dst, int from, int to, int digit, int digits, int[] offsets)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.digit = digit;
+            this.digits = digits;
+            this.offsets = offsets;
+        }
+
+        public String call()
+        {
+            if ( src instanceof int[] )
+            {
+                int[] in = (int[])src;
+                int[] out = (int[])dst;
+
+                for (int i = from; i < to; i++)
+                {
+                    int key = in[i];
+                    out[offsets[bucket(key, digit, digits)]++] = key;
+                }
+            }
+            else
+            {
+                long[] in = (long[])src;
+                long[] out = (long[])dst;
+
+                for (int i = from; i < to; i++)
+                {
+                    long key = in[i];
+                    out[offsets[bucket(key, digit, digits)]++] = key;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    static private class Copier implements Callable<Object>
+    {
+        private Object src;
+        private Object dst;
+        private int offset;
+        private int len;
+
+        public Copier(Object src, Object dst, int offset, int len)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.offset = offset;
+            this.len = len;
+        }
+
+        public String call()
+        {
+            System.arraycopy( src, offset, dst, offset, len );
+            return null;
+        }
+    }
+}
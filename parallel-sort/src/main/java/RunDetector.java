@@ -0,0 +1,346 @@
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RunDetector.java - parallel pre-scan for natural runs in int and long arrays
+ * <p>
+ * Prototype4 cuts the array into fixed segments whatever it holds, so a sorted array is sorted segment by segment
+ * and merged level by level like random data.  Time-ordered feeds are usually sorted, reversed or made of a few
+ * long runs, and for those the runs are already most of the work.
+ * <p>
+ * {@link #findRuns} cuts the array into one chunk per thread and scans the chunks in parallel for natural runs, as
+ * TimSort does: a run is either non-descending, or strictly descending at its start and non-ascending after that.
+ * Runs that continue across a chunk boundary are joined, descending runs are reversed in place (in parallel
+ * pieces), and ascending runs that then follow on from each other are joined too.  The caller gets the bounds of
+ * the remaining runs, which it can merge instead of sorting; a single run means the array is now sorted.
+ * <p>
+ * Each chunk gives up as soon as it has found more than the allowed number of runs, and tells the others to stop,
+ * and the start of the array is probed on the caller thread before any task is submitted.  Random data has too
+ * many runs within the probe, so for it the scan is a few comparisons per allowed run and no tasks at all.
+ */
+class RunDetector
+{
+    /**
+     * Elements per allowed run that are scanned on the caller thread before the parallel scan.
+     */
+    static final private int PROBE_LENGTH = 64;
+
+    private RunDetector()
+    {
+    }
+
+    /**
+     * Returns the bounds of the ascending runs of arr[0, length), after reversing its descending runs, or null,
+     * leaving arr unchanged, if it has more than maxRuns runs.
+     * @param arr an int[] or long[]
+     * @param chunks the number of chunks to scan in parallel
+     * @return run r is [bounds[r], bounds[r + 1]); bounds.length is 2 if arr[0, length) is now sorted
+     */
+    static int[] findRuns(ExecutorService pool, int chunks, Object arr, int length, int maxRuns)
+    {
+        // Random data has more runs than allowed in the first few elements, so look at those on this thread
+        // before submitting any tasks.
+
+        AtomicBoolean tooMany = new AtomicBoolean();
+        new Scanner(arr, 0, (int)Math.min(length, (long)PROBE_LENGTH * maxRuns), maxRuns, tooMany).call();
+        if ( tooMany.get() )
+        {
+            return null;
+        }
+
+        chunks = Math.max(1, Math.min(chunks, length / Math.max(1, 2 * maxRuns)));
+
+        ArrayList<Scanner> scanners = new ArrayList<>();
+        for (int c = 0; c < chunks; c++)
+        {
+            scanners.add( new Scanner(arr, (int)((long)length * c / chunks), (int)((long)length * (c + 1) / chunks), maxRuns, tooMany) );
+        }
+
+        if ( chunks == 1 )
+        {
+            scanners.get( 0 ).call();
+        }
+        else
+        {
+            Tasks.invokeAll( pool, scanners, "run scan" );
+        }
+        if ( tooMany.get() )
+        {
+            return null;
+        }
+
+        // Join the runs of consecutive chunks where the direction carries on over the boundary.  A run of one
+        // element can go either way.
+
+        int[] starts = new int[maxRuns + 1];
+        boolean[] descending = new boolean[maxRuns + 1];
+        int runs = 0;
+
+        for (Scanner scanner : scanners)
+        {
+            for (int r = 0; r < scanner.count; r++)
+            {
+                int start = scanner.starts[r];
+                int end = r + 1 < scanner.count ? scanner.starts[r + 1] : scanner.hi;
+                boolean down = scanner.descending[r];
+
+                if ( r == 0 && runs > 0 )
+                {
+                    int lastStart = starts[runs - 1];
+                    boolean lastDown = descending[runs - 1];
+                    int cmp = compare(arr, start - 1, start);
+                    boolean single = end - start == 1;
+                    boolean lastSingle = start - lastStart == 1;
+
+                    if ( !lastDown && !down && cmp <= 0 )
+                    {
+                        continue;
+                    }
+                    if ( cmp >= 0 && (lastDown || lastSingle) && (down || single) )
+                    {
+                        descending[runs - 1] = true;
+                        continue;
+                    }
+                }
+
+                if ( runs == maxRuns )
+                {
+                    return null;
+                }
+                starts[runs] = start;
+                descending[runs] = down;
+                runs++;
+            }
+        }
+        starts[runs] = length;
+
+        reverse(pool, chunks, arr, starts, descending, runs);
+
+        // Reversed runs may now carry on from their neighbours.
+
+        int[] bounds = new int[runs + 1];
+        int count = 0;
+        for (int r = 0; r < runs; r++)
+        {
+            if ( count == 0 || compare(arr, starts[r] - 1, starts[r]) > 0 )
+            {
+                bounds[count++] = starts[r];
+            }
+        }
+        bounds[count] = length;
+
+        int[] result = new int[count + 1];
+        System.arraycopy( bounds, 0, result, 0, count + 1 );
+        return result;
+    }
+
+    /**
+     * Reverses the descending runs in place, cut into about length / chunks sized pieces of swaps so that one long
+     * run (a reversed array) is reversed by every thread.
+     */
+    static private void reverse(ExecutorService pool, int chunks, Object arr, int[] starts, boolean[] descending, int runs)
+    {
+        long total = 0;
+        for (int r = 0; r < runs; r++)
+        {
+            if ( descending[r] )
+            {
+                total += starts[r + 1] - starts[r];
+            }
+        }
+        if ( total == 0 )
+        {
+            return;
+        }
+
+        int piece = (int)Math.max(ParallelMerge.MINIMUM_CHUNK_SIZE, total / 2 / chunks + 1);
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+
+        for (int r = 0; r < runs; r++)
+        {
+            if ( descending[r] )
+            {
+                int swaps = (starts[r + 1] - starts[r]) / 2;
+                for (int k = 0; k < swaps; k += piece)
+                {
+                    workers.add( new Reverser(arr, starts[r], starts[r + 1], k, Math.min(swaps, k + piece)) );
+                }
+            }
+        }
+
+        if ( workers.size() == 1 )
+        {
+            ((Reverser)workers.get( 0 )).call();
+        }
+        else
+        {
+            Tasks.invokeAll( pool, workers, "reverse" );
+        }
+    }
+
+    static private int compare(Object arr, int i, int j)
+    {
+        if ( arr instanceof int[] )
+        {
+            return Integer.compare(((int[])arr)[i], ((int[])arr)[j]);
+        }
+        return Long.compare(((long[])arr)[i], ((long[])arr)[j]);
+    }
+
+    /**
+     * Finds the runs of arr[lo, hi), and stops early (setting tooMany) once it has found more than maxRuns or
+     * another scanner has.
+     */
+    static private class Scanner implements Callable<Object>
+    {
+        private Object arr;
+        private int lo;
+        private int hi;
+        private int maxRuns;
+        private AtomicBoolean tooMany;
+
+        int count;
+        int[] starts;
+        boolean[] descending;
+
+        public Scanner(Object arr, int lo, int hi, int maxRuns, AtomicBoolean tooMany)
+        {
+            this.arr = arr;
+            this.lo = lo;
+            this.hi = hi;
+            this.maxRuns = maxRuns;
+            this.tooMany = tooMany;
+            this.starts = new int[maxRuns];
+            this.descending = new boolean[maxRuns];
+        }
+
+        public Object call()
+        {
+            if ( arr instanceof int[] )
+            {
+                scan((int[])arr);
+            }
+            else
+            {
+                scan((long[])arr);
+            }
+            return null;
+        }
+
+        private void scan(int[] a)
+        {
+            int i = lo;
+
+            while ( i < hi )
+            {
+                if ( count == maxRuns || tooMany.get() )
+                {
+                    tooMany.set(true);
+                    return;
+                }
+
+                int j = i + 1;
+                boolean down = j < hi && a[j] < a[i];
+                if ( down )
+                {
+                    while ( j < hi && a[j] <= a[j - 1] )
+                    {
+                        j++;
+                    }
+                }
+                else
+                {
+                    while ( j < hi && a[j] >= a[j - 1] )
+                    {
+                        j++;
+                    }
+                }
+
+                starts[count] = i;
+                descending[count] = down;
+                count++;
+                i = j;
+            }
+        }
+
+        private void scan(long[] a)
+        {
+            int i = lo;
+
+            while ( i < hi )
+            {
+                if ( count == maxRuns || tooMany.get() )
+                {
+                    tooMany.set(true);
+                    return;
+                }
+
+                int j = i + 1;
+                boolean down = j < hi && a[j] < a[i];
+                if ( down )
+                {
+                    while ( j < hi && a[j] <= a[j - 1] )
+                    {
+                        j++;
+                    }
+                }
+                else
+                {
+                    while ( j < hi && a[j] >= a[j - 1] )
+                    {
+                        j++;
+                    }
+                }
+
+                starts[count] = i;
+                descending[count] = down;
+                count++;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Swaps elements k0 to k1 - 1 of the run [from, to) with their mirror images, reversing part of the run.
+     */
+    static private class Reverser implements Callable<Object>
+    {
+        private Object arr;
+        private int from;
+        private int to;
+        private int k0;
+        private int k1;
+
+        public Reverser(Object arr, int from, int to, int k0, int k1)
+        {
+            this.arr = arr;
+            this.from = from;
+            this.to = to;
+            this.k0 = k0;
+            this.k1 = k1;
+        }
+
+        public Object call()
+        {
+            if ( arr instanceof int[] )
+            {
+                int[] a = (int[])arr;
+                for (int i = from + k0, j = to - 1 - k0; i < from + k1; i++, j--)
+                {
+                    int t = a[i]; a[i] = a[j]; a[j] = t;
+                }
+            }
+            else
+            {
+                long[] a = (long[])arr;
+                for (int i = from + k0, j = to - 1 - k0; i < from + k1; i++, j--)
+                {
+                    long t = a[i]; a[i] = a[j]; a[j] = t;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SampleSort.java - parallel sample sort (multi-way partitioning) for int arrays
+ * <p>
+ * An alternative engine to the merge based Prototype3 and Prototype4.  Those sort segments and then merge them,
+ * so every element is read and written once per level of the merge tree.  A sample sort partitions first instead:
+ * <pre>
+ * 1. pick splitters from a random sample of the array, so that they cut it into buckets of about equal size,
+ * 2. every thread classifies the elements of its chunk against the splitters and counts the bucket sizes,
+ * 3. prefix sums give each chunk a starting offset in each bucket, and every thread scatters its elements to
+ *    their buckets in the workspace,
+ * 4. every bucket is copied back to its final place in the array and sorted there with Arrays.sort.
+ * </pre>
+ * After step 4 the array is sorted with no merge phase: each element moves twice (to the workspace and back)
+ * however many threads there are.
+ * <p>
+ * Inputs with many duplicates would make plain splitters useless: if a single value fills half the array, half
+ * the sample has that value, several splitters are equal and one bucket gets everything.  So the splitters are
+ * de-duplicated, and every splitter gets an "equality bucket" of its own next to the bucket of smaller values, as in
+ * IPS4o.  An equality bucket holds only copies of one value, so it is already sorted and is just copied back.
+ * <p>
+ * There are more buckets than threads (see {@link #BUCKETS_PER_THREAD}) so that buckets of uneven size still
+ * spread evenly over the pool when they are sorted.
+ */
+public class SampleSort
+{
+    /**
+     * Below this Arrays.sort is faster than sampling and partitioning.
+     */
+    static final int MINIMUM_SIZE = 16384;
+
+    /**
+     * Buckets per pool thread.  More buckets balance the final sorts better but make classification deeper.
+     */
+    static final private int BUCKETS_PER_THREAD = 4;
+
+    /**
+     * Sample elements per bucket.  Oversampling keeps the bucket sizes close to n / buckets.
+     */
+    static final private int OVERSAMPLING = 32;
+
+    /**
+     * Chunks smaller than this aren't worth a task of their own.
+     */
+    static final private int MINIMUM_CHUNK_SIZE = 16384;
+
+    private final int parallelism;
+    private ExecutorService pool;
+    private WorkspacePool workspacePool = WorkspacePool.getShared();
+
+    /**
+     * Creates a sorter with one pool thread per available processor.
+     */
+    public SampleSort()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a sorter with an explicit parallelism.
+     * @param parallelism the number of pool threads, which also sets the number of buckets
+     */
+    public SampleSort(int parallelism)
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Sets the pool that workspaces are taken from; by default the shared {@link WorkspacePool}.
+     */
+    public void setWorkspacePool(WorkspacePool workspacePool)
+    {
+        this.workspacePool = workspacePool;
+    }
+
+    /**
+     * Sorts an array with a parallel sample sort.
+     * @param arr the array to sort
+     */
+    public void psort(int[] arr)
+    {
+        if ( arr.length < MINIMUM_SIZE )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+
+        int[] buffer = workspacePool.acquireInts(arr.length);
+        try
+        {
+            psort(arr, buffer);
+        }
+        finally
+        {
+            workspacePool.release(buffer);
+        }
+    }
+
+    /**
+     * Sorts an array with a parallel sample sort, with a caller supplied workspace.
+     * @param arr the array to sort
+     * @param buffer scratch space at least as long as arr; its contents are overwritten
+     */
+    public void psort(int[] arr, int[] buffer)
+    {
+        if ( buffer.length < arr.length )
+        {
+            throw new IllegalArgumentException("workspace length " + buffer.length + " is less than array length " + arr.length);
+        }
+
+        if ( arr.length < MINIMUM_SIZE )
+        {
+            Arrays.sort( arr );
+            return;
+        }
+
+        int length = arr.length;
+        int[] splitters = splitters(arr, parallelism * BUCKETS_PER_THREAD);
+
+        // Bucket 2s holds the values below splitters[s] (and above splitters[s - 1]), bucket 2s + 1 the values
+        // equal to splitters[s], and the last bucket the values above the last splitter.
+
+        int buckets = 2 * splitters.length + 1;
+        int chunks = Math.max(1, Math.min(parallelism, length / MINIMUM_CHUNK_SIZE));
+        int[] bounds = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++)
+        {
+            bounds[c] = (int)((long)length * c / chunks);
+        }
+
+        int[][] counts = new int[chunks][buckets];
+        ArrayList<Callable<Object>> workers = new ArrayList<>();
+
+        for (int c = 0; c < chunks; c++)
+        {
+            workers.add( new Classifier(arr, null, bounds[c], bounds[c + 1], splitters, counts[c]) );
+        }
+
+        Tasks.invokeAll( pool, workers, "classify" );
+
+        // Starting offset of each bucket for each chunk, and the bucket boundaries.
+
+        int[][] offsets = new int[chunks][buckets];
+        int[] bucketBounds = new int[buckets + 1];
+        int offset = 0;
+        for (int b = 0; b < buckets; b++)
+        {
+            bucketBounds[b] = offset;
+            for (int c = 0; c < chunks; c++)
+            {
+                offsets[c][b] = offset;
+                offset += counts[c][b];
+            }
+        }
+        bucketBounds[buckets] = offset;
+
+        workers.clear();
+        for (int c = 0; c < chunks; c++)
+        {
+            workers.add( new Classifier(arr, buffer, bounds[c], bounds[c + 1], splitters, offsets[c]) );
+        }
+
+        Tasks.invokeAll( pool, workers, "scatter" );
+
+        // Copy each bucket back and sort it in place.  Equality buckets are only copied.
+
+        workers.clear();
+        for (int b = 0; b < buckets; b++)
+        {
+            int from = bucketBounds[b];
+            int to = bucketBounds[b + 1];
+            if ( from < to )
+            {
+                workers.add( new BucketSorter(buffer, arr, from, to, (b & 1) == 0) );
+            }
+        }
+
+        Tasks.invokeAll( pool, workers, "bucket sort" );
+    }
+
+    /**
+     * Picks between 1 and count - 1 distinct splitters from a random sample of arr, evenly spaced through the
+     * sorted sample.
+     */
+    static int[] splitters(int[] arr, int count)
+    {
+        int sampleSize = Math.min(arr.length, count * OVERSAMPLING);
+        int[] sample = new int[sampleSize];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int s = 0; s < sampleSize; s++)
+        {
+            sample[s] = arr[random.nextInt(arr.length)];
+        }
+        Arrays.sort( sample );
+
+        int[] splitters = new int[count - 1];
+        int distinct = 0;
+        for (int s = 1; s < count; s++)
+        {
+            int splitter = sample[(int)((long)sampleSize * s / count)];
+            if ( distinct == 0 || splitter != splitters[distinct - 1] )
+            {
+                splitters[distinct++] = splitter;
+            }
+        }
+
+        return Arrays.copyOf(splitters, distinct);
+    }
+
+    /**
+     * Returns the bucket of a value: 2s if it is below splitters[s] and not below the splitter before it, 2s + 1 if
+     * it equals splitters[s], found by a binary search over the sorted splitters.
+     */
+    static private int bucket(int value, int[] splitters)
+    {
+        int lo = 0;
+        int hi = splitters.length;
+
+        // Find the number of splitters below value.
+        while ( lo < hi )
+        {
+            int mid = (lo + hi) >>> 1;
+            if ( splitters[mid] < value )
+            {
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid;
+            }
+        }
+
+        return lo < splitters.length && splitters[lo] == value ? 2 * lo + 1 : 2 * lo;
+    }
+
+    /**
+     * Classifies the values in [from, to) of src.  Without a destination it counts the bucket sizes into
+     * counts; with one it scatters the values to dst starting at the given offset per bucket.
+     */
+    static private class Classifier implements Callable<Object>
+    {
+        private int[] src;
+        private int[] dst;
+        private int from;
+        private int to;
+        private int[] splitters;
+        private int[] counts;
+
+        public Classifier(int[] src, int[] dst, int from, int to, int[] splitters, int[] counts)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.splitters = splitters;
+            this.counts = counts;
+        }
+
+        public String call()
+        {
+            if ( dst == null )
+            {
+                for (int i = from; i < to; i++)
+                {
+                    counts[bucket(src[i], splitters)]++;
+                }
+            }
+            else
+            {
+                for (int i = from; i < to; i++)
+                {
+                    int value = src[i];
+                    dst[counts[bucket(value, splitters)]++] = value;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Copies a bucket from the workspace back to the array and sorts it there if it needs sorting.
+     */
+    static private class BucketSorter implements Callable<Object>
+    {
+        private int[] src;
+        private int[] dst;
+        private int from;
+        private int to;
+        private boolean sort;
+
+        public BucketSorter(int[] src, int[] dst, int from, int to, boolean sort)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.sort = sort;
+        }
+
+        public String call()
+        {
+            System.arraycopy( src, from, dst, from, to - from );
+
+            if ( sort )
+            {
+                Arrays.sort( dst, from, to );
+            }
+
+            return null;
+        }
+    }
+}
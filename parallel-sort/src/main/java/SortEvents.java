@@ -0,0 +1,103 @@
+import java.nio.IntBuffer;
+
+/**
+ * SortEvents.java - the Java Flight Recorder events of {@link SortMetrics}
+ * <p>
+ * This class is the events of a JVM without a flight recorder: it records nothing.  {@link #get()} returns
+ * JfrSortEvents instead, which commits each sort as a sassort.Sort event and each task as a sassort.SortTask event.
+ * jdk.jfr is not part of the Java 8 API the engines are built against (it came with JDK 11, and with 8u262 in
+ * Java 8), so JfrSortEvents lives in the separate jfr module, built for Java 11.  When the class or jdk.jfr isn't
+ * there, get() falls back to these, so a SortMetrics works on any JVM and only loses its events.
+ * <p>
+ * Events are stateless and shared by all the SortMetrics.
+ */
+public class SortEvents
+{
+    static private SortEvents events;
+
+    protected SortEvents()
+    {
+    }
+
+    /**
+     * Returns the flight recorder events if JfrSortEvents is on the class path and jdk.jfr can be loaded; otherwise
+     * events that record nothing.
+     */
+    static synchronized public SortEvents get()
+    {
+        if ( events == null )
+        {
+            try
+            {
+                events = (SortEvents)Class.forName("JfrSortEvents").getDeclaredConstructor().newInstance();
+            }
+            catch ( ReflectiveOperationException | LinkageError ex )
+            {
+                events = new SortEvents();
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Returns true if these are flight recorder events.
+     */
+    public boolean isRecorded()
+    {
+        return false;
+    }
+
+    /**
+     * Begins the event of a sort, or returns null if there is none.
+     */
+    public Object beginSort()
+    {
+        return null;
+    }
+
+    /**
+     * Ends the event of a sort of length elements of arr, begun by {@link #beginSort()}, that sorted and merged or
+     * just merged the given number of runs.
+     */
+    public void endSort(Object event, Object arr, int length, int runs)
+    {
+    }
+
+    /**
+     * Begins the event of a task, or returns null if there is none.
+     */
+    public Object beginTask()
+    {
+        return null;
+    }
+
+    /**
+     * Ends the event of a task of the phase, begun by {@link #beginTask()}, that waited queueWait nanoseconds in
+     * the pool before it ran.
+     */
+    public void endTask(Object event, SortMetrics.Phase phase, long queueWait)
+    {
+    }
+
+    /**
+     * Returns the element type of an array or buffer as the sort event shows it.
+     */
+    static protected String elementType(Object arr)
+    {
+        if ( arr instanceof KeyedArray )
+        {
+            return "int/" + ((KeyedArray)arr).payload.getClass().getComponentType().getSimpleName();
+        }
+        else if ( arr.getClass().isArray() )
+        {
+            return arr.getClass().getComponentType().getSimpleName();
+        }
+        return arr instanceof IntBuffer ? "IntBuffer" : "LongBuffer";
+    }
+
+    @Override
+    public String toString()
+    {
+        return "none";
+    }
+}
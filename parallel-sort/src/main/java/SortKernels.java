@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+/**
+ * SortKernels.java - the leaf sort and merge kernels that Prototype4 runs on int and long arrays
+ * <p>
+ * This class is the scalar kernels: Arrays.sort at the leaves and the {@link ParallelMerge} merges.
+ * {@link #vectorized()} returns kernels built on the jdk.incubator.vector API instead (sorting networks in vector
+ * registers for the leaves, and a bitonic merge of one vector from each run per step), which live in VectorKernels
+ * in the separate vector module because the incubator module needs JDK 16 or later and
+ * --add-modules jdk.incubator.vector at both compile and run time.  When the class, the module or vector
+ * hardware isn't there, vectorized() falls back to these scalar kernels, so asking for it is always safe.  The
+ * vector kernels only replace the int kernels: on long arrays they measured slower, and leave them to these.
+ * <p>
+ * Kernels are stateless and shared by all the tasks of a sort.
+ */
+public class SortKernels
+{
+    static final private SortKernels scalar = new SortKernels();
+
+    static private SortKernels vectorized;
+
+    protected SortKernels()
+    {
+    }
+
+    /**
+     * Returns the scalar kernels, which Prototype4 uses by default.
+     */
+    static public SortKernels scalar()
+    {
+        return scalar;
+    }
+
+    /**
+     * Returns the vector kernels if VectorKernels is on the class path, jdk.incubator.vector is in the module graph
+     * and the preferred vector species holds at least 16 ints (AVX-512); otherwise the scalar kernels.
+     */
+    static synchronized public SortKernels vectorized()
+    {
+        if ( vectorized == null )
+        {
+            try
+            {
+                vectorized = (SortKernels)Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            }
+            catch ( ReflectiveOperationException | LinkageError ex )
+            {
+                // An InvocationTargetException wraps the UnsupportedOperationException of narrow vectors.
+                vectorized = scalar;
+            }
+        }
+        return vectorized;
+    }
+
+    /**
+     * Returns true if these are vector kernels.
+     */
+    public boolean isVectorized()
+    {
+        return false;
+    }
+
+    public void sort(int[] arr, int from, int to)
+    {
+        Arrays.sort(arr, from, to);
+    }
+
+    public void sort(long[] arr, int from, int to)
+    {
+        Arrays.sort(arr, from, to);
+    }
+
+    /**
+     * Sorts arr[from, to), taking any workspace the kernel needs from workspacePool.  The scalar kernels need
+     * none; the vector kernels use it for their merge passes.
+     */
+    public void sort(int[] arr, int from, int to, WorkspacePool workspacePool)
+    {
+        sort(arr, from, to);
+    }
+
+    public void sort(long[] arr, int from, int to, WorkspacePool workspacePool)
+    {
+        sort(arr, from, to);
+    }
+
+    /**
+     * Merges src[offset1, offset1 + len1) and src[offset2, offset2 + len2) into dst starting at dstOffset.
+     */
+    public void merge(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        ParallelMerge.merge(src, dst, offset1, len1, offset2, len2, dstOffset);
+    }
+
+    public void merge(long[] src, long[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        ParallelMerge.merge(src, dst, offset1, len1, offset2, len2, dstOffset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "scalar";
+    }
+}
@@ -0,0 +1,374 @@
+import java.lang.management.ManagementFactory;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * SortMetrics.java - per phase instrumentation of Prototype4.psort()
+ * <p>
+ * The debug flag of the prototypes prints every element, which is no help in finding out where a slow sort of
+ * millions of elements spent its time.  A SortMetrics given to {@link Prototype4#setMetrics(SortMetrics)} counts:
+ * <pre>
+ * sorts, sorted elements, sort time   per psort that goes through the segment and merge tree
+ * phase time                          wall time of the Sorter, Merger and Copier phases, seen from the caller
+ * task time                           the summed and the longest run time of the tasks of each phase
+ * queue wait                          the summed and the longest time tasks waited in the pool before running
+ * bytes copied                        bytes written by the merges and copies (a merge level writes every element)
+ * workspace allocations               workspaces a {@link WorkspacePool} had to allocate; see
+ *                                     {@link WorkspacePool#setMetrics(SortMetrics)}
+ * </pre>
+ * The counters are LongAdders, so threads updating them don't contend, and can be read from code, or through JMX
+ * once {@link #register(String)} has registered this as a {@link SortMetricsMBean}.
+ * <p>
+ * Each sort and each task is also a Java Flight Recorder event, sassort.Sort and sassort.SortTask, so a recording
+ * shows which sorts were slow and which of their tasks held them up.  Like any JFR event they cost next to nothing
+ * unless a recording enables them.  The events are in the jfr module; without it on the class path, or on a JVM
+ * without jdk.jfr, {@link SortEvents} records nothing and only the counters are kept.
+ * <p>
+ * Without a SortMetrics (the default) the sort does no timing at all: the only cost is a null check per phase.
+ */
+public class SortMetrics implements SortMetricsMBean
+{
+    /**
+     * The phases of the segment and merge tree.  toString() is the name used in task error messages.
+     */
+    public enum Phase
+    {
+        SORT, MERGE, COPY;
+
+        @Override
+        public String toString()
+        {
+            return name().toLowerCase();
+        }
+    }
+
+    private final LongAdder sorts = new LongAdder();
+    private final LongAdder sortedElements = new LongAdder();
+    private final LongAdder sortNanos = new LongAdder();
+    private final LongAdder[] phaseNanos = adders();
+    private final LongAdder[] taskNanos = adders();
+    private final LongAdder tasks = new LongAdder();
+    private final LongAccumulator maxTaskNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder workspaceAllocations = new LongAdder();
+    private final LongAdder workspaceBytesAllocated = new LongAdder();
+
+    static final private SortEvents events = SortEvents.get();
+
+    private ObjectName objectName;
+
+    static private LongAdder[] adders()
+    {
+        LongAdder[] adders = new LongAdder[Phase.values().length];
+        for (int i = 0; i < adders.length; i++)
+        {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Registers this with the platform MBean server as sassort:type=SortMetrics,name=&lt;name&gt;.
+     */
+    public synchronized void register(String name) throws JMException
+    {
+        ObjectName objectName = new ObjectName("sassort:type=SortMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    public synchronized void unregister() throws JMException
+    {
+        if ( objectName != null )
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    /**
+     * Starts timing a sort, and its JFR event.
+     */
+    SortEvent beginSort()
+    {
+        return new SortEvent(System.nanoTime(), events.beginSort());
+    }
+
+    /**
+     * Counts a sort of length elements of arr, begun by {@link #beginSort()}, that sorted and merged or just
+     * merged the given number of runs.
+     */
+    void endSort(SortEvent sort, Object arr, int length, int runs)
+    {
+        sorts.increment();
+        sortedElements.add(length);
+        sortNanos.add(System.nanoTime() - sort.startNanos);
+
+        if ( sort.event != null )
+        {
+            events.endSort(sort.event, arr, length, runs);
+        }
+    }
+
+    void recordPhase(Phase phase, long nanos)
+    {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    void recordTask(Phase phase, long nanos, long queueWait)
+    {
+        taskNanos[phase.ordinal()].add(nanos);
+        tasks.increment();
+        maxTaskNanos.accumulate(nanos);
+        queueWaitNanos.add(queueWait);
+        maxQueueWaitNanos.accumulate(queueWait);
+    }
+
+    /**
+     * Counts len elements of arr written by a merge or a copy.
+     */
+    void recordCopy(Object arr, long len)
+    {
+        bytesCopied.add(len * elementBytes(arr));
+    }
+
+    void recordWorkspaceAllocation(long bytes)
+    {
+        workspaceAllocations.increment();
+        workspaceBytesAllocated.add(bytes);
+    }
+
+    /**
+     * Returns the tasks of a phase wrapped so that each one records its run time, its wait in the pool queue from
+     * now, and a JFR event.
+     */
+    List<Callable<Object>> timed(List<? extends Callable<Object>> workers, Phase phase)
+    {
+        long submitted = System.nanoTime();
+        List<Callable<Object>> timed = new ArrayList<>(workers.size());
+        for (Callable<Object> worker : workers)
+        {
+            timed.add(new TimedTask(worker, phase, submitted));
+        }
+        return timed;
+    }
+
+    /**
+     * Runs a task on the current thread, recording it as a task of the phase with no queue wait.
+     */
+    void runTimed(Callable<Object> worker, Phase phase) throws Exception
+    {
+        new TimedTask(worker, phase, System.nanoTime()).call();
+    }
+
+    private class TimedTask implements Callable<Object>
+    {
+        private final Callable<Object> worker;
+        private final Phase phase;
+        private final long submitted;
+
+        TimedTask(Callable<Object> worker, Phase phase, long submitted)
+        {
+            this.worker = worker;
+            this.phase = phase;
+            this.submitted = submitted;
+        }
+
+        public Object call() throws Exception
+        {
+            Object event = events.beginTask();
+            long startTime = System.nanoTime();
+
+            Object result = worker.call();
+
+            long elapsedTime = System.nanoTime() - startTime;
+            recordTask(phase, elapsedTime, startTime - submitted);
+
+            if ( event != null )
+            {
+                events.endTask(event, phase, startTime - submitted);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the bytes per element of an array or buffer; object arrays count a compressed reference.
+     */
+    static private int elementBytes(Object arr)
+    {
+        if ( arr instanceof KeyedArray )
+        {
+            return 4 + (((KeyedArray)arr).payload instanceof int[] ? 4 : 8);
+        }
+        else if ( arr instanceof IntBuffer || arr instanceof int[] || arr instanceof float[] || arr instanceof Object[] )
+        {
+            return 4;
+        }
+        else if ( arr instanceof short[] || arr instanceof char[] )
+        {
+            return 2;
+        }
+        else if ( arr instanceof byte[] )
+        {
+            return 1;
+        }
+        return 8;
+    }
+
+    public long getSorts()
+    {
+        return sorts.sum();
+    }
+
+    public long getSortedElements()
+    {
+        return sortedElements.sum();
+    }
+
+    /**
+     * The total wall time of the sorts, from the first segment sort to the end of the last merge or copy.
+     */
+    public long getSortNanos()
+    {
+        return sortNanos.sum();
+    }
+
+    /**
+     * The wall time the sorts spent in a phase, seen from the thread that called psort.
+     */
+    public long getPhaseNanos(Phase phase)
+    {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * The summed run time of the tasks of a phase; divided by the phase time, roughly the threads kept busy.
+     */
+    public long getTaskNanos(Phase phase)
+    {
+        return taskNanos[phase.ordinal()].sum();
+    }
+
+    public long getSortPhaseNanos()
+    {
+        return getPhaseNanos(Phase.SORT);
+    }
+
+    public long getMergePhaseNanos()
+    {
+        return getPhaseNanos(Phase.MERGE);
+    }
+
+    public long getCopyPhaseNanos()
+    {
+        return getPhaseNanos(Phase.COPY);
+    }
+
+    public long getSortTaskNanos()
+    {
+        return getTaskNanos(Phase.SORT);
+    }
+
+    public long getMergeTaskNanos()
+    {
+        return getTaskNanos(Phase.MERGE);
+    }
+
+    public long getCopyTaskNanos()
+    {
+        return getTaskNanos(Phase.COPY);
+    }
+
+    public long getTasks()
+    {
+        return tasks.sum();
+    }
+
+    public long getMaxTaskNanos()
+    {
+        return maxTaskNanos.get();
+    }
+
+    /**
+     * The summed time tasks spent between being handed to the pool and starting to run.
+     */
+    public long getQueueWaitNanos()
+    {
+        return queueWaitNanos.sum();
+    }
+
+    public long getMaxQueueWaitNanos()
+    {
+        return maxQueueWaitNanos.get();
+    }
+
+    public long getBytesCopied()
+    {
+        return bytesCopied.sum();
+    }
+
+    public long getWorkspaceAllocations()
+    {
+        return workspaceAllocations.sum();
+    }
+
+    public long getWorkspaceBytesAllocated()
+    {
+        return workspaceBytesAllocated.sum();
+    }
+
+    /**
+     * Zeroes every counter.  Not atomic: updates made while this runs may be lost or kept.
+     */
+    public void reset()
+    {
+        for (LongAdder adder : new LongAdder[] { sorts, sortedElements, sortNanos, tasks, queueWaitNanos, bytesCopied, workspaceAllocations, workspaceBytesAllocated })
+        {
+            adder.reset();
+        }
+        for (Phase phase : Phase.values())
+        {
+            phaseNanos[phase.ordinal()].reset();
+            taskNanos[phase.ordinal()].reset();
+        }
+        maxTaskNanos.reset();
+        maxQueueWaitNanos.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "sorts=" + getSorts() + ", elements=" + getSortedElements() + ", sortNanos=" + getSortNanos()
+                + ", phaseNanos(sort/merge/copy)=" + getSortPhaseNanos() + "/" + getMergePhaseNanos() + "/" + getCopyPhaseNanos()
+                + ", taskNanos(sort/merge/copy)=" + getSortTaskNanos() + "/" + getMergeTaskNanos() + "/" + getCopyTaskNanos()
+                + ", tasks=" + getTasks() + ", maxTaskNanos=" + getMaxTaskNanos()
+                + ", queueWaitNanos=" + getQueueWaitNanos() + ", maxQueueWaitNanos=" + getMaxQueueWaitNanos()
+                + ", bytesCopied=" + getBytesCopied() + ", workspaceAllocations=" + getWorkspaceAllocations()
+                + ", workspaceBytesAllocated=" + getWorkspaceBytesAllocated();
+    }
+
+    /**
+     * A sort being timed: when it started, and its event if {@link SortEvents} records one.
+     */
+    static class SortEvent
+    {
+        final long startNanos;
+        final Object event;
+
+        SortEvent(long startNanos, Object event)
+        {
+            this.startNanos = startNanos;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * SortMetricsMBean.java - the JMX management interface of {@link SortMetrics}
+ * <p>
+ * Times are in nanoseconds and every value counts from the creation of the SortMetrics or the last reset().
+ */
+public interface SortMetricsMBean
+{
+    long getSorts();
+
+    long getSortedElements();
+
+    long getSortNanos();
+
+    long getSortPhaseNanos();
+
+    long getMergePhaseNanos();
+
+    long getCopyPhaseNanos();
+
+    long getSortTaskNanos();
+
+    long getMergeTaskNanos();
+
+    long getCopyTaskNanos();
+
+    long getTasks();
+
+    long getMaxTaskNanos();
+
+    long getQueueWaitNanos();
+
+    long getMaxQueueWaitNanos();
+
+    long getBytesCopied();
+
+    long getWorkspaceAllocations();
+
+    long getWorkspaceBytesAllocated();
+
+    void reset();
+}
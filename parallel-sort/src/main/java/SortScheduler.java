@@ -0,0 +1,439 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SortScheduler.java - a persistent work-stealing scheduler for the phases of a parallel sort
+ * <p>
+ * Prototype4 runs every phase (the segment sorts, each merge level, the run scan) as an invokeAll on a fixed thread
+ * pool: a FutureTask per task, a shared blocking queue, and a caller that blocks on each Future in turn while the
+ * pool threads go to sleep on the queue between phases.  For a 10M element sort that is noise, but at 10K - 1M
+ * elements the whole sort takes about as long as waking the pool threads a few times.
+ * <p>
+ * This scheduler is built for that pattern instead:
+ * <pre>
+ * workers      parallelism - 1 daemon threads, started once and kept for the life of the scheduler; the thread
+ *              that runs a phase is the last worker, so a scheduler of parallelism 1 runs everything inline
+ * deques       each worker has its own deque; a phase deals its tasks round robin onto them, and a worker that
+ *              runs out takes tasks from the far end of the others' deques (tasks a worker submits itself go on
+ *              the near end of its own)
+ * idling       a worker with nothing to do spins for up to {@link #SPIN_NANOS}, so the next phase of the same sort
+ *              finds it awake, then parks until a submit unparks it
+ * barrier      a phase is a countdown of its tasks: the caller runs the first task itself, then helps with any
+ *              queued task, then spins and parks until the count reaches 0; an exception a task threw is kept
+ *              and rethrown on the caller thread
+ * </pre>
+ * There are no Futures, no locks and nothing to allocate per phase beyond a small wrapper per task.  Java has no
+ * way to pin a thread to a core, but workers that never exit and usually take tasks from their own deque stay warm
+ * on whichever core the OS keeps them on.
+ * <p>
+ * When there are more threads than processors, spinning would only take time from the threads doing the work, so
+ * an oversubscribed scheduler parks straight away.
+ * <p>
+ * {@link Tasks#invokeAll} recognises a SortScheduler and runs its phases through {@link #runPhase}.  It is also a
+ * plain ExecutorService, so it can stand in for a pool anywhere else.  The workers are daemon threads, so a
+ * scheduler that is never shut down doesn't keep the JVM alive.
+ */
+public class SortScheduler extends AbstractExecutorService
+{
+    /**
+     * How long an idle worker, or a caller waiting for the end of a phase, spins before parking.
+     */
+    static final long SPIN_NANOS = 50000;
+
+    static final private AtomicInteger schedulerCount = new AtomicInteger();
+
+    private final Worker[] workers;
+    private final long spinNanos;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a scheduler with one worker per available processor, counting the caller.
+     */
+    public SortScheduler()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * @param parallelism the number of threads that run a phase, counting the caller: parallelism - 1 workers are
+     *        started
+     */
+    public SortScheduler(int parallelism)
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.spinNanos = parallelism <= Runtime.getRuntime().availableProcessors() ? SPIN_NANOS : 0;
+        this.workers = new Worker[parallelism - 1];
+
+        int id = schedulerCount.incrementAndGet();
+        for (int w = 0; w < workers.length; w++)
+        {
+            workers[w] = new Worker(this, w, "SortScheduler-" + id + "-worker-" + w);
+        }
+        for (Worker worker : workers)
+        {
+            worker.start();
+        }
+    }
+
+    /**
+     * Returns the number of threads that run a phase, counting the caller.
+     */
+    public int getParallelism()
+    {
+        return workers.length + 1;
+    }
+
+    /**
+     * Runs one phase of tasks and returns when all of them have completed.  The calling thread runs the first task
+     * and then helps with the rest.
+     * @param phase the name of the phase, for the exception message
+     * @throws RuntimeException an exception one of the tasks threw (wrapped if it is checked), after every task
+     *         has completed
+     */
+    public void runPhase(List<? extends Callable<?>> tasks, String phase)
+    {
+        if ( shutdown )
+        {
+            throw new RejectedExecutionException("scheduler is shut down");
+        }
+
+        int n = tasks.size();
+        if ( n == 0 )
+        {
+            return;
+        }
+
+        Phase barrier = new Phase(n, Thread.currentThread());
+
+        // With no workers the caller runs every task.
+
+        int inline = workers.length == 0 ? n : 1;
+        if ( inline < n )
+        {
+            int start = nextWorker.getAndAdd(n - 1);
+            for (int t = 1; t < n; t++)
+            {
+                workers[Math.floorMod(start + t, workers.length)].tasks.offerLast( new PhaseTask(tasks.get( t ), barrier) );
+            }
+            signal( n - 1 );
+        }
+
+        for (int t = 0; t < inline; t++)
+        {
+            new PhaseTask(tasks.get( t ), barrier).run();
+        }
+
+        while ( barrier.remaining.get() > 0 )
+        {
+            Runnable task = steal(-1);
+            if ( task == null )
+            {
+                break;
+            }
+            run( task );
+        }
+
+        barrier.await(spinNanos);
+
+        if ( barrier.error != null )
+        {
+            throw Tasks.propagate(barrier.error, phase);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        if ( shutdown )
+        {
+            throw new RejectedExecutionException("scheduler is shut down");
+        }
+
+        if ( workers.length == 0 )
+        {
+            task.run();
+            return;
+        }
+
+        Thread current = Thread.currentThread();
+        if ( current instanceof Worker && ((Worker)current).scheduler == this )
+        {
+            ((Worker)current).tasks.offerFirst( task );
+        }
+        else
+        {
+            workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)].tasks.offerLast( task );
+        }
+        signal( 1 );
+    }
+
+    /**
+     * Unparks up to count parked workers.  A worker publishes that it is parked before its last look at the deques,
+     * and a submitter queues its tasks before looking for parked workers, so one of the two always sees the other.
+     */
+    private void signal(int count)
+    {
+        for (int w = 0; w < workers.length && count > 0; w++)
+        {
+            if ( workers[w].parked )
+            {
+                LockSupport.unpark(workers[w]);
+                count--;
+            }
+        }
+    }
+
+    /**
+     * Takes a task from the far end of the deque of any worker but skip, or returns null if they are all empty.
+     */
+    private Runnable steal(int skip)
+    {
+        int start = skip + 1;
+        for (int i = 0; i < workers.length; i++)
+        {
+            int w = (start + i) % workers.length;
+            if ( w != skip )
+            {
+                Runnable task = workers[w].tasks.pollLast();
+                if ( task != null )
+                {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs a task on a worker or a helping caller.  PhaseTasks catch their own exceptions; any other task is
+     * reported to the thread's uncaught exception handler so that the thread can carry on.
+     */
+    static private void run(Runnable task)
+    {
+        try
+        {
+            task.run();
+        }
+        catch ( Throwable ex )
+        {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        shutdown = true;
+        for (Worker worker : workers)
+        {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        shutdown();
+        List<Runnable> pending = new ArrayList<>();
+        for (Worker worker : workers)
+        {
+            Runnable task;
+            while ( (task = worker.tasks.pollFirst()) != null )
+            {
+                pending.add( task );
+            }
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        if ( !shutdown )
+        {
+            return false;
+        }
+        for (Worker worker : workers)
+        {
+            if ( worker.isAlive() )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers)
+        {
+            long remaining = deadline - System.nanoTime();
+            if ( remaining > 0 )
+            {
+                TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+            }
+        }
+        return isTerminated();
+    }
+
+    static private class Worker extends Thread
+    {
+        final SortScheduler scheduler;
+        final ConcurrentLinkedDeque<Runnable> tasks = new ConcurrentLinkedDeque<>();
+        final int index;
+        volatile boolean parked;
+
+        Worker(SortScheduler scheduler, int index, String name)
+        {
+            super(name);
+            this.scheduler = scheduler;
+            this.index = index;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            long idleSince = 0;
+            boolean idle = false;
+
+            while ( true )
+            {
+                Runnable task = findTask();
+                if ( task != null )
+                {
+                    SortScheduler.run( task );
+                    idle = false;
+                    continue;
+                }
+
+                if ( scheduler.shutdown )
+                {
+                    return;
+                }
+
+                if ( !idle )
+                {
+                    idle = true;
+                    idleSince = System.nanoTime();
+                    continue;
+                }
+                if ( System.nanoTime() - idleSince < scheduler.spinNanos )
+                {
+                    continue;
+                }
+
+                parked = true;
+                task = findTask();
+                if ( task == null && !scheduler.shutdown )
+                {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                idle = false;
+
+                if ( task != null )
+                {
+                    SortScheduler.run( task );
+                }
+            }
+        }
+
+        private Runnable findTask()
+        {
+            Runnable task = tasks.pollFirst();
+            return task != null ? task : scheduler.steal(index);
+        }
+    }
+
+    /**
+     * The barrier of a phase: the number of its tasks still to complete, and an exception one of them threw.
+     */
+    static private class Phase
+    {
+        final AtomicInteger remaining;
+        final Thread caller;
+        volatile Throwable error;
+
+        Phase(int tasks, Thread caller)
+        {
+            this.remaining = new AtomicInteger(tasks);
+            this.caller = caller;
+        }
+
+        void done()
+        {
+            if ( remaining.decrementAndGet() == 0 )
+            {
+                LockSupport.unpark(caller);
+            }
+        }
+
+        /**
+         * Spins for up to spinNanos, then parks, until every task of the phase has completed.
+         */
+        void await(long spinNanos)
+        {
+            long startTime = System.nanoTime();
+            while ( remaining.get() > 0 && System.nanoTime() - startTime < spinNanos )
+            {
+            }
+            while ( remaining.get() > 0 )
+            {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    static private class PhaseTask implements Runnable
+    {
+        final Callable<?> task;
+        final Phase phase;
+
+        PhaseTask(Callable<?> task, Phase phase)
+        {
+            this.task = task;
+            this.phase = phase;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                task.call();
+            }
+            catch ( Throwable ex )
+            {
+                if ( phase.error == null )
+                {
+                    phase.error = ex;
+                }
+            }
+            finally
+            {
+                phase.done();
+            }
+        }
+    }
+}
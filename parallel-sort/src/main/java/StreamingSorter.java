@@ -0,0 +1,268 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * StreamingSorter.java - incremental sort of ints that arrive in batches
+ * <p>
+ * The other engines want the whole array up front, so when the data arrives in batches the sort can only start
+ * after the last batch.  This sorter overlaps the two: callers {@link #append(int[], int, int)} batches as they
+ * arrive, and each run of data is sorted on the pool in the background while more is still coming in.
+ * {@link #finish()} then waits for the runs still being sorted (normally just the last one) and returns an
+ * iterator that merges the sorted runs lazily, so the first element is available almost at once and the merge
+ * cost is spread over the consumer's iteration.
+ * <p>
+ * Small batches are collected into runs of at least {@link #MINIMUM_RUN_SIZE} values before they are sorted, so
+ * that the merge doesn't have a huge number of tiny runs.  Batches larger than {@link #MAXIMUM_RUN_SIZE} are cut
+ * into several runs, so a single large batch is still sorted by several threads.
+ * <p>
+ * The iterator is a k-way merge with a binary heap of run heads.  Appended data is copied, so callers can reuse
+ * their batch arrays.  After finish() the sorter is empty again and can take the next stream.  It is not thread
+ * safe: batches are appended from one thread.
+ */
+public class StreamingSorter
+{
+    static final public int MINIMUM_RUN_SIZE = 1 << 16;
+
+    static final public int MAXIMUM_RUN_SIZE = 1 << 20;
+
+    private final int parallelism;
+    private ExecutorService pool;
+
+    // Runs submitted for sorting, and the batch data not yet in a run.
+    private List<Future<int[]>> runs = new ArrayList<>();
+    private int[] pending = new int[MINIMUM_RUN_SIZE];
+    private int pendingLength;
+
+    /**
+     * Creates a sorter with one pool thread per available processor.
+     */
+    public StreamingSorter()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates a sorter with an explicit parallelism.
+     * @param parallelism the number of pool threads, which is the number of runs sorted at once
+     */
+    public StreamingSorter(int parallelism)
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Adds a batch of values to the stream.
+     * @param batch the values to add; they are copied
+     */
+    public void append(int[] batch)
+    {
+        append(batch, 0, batch.length);
+    }
+
+    /**
+     * Adds batch[fromIndex, toIndex) to the stream.
+     */
+    public void append(int[] batch, int fromIndex, int toIndex)
+    {
+        if ( fromIndex < 0 || toIndex > batch.length || fromIndex > toIndex )
+        {
+            throw new ArrayIndexOutOfBoundsException("range [" + fromIndex + ", " + toIndex + ") of length " + batch.length);
+        }
+
+        // Large batches go straight into runs of their own; anything else is collected until it makes a run.
+
+        if ( pendingLength == 0 && toIndex - fromIndex >= MINIMUM_RUN_SIZE )
+        {
+            submit(batch, fromIndex, toIndex);
+            return;
+        }
+
+        while ( fromIndex < toIndex )
+        {
+            int count = Math.min(toIndex - fromIndex, pending.length - pendingLength);
+            System.arraycopy( batch, fromIndex, pending, pendingLength, count );
+            pendingLength += count;
+            fromIndex += count;
+
+            if ( pendingLength == pending.length )
+            {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Ends the stream and returns its values in ascending order.  This waits until every run is sorted; the merge
+     * itself happens as the iterator is consumed.
+     * @return an iterator over all the appended values, in ascending order
+     */
+    public PrimitiveIterator.OfInt finish()
+    {
+        flush();
+
+        List<int[]> sorted = new ArrayList<>();
+        try
+        {
+            for (Future<int[]> run : runs)
+            {
+                sorted.add(run.get());
+            }
+        }
+        catch ( Exception ex )
+        {
+            throw new RuntimeException("One of the run sort tasks threw an exception: " + ex, ex);
+        }
+        finally
+        {
+            runs = new ArrayList<>();
+        }
+
+        return new MergeIterator(sorted);
+    }
+
+    /**
+     * Submits the collected batch data as a run.
+     */
+    private void flush()
+    {
+        if ( pendingLength > 0 )
+        {
+            submit(pending, 0, pendingLength);
+            pendingLength = 0;
+        }
+    }
+
+    /**
+     * Copies batch[from, to) and sorts it in the background, as one run or as several runs of at most
+     * {@link #MAXIMUM_RUN_SIZE} values.
+     */
+    private void submit(int[] batch, int from, int to)
+    {
+        int pieces = (to - from + MAXIMUM_RUN_SIZE - 1) / MAXIMUM_RUN_SIZE;
+
+        for (int p = 0; p < pieces; p++)
+        {
+            final int[] run = Arrays.copyOfRange(batch, from + (int)((long)(to - from) * p / pieces), from + (int)((long)(to - from) * (p + 1) / pieces));
+
+            runs.add( pool.submit(() ->
+            {
+                Arrays.sort( run );
+                return run;
+            }) );
+        }
+    }
+
+    /**
+     * Lazy k-way merge of sorted runs.  The heap holds the indexes of the runs that still have values, ordered by
+     * their next value.
+     */
+    static private class MergeIterator implements PrimitiveIterator.OfInt
+    {
+        private int[][] runs;
+        private int[] positions;
+        private int[] heap;
+        private int size;
+
+        public MergeIterator(List<int[]> sorted)
+        {
+            runs = sorted.toArray(new int[sorted.size()][]);
+            positions = new int[runs.length];
+            heap = new int[runs.length];
+
+            for (int r = 0; r < runs.length; r++)
+            {
+                if ( runs[r].length > 0 )
+                {
+                    heap[size++] = r;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--)
+            {
+                siftDown(i);
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return size > 0;
+        }
+
+        public int nextInt()
+        {
+            if ( size == 0 )
+            {
+                throw new NoSuchElementException();
+            }
+
+            int r = heap[0];
+            int value = runs[r][positions[r]++];
+
+            if ( positions[r] == runs[r].length )
+            {
+                runs[r] = null;
+                heap[0] = heap[--size];
+            }
+            siftDown(0);
+
+            return value;
+        }
+
+        private int head(int r)
+        {
+            return runs[r][positions[r]];
+        }
+
+        private void siftDown(int i)
+        {
+            if ( size == 0 )
+            {
+                return;
+            }
+
+            int r = heap[i];
+            int value = head(r);
+
+            while ( true )
+            {
+                int child = 2 * i + 1;
+                if ( child >= size )
+                {
+                    break;
+                }
+                if ( child + 1 < size && head(heap[child + 1]) < head(heap[child]) )
+                {
+                    child++;
+                }
+                if ( value <= head(heap[child]) )
+                {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+
+            heap[i] = r;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Tasks.java - helpers shared by the executor based sort engines
+ */
+class Tasks
+{
+    private Tasks()
+    {
+    }
+    
+    /**
+     * Runs one phase of tasks on the pool and waits for all of them to complete.  A {@link SortScheduler} runs the
+     * phase itself, without Futures.
+     */
+    static void invokeAll(ExecutorService pool, List<? extends Callable<Object>> workers, String phase)
+    {
+        if ( pool instanceof SortScheduler )
+        {
+            ((SortScheduler)pool).runPhase( workers, phase );
+            return;
+        }
+        
+        try
+        {
+            List<Future<Object>> results = pool.invokeAll( workers );
+            
+            for (Future<Object> result : results)
+            {
+                result.get();  // check for error; raises an exception if the worker raised an exception
+            }
+        }
+        catch ( ExecutionException ex )
+        {
+            throw propagate(ex.getCause(), phase);
+        }
+        catch ( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for the " + phase + " tasks", ex);
+        }
+    }
+    
+    /**
+     * Returns what to throw on the caller when a task of a phase failed: the task's own exception if it is unchecked,
+     * so that callers see what went wrong rather than a wrapper, otherwise the checked exception wrapped.
+     * @throws Error if the task threw one
+     */
+    static RuntimeException propagate(Throwable cause, String phase)
+    {
+        if ( cause instanceof Error )
+        {
+            throw (Error)cause;
+        }
+        if ( cause instanceof RuntimeException )
+        {
+            return (RuntimeException)cause;
+        }
+        return new RuntimeException("One of the " + phase + " tasks threw an exception: " + cause, cause);
+    }
+}
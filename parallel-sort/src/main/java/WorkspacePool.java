@@ -0,0 +1,277 @@
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * WorkspacePool.java - reusable scratch buffers for the parallel sort prototypes
+ * <p>
+ * The merge based prototypes need a workspace as large as the array being sorted.  Allocating it per request
+ * means a 40 MB allocation for a 10M int sort, which G1 treats as a humongous object: it is allocated straight
+ * into old-generation regions and only reclaimed by a concurrent cycle or a full GC.  Under a steady request
+ * rate that churn shows up as frequent full GCs.
+ * <p>
+ * This pool keeps released workspaces and hands them out again.  Requested lengths are rounded up to a size class
+ * (4 classes per power of 2, so at most 25% larger than requested) so that requests of similar size can share
+ * buffers.  The pool retains at most a fixed number of bytes; when a release would go over the cap the least
+ * recently released buffers are evicted and left to the GC.
+ * <p>
+ * Workspaces of every primitive type share the same pool and the same cap; a buffer is only reused for a request
+ * of the same element type and size class.  Direct ByteBuffers, the off-heap workspaces of buffer sorts, are pooled
+ * the same way by their capacity in bytes, and count against the same cap.
+ * <p>
+ * The pool is thread safe.  Acquire and release happen once per sort, so a single lock is cheap enough.
+ */
+public class WorkspacePool
+{
+    static final public long DEFAULT_MAX_RETAINED_BYTES = 256L * 1024 * 1024;
+
+    /** Largest array length the JVM will reliably allocate. */
+    static final private int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    static final private WorkspacePool shared = new WorkspacePool(DEFAULT_MAX_RETAINED_BYTES);
+
+    private final long maxRetainedBytes;
+
+    // Free buffers, most recently released first.
+    private final ArrayDeque<Object> free = new ArrayDeque<>();
+    private long retainedBytes;
+
+    private long acquires;
+    private long allocations;
+    private long evictions;
+
+    private volatile SortMetrics metrics;
+
+    /**
+     * @param maxRetainedBytes the most memory the pool keeps hold of between sorts; 0 disables pooling
+     */
+    public WorkspacePool(long maxRetainedBytes)
+    {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Counts the buffers this pool allocates in a {@link SortMetrics}, or stops counting them if null.  Every user
+     * of the pool is counted, not just the sorter the metrics belong to.
+     */
+    public void setMetrics(SortMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the process-wide pool used by default by Prototype3 and Prototype4.
+     */
+    static public WorkspacePool getShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Returns a workspace of at least the given length, reusing a released one of the same size class if possible.
+     * The contents are undefined.
+     */
+    public int[] acquireInts(int length)
+    {
+        return (int[])acquire(int.class, length);
+    }
+
+    public long[] acquireLongs(int length)
+    {
+        return (long[])acquire(long.class, length);
+    }
+
+    public double[] acquireDoubles(int length)
+    {
+        return (double[])acquire(double.class, length);
+    }
+
+    public float[] acquireFloats(int length)
+    {
+        return (float[])acquire(float.class, length);
+    }
+
+    public short[] acquireShorts(int length)
+    {
+        return (short[])acquire(short.class, length);
+    }
+
+    public char[] acquireChars(int length)
+    {
+        return (char[])acquire(char.class, length);
+    }
+
+    public byte[] acquireBytes(int length)
+    {
+        return (byte[])acquire(byte.class, length);
+    }
+
+    /**
+     * Returns a direct ByteBuffer of at least the given capacity, cleared, reusing a released one of the same size
+     * class if possible.  The contents and byte order are undefined.
+     */
+    public ByteBuffer acquireDirect(int capacity)
+    {
+        ByteBuffer buffer = (ByteBuffer)acquire(ByteBuffer.class, capacity);
+        buffer.clear();
+        return buffer;
+    }
+
+    private Object acquire(Class<?> type, int length)
+    {
+        int size = sizeClass(length);
+
+        synchronized (this)
+        {
+            acquires++;
+
+            for (Iterator<Object> it = free.iterator(); it.hasNext(); )
+            {
+                Object buffer = it.next();
+                if ( elementType(buffer) == type && length(buffer) == size )
+                {
+                    it.remove();
+                    retainedBytes -= bytes(buffer);
+                    return buffer;
+                }
+            }
+
+            allocations++;
+        }
+
+        Object buffer = type == ByteBuffer.class ? ByteBuffer.allocateDirect(size) : Array.newInstance(type, size);
+        SortMetrics metrics = this.metrics;
+        if ( metrics != null )
+        {
+            metrics.recordWorkspaceAllocation(bytes(buffer));
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a workspace (a primitive array or a direct ByteBuffer) to the pool.  Buffers that did not come from
+     * the pool (their length is not a size class) or that are larger than the cap are ignored.
+     */
+    public void release(Object buffer)
+    {
+        boolean array = buffer != null && buffer.getClass().isArray() && buffer.getClass().getComponentType().isPrimitive();
+        if ( !array && !(buffer instanceof ByteBuffer && ((ByteBuffer)buffer).isDirect()) )
+        {
+            return;
+        }
+
+        int length = length(buffer);
+        if ( length != sizeClass(length) || bytes(buffer) > maxRetainedBytes )
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            free.addFirst(buffer);
+            retainedBytes += bytes(buffer);
+
+            while ( retainedBytes > maxRetainedBytes )
+            {
+                retainedBytes -= bytes(free.removeLast());
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Drops every retained buffer.
+     */
+    public synchronized void clear()
+    {
+        free.clear();
+        retainedBytes = 0;
+    }
+
+    public long getMaxRetainedBytes()
+    {
+        return maxRetainedBytes;
+    }
+
+    public synchronized long getRetainedBytes()
+    {
+        return retainedBytes;
+    }
+
+    public synchronized long getAcquires()
+    {
+        return acquires;
+    }
+
+    /**
+     * The number of acquires that could not be served from the pool and allocated a new buffer.
+     */
+    public synchronized long getAllocations()
+    {
+        return allocations;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Rounds a length up to its size class: a multiple of a quarter of the largest power of 2 below it.
+     */
+    static int sizeClass(int length)
+    {
+        if ( length <= 4 )
+        {
+            return Math.max(length, 0);
+        }
+
+        long step = Integer.highestOneBit(length - 1) >> 2;
+        long size = (length + step - 1) / step * step;
+        return (int)Math.min(size, MAX_ARRAY_LENGTH);
+    }
+
+    /**
+     * The element type of a pooled buffer, with ByteBuffer standing for direct buffers.
+     */
+    static private Class<?> elementType(Object buffer)
+    {
+        return buffer instanceof ByteBuffer ? ByteBuffer.class : buffer.getClass().getComponentType();
+    }
+
+    static private int length(Object buffer)
+    {
+        return buffer instanceof ByteBuffer ? ((ByteBuffer)buffer).capacity() : Array.getLength(buffer);
+    }
+
+    static private long bytes(Object buffer)
+    {
+        if ( buffer instanceof ByteBuffer )
+        {
+            return ((ByteBuffer)buffer).capacity();
+        }
+
+        Class<?> type = buffer.getClass().getComponentType();
+        int elementSize;
+
+        if ( type == long.class || type == double.class )
+        {
+            elementSize = 8;
+        }
+        else if ( type == int.class || type == float.class )
+        {
+            elementSize = 4;
+        }
+        else if ( type == short.class || type == char.class )
+        {
+            elementSize = 2;
+        }
+        else
+        {
+            elementSize = 1;
+        }
+
+        return (long)elementSize * Array.getLength(buffer);
+    }
+}
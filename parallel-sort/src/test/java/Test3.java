@@ -2,7 +2,12 @@
  * Performance test program for Prototype3.java.
  * 
  * Runs Prototype3.psort() with different segment sizes as well as Arrays.sort() and Arrays.parallelSort()
- * with various input array sizes.  The test data is a reverse-ordered array of integers.
+ * with various input array sizes.  The test data comes from {@link InputGenerator}, reverse-ordered by default;
+ * the distribution can be given by its label on the command line.  Every repeat sorts a fresh copy of the input.
+ * 
+ * The JMH SortBenchmark and SegmentSizeBenchmark in the jmh module measure the same things with warmup and forks,
+ * and theirs are the numbers to quote.  This loop stays because results/Prototype3.csv came from it, in this
+ * layout, and it runs without building the benchmark jar.
  */
 import java.util.Arrays;
 import java.util.Map;
@@ -12,6 +17,13 @@ public class Test3
 {
     static final private int TEST_REPEAT_COUNT = 5;
     
+    private InputGenerator.Distribution distribution = InputGenerator.Distribution.REVERSED;
+    
+    public void setDistribution(InputGenerator.Distribution distribution)
+    {
+        this.distribution = distribution;
+    }
+    
     public void perfTest()
     {
         // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), >0 for our psort()
@@ -39,28 +51,15 @@ public class Test3
                 else
                     strategy = "Arrays.parallelSort";
                 
-                System.out.println("strategy=" + strategy + ", data size=" + dataSize);
+                System.out.println("distribution=" + distribution + ", strategy=" + strategy + ", data size=" + dataSize);
                                         
                 p.setSegmentSize( segmentSize );
                 
-                // Sequential, reverse-sorted values for test data.
-                int[] data = new int[dataSize];
-                int start = data.length;
-                for (int d = 0; d < data.length; d++)
-                {
-                    data[d] = start--;
-                }
+                int[] data = new InputGenerator(dataSize).ints(distribution, dataSize);
                 
                 // Clone and sort with Arrays.sort to create a known good result to verify result against.
                 int[] target = data.clone();
                 Arrays.sort( target );
-                for (int t = 0; t < target.length; t++)
-                {
-                    if (target[t] != t + 1)
-                    {
-                        throw new RuntimeException("unexpected value at index=" + t + ": " + data[t]);
-                    }
-                }
                 
                 // Repeat a given test multiple times and report the average time.
                 
@@ -68,24 +67,26 @@ public class Test3
                 
                 for ( int n = 0; n < TEST_REPEAT_COUNT; n++ )
                 {
+                    int[] work = data.clone();
+                    
                     long startTime = System.nanoTime();
                     if ( segmentSize > 0 )
                     {
-                        p.psort( data );
+                        p.psort( work );
                     }
                     else if ( segmentSize < 0 )
                     {
-                        Arrays.parallelSort( data );
+                        Arrays.parallelSort( work );
                     }
                     else
                     {
-                        Arrays.sort( data );
+                        Arrays.sort( work );
                     }
                     elapsedTime += System.nanoTime() - startTime;
                     // Check the result data against the expected result.
-                    if ( !Arrays.equals( data, target ) )
+                    if ( !Arrays.equals( work, target ) )
                     {
-                        throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", segmentSize=" + segmentSize );
+                        throw new RuntimeException( "bad data in sorted result, distribution=" + distribution + ", dataSize=" + dataSize + ", segmentSize=" + segmentSize );
                     } 
                 }
                 
@@ -104,6 +105,8 @@ public class Test3
             }
         }
         
+        p.shutdown();
+        
         // Write CSV for import into Excel, one row per data set size, one column per sort strategy
         // (Arrays.parallelSort, Arrays.sort, various segment sizes for our own psort).
         
@@ -143,6 +146,11 @@ public class Test3
     
     static public void main(String[] args)
     {
-        new Test3().perfTest();
+        Test3 test = new Test3();
+        if ( args.length > 0 )
+        {
+            test.setDistribution( InputGenerator.Distribution.forLabel( args[0] ) );
+        }
+        test.perfTest();
     }
 }
@@ -3,24 +3,51 @@ import java.util.Map;
 import java.util.TreeMap;
 
 /**
- * Performance test program for Prototype3.java.
+ * Performance test program for Prototype4.java.
  * <p>
  * Runs Prototype4.psort() with different segment sizes as well as Arrays.sort() and Arrays.parallelSort()
- * with various input array sizes.  The test data is a reverse-ordered array of integers.
+ * with various input array sizes.  The test data comes from {@link InputGenerator}, reverse-ordered unless
+ * the second argument below names another distribution.  Every repeat sorts a fresh copy of the input.
+ * <p>
+ * psort is run twice: with the default ping-pong merges, and with the old copy-back merges (psort-copyback)
+ * that copy the workspace back into the source array after each merge.  The copy-back strategy moves an extra
+ * (read + write) * 4 bytes per element on every merge level, which is printed after the timings as the memory
+ * traffic saved.
+ * <p>
+ * The optional first argument sets the Prototype4 parallelism; it defaults to the number of available processors.
+ * The optional second argument is the distribution label.
+ * <p>
+ * The JMH SortBenchmark in the jmh module measures psort with warmup and forks, and its numbers are the ones to
+ * quote.  This loop stays because results/Prototype4.csv and Prototype4-pingpong.csv came from it, in this layout,
+ * and it runs without building the benchmark jar.
  */
 public class Test4
 {
     static final private int TEST_REPEAT_COUNT = 5;
     
+    private InputGenerator.Distribution distribution = InputGenerator.Distribution.REVERSED;
+    
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+    
+    public void setDistribution(InputGenerator.Distribution distribution)
+    {
+        this.distribution = distribution;
+    }
+    
     public void perfTest()
     {
-        // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), >0 for our psort()
-        int[] strategy = { -1, 0, 1 };
+        // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), 1 for our psort(), 2 for psort() with copy-back merges
+        int[] strategy = { -1, 0, 1, 2 };
         int[] dataSizes = { 100, 1000, 10000, 100000, 1000000, 10000000 };
         
         TreeMap<Integer, TreeMap<Integer, Long>> stats = new TreeMap<>();
         
-        Prototype4 p = new Prototype4();
+        Prototype4 p = new Prototype4( parallelism );
         
         for (int i = 0; i < dataSizes.length; i++)
         {
@@ -32,33 +59,22 @@ public class Test4
                 
                 String strategyDesc;
                 
-                if (segmentSize > 0)
+                if (segmentSize > 1)
+                    strategyDesc = "psort-copyback";
+                else if (segmentSize > 0)
                     strategyDesc = "psort";
                 else if (segmentSize == 0)
                     strategyDesc = "Arrays.sort";
                 else
                     strategyDesc = "Arrays.parallelSort";
                 
-                System.out.println("strategy=" + strategyDesc + ", data size=" + dataSize);
+                System.out.println("distribution=" + distribution + ", strategy=" + strategyDesc + ", data size=" + dataSize);
                                         
-                // Sequential, reverse-sorted values for test data.
-                int[] data = new int[dataSize];
-                int start = data.length;
-                for (int d = 0; d < data.length; d++)
-                {
-                    data[d] = start--;
-                }
+                int[] data = new InputGenerator(dataSize).ints(distribution, dataSize);
                 
                 // Clone and sort with Arrays.sort to create a known good result to verify result against.
                 int[] target = data.clone();
                 Arrays.sort( target );
-                for (int t = 0; t < target.length; t++)
-                {
-                    if (target[t] != t + 1)
-                    {
-                        throw new RuntimeException("unexpected value at index=" + t + ": " + data[t]);
-                    }
-                }
                 
                 // Repeat a given test multiple times and report the average time.
                 
@@ -66,25 +82,28 @@ public class Test4
                 
                 for ( int n = 0; n < TEST_REPEAT_COUNT; n++ )
                 {
+                    int[] work = data.clone();
+                    
                     long startTime = System.nanoTime();
                     if ( segmentSize > 0 )
                     {
-                        p.psort( data );
+                        p.setCopyBack( segmentSize > 1 );
+                        p.psort( work );
                     }
                     else if ( segmentSize < 0 )
                     {
-                        Arrays.parallelSort( data );
+                        Arrays.parallelSort( work );
                     }
                     else
                     {
-                        Arrays.sort( data );
+                        Arrays.sort( work );
                     }
                     elapsedTime += System.nanoTime() - startTime;
                     
                     // Check the result data against the expected result.
-                    if ( !Arrays.equals( data, target ) )
+                    if ( !Arrays.equals( work, target ) )
                     {
-                        throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", segmentSize=" + segmentSize );
+                        throw new RuntimeException( "bad data in sorted result, distribution=" + distribution + ", dataSize=" + dataSize + ", segmentSize=" + segmentSize );
                     } 
                 }
                 
@@ -112,7 +131,10 @@ public class Test4
         {
             line += ",";
             
-            if (segmentSize > 0)
+            if (segmentSize > 1)
+                line += "psort-copyback";
+            
+            else if (segmentSize > 0)
                 line += "psort";
             
             else if (segmentSize < 0)
@@ -138,11 +160,35 @@ public class Test4
             
             System.out.println(line);
         }
+        
+        // Memory traffic avoided by the ping-pong merges, and the measured time saved.
+        
+        System.out.println();
+        System.out.println(",copy-back MB avoided,psort-copyback - psort");
+        
+        for (Map.Entry<Integer, TreeMap<Integer, Long>> byDataSize : stats.entrySet())
+        {
+            int dataSize = byDataSize.getKey();
+            long saved = byDataSize.getValue().get( 2 ) - byDataSize.getValue().get( 1 );
+            int levels = Integer.numberOfTrailingZeros( p.segmentCount( dataSize ) );
+            long bytesAvoided = dataSize < p.getSequentialCutoff() ? 0 : levels * 2L * 4L * dataSize;
+            System.out.println(dataSize + "," + String.format("%.3f", (double)bytesAvoided / (1024 * 1024))
+                    + "," + String.format("%.6f", (double)saved / 1000000000));
+        }
     }
     
     static public void main(String[] args)
     {
-        new Test4().perfTest();
+        Test4 test = new Test4();
+        if ( args.length > 0 )
+        {
+            test.setParallelism( Integer.parseInt( args[0] ) );
+        }
+        if ( args.length > 1 )
+        {
+            test.setDistribution( InputGenerator.Distribution.forLabel( args[1] ) );
+        }
+        test.perfTest();
         System.exit( 0 );
     }
 }
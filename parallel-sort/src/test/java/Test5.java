@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performance test program for Prototype5.java.
+ * <p>
+ * First checks {@link SortScheduler}: that every task of a phase has run when runPhase returns, that a task's
+ * exception comes back on the caller after the rest of the phase has run, and that it works as a plain executor.
+ * <p>
+ * Then times Arrays.sort(), Prototype4.psort() on its fixed thread pool and Prototype5.psort() on the scheduler,
+ * from 1K to 10M elements of uniform random data unless the second argument names another distribution.  The sizes
+ * of interest are 10K - 1M, where the sort is short enough for the hand-offs between phases to matter.  Each
+ * sorter is warmed up before it is timed, and every repeat sorts a fresh copy of the input.
+ * <p>
+ * The optional first argument sets the parallelism of both prototypes; it defaults to the number of available
+ * processors.
+ */
+public class Test5
+{
+    static final private int WARMUP_COUNT = 20;
+    static final private int TEST_REPEAT_COUNT = 20;
+
+    private InputGenerator.Distribution distribution = InputGenerator.Distribution.UNIFORM;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+
+    public void setDistribution(InputGenerator.Distribution distribution)
+    {
+        this.distribution = distribution;
+    }
+
+    public void schedulerTest() throws Exception
+    {
+        SortScheduler scheduler = new SortScheduler( parallelism );
+        AtomicInteger ran = new AtomicInteger();
+
+        for (int phase = 0; phase < 1000; phase++)
+        {
+            List<Callable<Object>> tasks = new ArrayList<>();
+            for (int t = 0; t < phase % 17; t++)
+            {
+                tasks.add( () -> ran.incrementAndGet() );
+            }
+            int before = ran.get();
+            scheduler.runPhase( tasks, "count" );
+            if ( ran.get() != before + tasks.size() )
+            {
+                throw new RuntimeException( "phase " + phase + " returned after " + (ran.get() - before) + " of " + tasks.size() + " tasks" );
+            }
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+        {
+            final int task = t;
+            tasks.add( () -> {
+                if ( task == 3 )
+                {
+                    throw new IllegalStateException( "task 3" );
+                }
+                return ran.incrementAndGet();
+            } );
+        }
+        int before = ran.get();
+        try
+        {
+            scheduler.runPhase( tasks, "failing" );
+            throw new RuntimeException( "the exception of task 3 was lost" );
+        }
+        catch ( RuntimeException ex )
+        {
+            if ( !(ex instanceof IllegalStateException) || ran.get() != before + 7 )
+            {
+                throw new RuntimeException( "wrong failing phase: " + ex + ", ran " + (ran.get() - before), ex );
+            }
+        }
+
+        if ( scheduler.submit( () -> 42 ).get() != 42 )
+        {
+            throw new RuntimeException( "wrong submit result" );
+        }
+
+        scheduler.shutdown();
+        if ( !scheduler.awaitTermination( 10, TimeUnit.SECONDS ) )
+        {
+            throw new RuntimeException( "scheduler did not terminate" );
+        }
+
+        System.out.println("scheduler check OK, parallelism " + scheduler.getParallelism());
+    }
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 1000, 10000, 100000, 1000000, 10000000 };
+
+        Prototype4 p4 = new Prototype4( parallelism );
+        Prototype5 p5 = new Prototype5( parallelism );
+
+        System.out.println(",Arrays.sort,Prototype4 psort,Prototype5 psort");
+
+        for (int dataSize : dataSizes)
+        {
+            int[] data = new InputGenerator(dataSize).ints(distribution, dataSize);
+
+            // Clone and sort with Arrays.sort to create a known good result to verify result against.
+            int[] target = data.clone();
+            Arrays.sort( target );
+
+            String line = Integer.toString(dataSize);
+
+            // Hackish: 0 for Arrays.sort(), 4 and 5 for the prototypes
+            for (int strategy : new int[] { 0, 4, 5 })
+            {
+                long elapsedTime = 0;
+                int repeats = dataSize < 10000000 ? TEST_REPEAT_COUNT : TEST_REPEAT_COUNT / 4;
+
+                for (int n = 0; n < WARMUP_COUNT + repeats; n++)
+                {
+                    int[] work = data.clone();
+
+                    long startTime = System.nanoTime();
+                    if ( strategy == 0 )
+                    {
+                        Arrays.sort( work );
+                    }
+                    else
+                    {
+                        (strategy == 4 ? p4 : p5).psort( work );
+                    }
+                    if ( n >= WARMUP_COUNT )
+                    {
+                        elapsedTime += System.nanoTime() - startTime;
+                    }
+
+                    if ( !Arrays.equals( work, target ) )
+                    {
+                        throw new RuntimeException( "bad data in sorted result, distribution=" + distribution + ", dataSize=" + dataSize + ", strategy=" + strategy );
+                    }
+                }
+
+                line += "," + String.format("%.6f", (double)elapsedTime / repeats / 1000000000);
+            }
+
+            System.out.println(line);
+        }
+
+        p4.shutdown();
+        p5.shutdown();
+    }
+
+    static public void main(String[] args) throws Exception
+    {
+        Test5 test = new Test5();
+        if ( args.length > 0 )
+        {
+            test.setParallelism( Integer.parseInt( args[0] ) );
+        }
+        if ( args.length > 1 )
+        {
+            test.setDistribution( InputGenerator.Distribution.forLabel( args[1] ) );
+        }
+        test.schedulerTest();
+        test.perfTest();
+    }
+}
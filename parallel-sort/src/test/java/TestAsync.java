@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test program for Prototype4.psortAsync().
+ * <p>
+ * Checks that asynchronous sorts of ints and longs below and above the sequential cutoff complete with the sorted
+ * array, on Prototype4 and Prototype5.  Then, with kernels that fail or hold their segment sorts until released,
+ * that a failing segment sort completes the future with its own exception, that cancelling skips the segment sorts
+ * that haven't started, and that a deadline completes the future with a TimeoutException.  A stopped sort must not
+ * complete its future while a segment sort is still running, must start no segment sort after it is stopped, and
+ * must leave the array holding its elements.
+ * <p>
+ * Finally times a batch of 1M element sorts: psort() one after another, and psortAsync() all started from one
+ * thread and then joined, to show that the asynchronous path costs no more.
+ */
+public class TestAsync
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    /**
+     * Kernels that count the leaf sorts, fail on request, and while release is set count down started and wait
+     * for release before sorting.
+     */
+    static private class TestKernels extends SortKernels
+    {
+        final AtomicInteger sorts = new AtomicInteger();
+        volatile boolean fail;
+        volatile CountDownLatch started;
+        volatile CountDownLatch release;
+
+        @Override
+        public void sort(int[] arr, int from, int to)
+        {
+            sorts.incrementAndGet();
+            if ( fail )
+            {
+                throw new IllegalStateException( "failing sort of [" + from + ", " + to + ")" );
+            }
+            CountDownLatch hold = release;
+            if ( hold != null )
+            {
+                started.countDown();
+                try
+                {
+                    hold.await();
+                }
+                catch ( InterruptedException ex )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.sort( arr, from, to );
+        }
+
+        void hold()
+        {
+            sorts.set( 0 );
+            started = new CountDownLatch(2);
+            release = new CountDownLatch(1);
+        }
+    }
+
+    public void checkTest() throws Exception
+    {
+        for (Prototype4 p : new Prototype4[] { new Prototype4( 2 ), new Prototype5( 2 ) })
+        {
+            for (int dataSize : new int[] { 0, 100, 100000, 1000000 })
+            {
+                int[] ints = new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize );
+                long[] longs = new InputGenerator(dataSize).longs( InputGenerator.Distribution.UNIFORM, dataSize );
+                int[] intTarget = ints.clone();
+                long[] longTarget = longs.clone();
+                Arrays.sort( intTarget );
+                Arrays.sort( longTarget );
+
+                CompletableFuture<int[]> intResult = p.psortAsync( ints );
+                CompletableFuture<long[]> longResult = p.psortAsync( longs, 1, TimeUnit.MINUTES );
+
+                if ( intResult.get() != ints || longResult.get() != longs || !Arrays.equals( ints, intTarget ) || !Arrays.equals( longs, longTarget ) )
+                {
+                    throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", sorter=" + p.getClass().getName() );
+                }
+            }
+            p.shutdown();
+        }
+
+        int dataSize = 1000000;
+        int[] data = new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize );
+        int[] target = data.clone();
+        Arrays.sort( target );
+
+        // Parallelism 2 has 4 segments, so 2 segment sorts wait in the queue while the first 2 run.
+
+        Prototype4 p = new Prototype4( 2 );
+        TestKernels kernels = new TestKernels();
+        p.setKernels( kernels );
+
+        kernels.fail = true;
+        int[] work = data.clone();
+        try
+        {
+            p.psortAsync( work ).join();
+            throw new RuntimeException( "failing sort completed" );
+        }
+        catch ( CompletionException ex )
+        {
+            if ( !(ex.getCause() instanceof IllegalStateException) )
+            {
+                throw new RuntimeException( "wrong exception from failing sort: " + ex, ex );
+            }
+        }
+        checkPermutation( work, target, "failing sort" );
+        kernels.fail = false;
+
+        // Cancel while both pool threads are held in a segment sort: the other 2 must be skipped, and the future
+        // must not complete before the 2 that are running have finished.
+
+        kernels.hold();
+        work = data.clone();
+        CompletableFuture<int[]> cancelled = p.psortAsync( work );
+        awaitStarted( kernels );
+        if ( !cancelled.cancel( true ) || cancelled.isDone() )
+        {
+            throw new RuntimeException( "cancelled sort completed while its segment sorts were running" );
+        }
+        kernels.release.countDown();
+        try
+        {
+            cancelled.join();
+            throw new RuntimeException( "cancelled sort completed" );
+        }
+        catch ( CancellationException ex )
+        {
+        }
+        if ( kernels.sorts.get() != 2 || !cancelled.isCancelled() )
+        {
+            throw new RuntimeException( "cancelled sort ran " + kernels.sorts.get() + " segment sorts, not 2" );
+        }
+        checkPermutation( work, target, "cancelled sort" );
+
+        // Let the deadline pass while the segment sorts are held.  The same timer runs the deadline and then, as it
+        // was scheduled after it for the same delay, the release, so the sort is stopped by the time its segment
+        // sorts go on.
+
+        kernels.hold();
+        work = data.clone();
+        CompletableFuture<int[]> late = p.psortAsync( work, 50, TimeUnit.MILLISECONDS );
+        int[] held = new int[1];
+        boolean[] doneEarly = new boolean[1];
+        Prototype4.Deadlines.timer.schedule( () -> {
+            held[0] = kernels.sorts.get();
+            doneEarly[0] = late.isDone();
+            kernels.release.countDown();
+        }, 50, TimeUnit.MILLISECONDS );
+        try
+        {
+            late.join();
+            throw new RuntimeException( "sort completed before its deadline" );
+        }
+        catch ( CompletionException ex )
+        {
+            if ( !(ex.getCause() instanceof TimeoutException) )
+            {
+                throw new RuntimeException( "wrong exception from late sort: " + ex, ex );
+            }
+        }
+        if ( doneEarly[0] || kernels.sorts.get() != held[0] || held[0] > 2 )
+        {
+            throw new RuntimeException( "late sort ran " + kernels.sorts.get() + " segment sorts after holding " + held[0] + ( doneEarly[0] ? ", and completed while they were held" : "" ) );
+        }
+        checkPermutation( work, target, "late sort" );
+        kernels.release = null;
+
+        p.shutdown();
+
+        System.out.println("async check OK");
+    }
+
+    static private void awaitStarted(TestKernels kernels) throws InterruptedException
+    {
+        if ( !kernels.started.await( 1, TimeUnit.MINUTES ) )
+        {
+            throw new RuntimeException( "segment sorts did not start" );
+        }
+    }
+
+    static private void checkPermutation(int[] work, int[] target, String what)
+    {
+        int[] sorted = work.clone();
+        Arrays.sort( sorted );
+        if ( !Arrays.equals( sorted, target ) )
+        {
+            throw new RuntimeException( what + " lost elements" );
+        }
+    }
+
+    public void perfTest()
+    {
+        int dataSize = 1000000;
+        int sorts = 16;
+        int[] data = new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize );
+        int[] target = data.clone();
+        Arrays.sort( target );
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",psort in turn,psortAsync all at once");
+        String line = sorts + " x " + dataSize;
+
+        // Hackish: 0 for psort() in turn, 1 for psortAsync() of all of them and then join
+        for (int strategy = 0; strategy <= 1; strategy++)
+        {
+            long elapsedTime = 0;
+
+            for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+            {
+                int[][] work = new int[sorts][];
+                for (int i = 0; i < sorts; i++)
+                {
+                    work[i] = data.clone();
+                }
+
+                long startTime = System.nanoTime();
+                if ( strategy == 0 )
+                {
+                    for (int[] arr : work)
+                    {
+                        p.psort( arr );
+                    }
+                }
+                else
+                {
+                    List<CompletableFuture<int[]>> results = new ArrayList<>();
+                    for (int[] arr : work)
+                    {
+                        results.add( p.psortAsync( arr ) );
+                    }
+                    CompletableFuture.allOf( results.toArray( new CompletableFuture<?>[0] ) ).join();
+                }
+                elapsedTime += System.nanoTime() - startTime;
+
+                for (int[] arr : work)
+                {
+                    if ( !Arrays.equals( arr, target ) )
+                    {
+                        throw new RuntimeException( "bad data in sorted result, strategy=" + strategy );
+                    }
+                }
+            }
+
+            line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+        }
+
+        System.out.println(line);
+        p.shutdown();
+    }
+
+    static public void main(String[] args) throws Exception
+    {
+        TestAsync test = new TestAsync();
+        test.checkTest();
+        test.perfTest();
+    }
+}
@@ -0,0 +1,158 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test program for Prototype4.psortAll().
+ * <p>
+ * Checks both batch forms against Arrays.sort on batches of mixed sizes: empty and one element arrays, many of
+ * 100 - 10,000 elements, and a few large enough to be sorted on their own with the whole pool.
+ * <p>
+ * Then sorts batches of arrays of 100 - 10,000 uniform random ints, each array sorted with Arrays.sort in turn, with
+ * psort() in turn and with psortAll(), and prints the throughput in elements per microsecond for parallelism 1, 2,
+ * 4 ... up to the optional argument (by default the number of available processors).  Batch throughput should grow
+ * with the number of cores; psort() in turn stays near Arrays.sort, as most of the arrays are below its sequential
+ * cutoff.
+ */
+public class TestBatch
+{
+    static final private int WARMUP_COUNT = 5;
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    private int maxParallelism = Runtime.getRuntime().availableProcessors();
+
+    public void setMaxParallelism(int maxParallelism)
+    {
+        this.maxParallelism = maxParallelism;
+    }
+
+    /**
+     * Returns count arrays with random lengths in [minLength, maxLength) from a seeded generator, and then the
+     * given extra lengths.
+     */
+    static private int[][] batch(long seed, int count, int minLength, int maxLength, int... extra)
+    {
+        Random random = new Random(seed);
+        InputGenerator generator = new InputGenerator(seed);
+        int[][] arrays = new int[count + extra.length][];
+        for (int i = 0; i < arrays.length; i++)
+        {
+            int length = i < count ? minLength + random.nextInt(maxLength - minLength) : extra[i - count];
+            arrays[i] = generator.ints( InputGenerator.Distribution.UNIFORM, length );
+        }
+        return arrays;
+    }
+
+    public void checkTest()
+    {
+        for (int parallelism : new int[] { 1, 3, 4 })
+        {
+            Prototype4 p = new Prototype4( parallelism );
+
+            int[][] arrays = batch( parallelism, 200, 0, 10000, 0, 1, 2, 300000, 500000, 1000000 );
+            int[][] target = new int[arrays.length][];
+            for (int i = 0; i < arrays.length; i++)
+            {
+                target[i] = arrays[i].clone();
+                Arrays.sort( target[i] );
+            }
+
+            // The same batch as ranges of one array.
+
+            int[] offsets = new int[arrays.length + 1];
+            for (int i = 0; i < arrays.length; i++)
+            {
+                offsets[i + 1] = offsets[i] + arrays[i].length;
+            }
+            int[] data = new int[offsets[arrays.length]];
+            for (int i = 0; i < arrays.length; i++)
+            {
+                System.arraycopy( arrays[i], 0, data, offsets[i], arrays[i].length );
+            }
+
+            p.psortAll( arrays );
+            p.psortAll( data, offsets );
+
+            for (int i = 0; i < arrays.length; i++)
+            {
+                if ( !Arrays.equals( arrays[i], target[i] ) || !Arrays.equals( Arrays.copyOfRange( data, offsets[i], offsets[i + 1] ), target[i] ) )
+                {
+                    throw new RuntimeException( "bad data in sorted batch, parallelism=" + parallelism + ", array=" + i + ", length=" + target[i].length );
+                }
+            }
+
+            p.psortAll( new int[0][] );
+            p.psortAll( new int[0], new int[0] );
+            p.psortAll( new int[0], new int[] { 0 } );
+
+            p.shutdown();
+        }
+
+        System.out.println("batch check OK");
+    }
+
+    public void perfTest()
+    {
+        int[][] input = batch( 1, 2000, 100, 10000 );
+        long elements = 0;
+        for (int[] array : input)
+        {
+            elements += array.length;
+        }
+
+        System.out.println("parallelism,Arrays.sort elements/us,psort elements/us,psortAll elements/us");
+
+        for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2)
+        {
+            Prototype4 p = new Prototype4( parallelism );
+            String line = Integer.toString(parallelism);
+
+            // Hackish: 0 for Arrays.sort() in turn, 1 for psort() in turn, 2 for psortAll()
+            for (int strategy = 0; strategy <= 2; strategy++)
+            {
+                long elapsedTime = 0;
+
+                for (int n = 0; n < WARMUP_COUNT + TEST_REPEAT_COUNT; n++)
+                {
+                    int[][] work = new int[input.length][];
+                    for (int i = 0; i < input.length; i++)
+                    {
+                        work[i] = input[i].clone();
+                    }
+
+                    long startTime = System.nanoTime();
+                    if ( strategy == 2 )
+                    {
+                        p.psortAll( work );
+                    }
+                    else
+                    {
+                        for (int[] array : work)
+                        {
+                            if ( strategy == 0 ) Arrays.sort( array ); else p.psort( array );
+                        }
+                    }
+                    if ( n >= WARMUP_COUNT )
+                    {
+                        elapsedTime += System.nanoTime() - startTime;
+                    }
+                }
+
+                line += "," + String.format("%.1f", (double)elements * TEST_REPEAT_COUNT * 1000 / elapsedTime);
+            }
+
+            System.out.println(line);
+            p.shutdown();
+        }
+    }
+
+    static public void main(String[] args)
+    {
+        TestBatch test = new TestBatch();
+        if ( args.length > 0 )
+        {
+            test.setMaxParallelism( Integer.parseInt( args[0] ) );
+        }
+        test.checkTest();
+        test.perfTest();
+    }
+}
@@ -0,0 +1,139 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Performance test program for Prototype4.psort(IntBuffer).
+ * <p>
+ * First checks that psort(IntBuffer) and psort(LongBuffer) take their direct workspace from the sorter's workspace
+ * pool and give it back, so a second sort of the same size allocates no new one.
+ * <p>
+ * Then sorts the ints in a direct buffer two ways: by copying them into an int[], sorting that with psort() and copying
+ * them back, which is what callers had to do before, and with psort(IntBuffer) on the buffer itself, with and
+ * without a caller supplied direct workspace, on every {@link InputGenerator} distribution.  Every result is checked
+ * against Arrays.sort.
+ */
+public class TestBuffers
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    public void checkTest()
+    {
+        int dataSize = 1000000;
+        WorkspacePool workspacePool = new WorkspacePool( WorkspacePool.DEFAULT_MAX_RETAINED_BYTES );
+        Prototype4 p = new Prototype4();
+        p.setWorkspacePool( workspacePool );
+
+        int[] ints = new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize );
+        long[] longs = new InputGenerator(dataSize).longs( InputGenerator.Distribution.UNIFORM, dataSize );
+        IntBuffer intWork = ByteBuffer.allocateDirect(dataSize * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        LongBuffer longWork = ByteBuffer.allocateDirect(dataSize * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        intWork.put( ints ).clear();
+        longWork.put( longs ).clear();
+
+        p.psort( intWork );
+        p.psort( longWork );
+        p.shutdown();
+
+        Arrays.sort( ints );
+        Arrays.sort( longs );
+        for (int d = 0; d < dataSize; d++)
+        {
+            if ( intWork.get( d ) != ints[d] || longWork.get( d ) != longs[d] )
+            {
+                throw new RuntimeException( "bad data in sorted buffer at index=" + d );
+            }
+        }
+
+        long allocations = workspacePool.getAllocations();
+        workspacePool.release( workspacePool.acquireDirect( dataSize * Integer.BYTES ) );
+        workspacePool.release( workspacePool.acquireDirect( dataSize * Long.BYTES ) );
+        if ( workspacePool.getAllocations() != allocations )
+        {
+            throw new RuntimeException( "the direct workspaces of the buffer sorts were not returned to the pool" );
+        }
+
+        System.out.println("buffer check OK");
+    }
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 1000, 10000, 100000, 1000000, 10000000 };
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",input,copy+psort(int[]),psort(IntBuffer),psort(IntBuffer IntBuffer)");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+            {
+                int[] data = new InputGenerator(dataSize).ints( input, dataSize );
+
+                int[] target = data.clone();
+                Arrays.sort( target );
+
+                IntBuffer work = ByteBuffer.allocateDirect(dataSize * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+                IntBuffer workspace = ByteBuffer.allocateDirect(dataSize * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+                String line = dataSize + "," + input;
+
+                // Hackish: 0 to copy to the heap, 1 for psort(IntBuffer), 2 with a workspace
+                for (int strategy = 0; strategy <= 2; strategy++)
+                {
+                    long elapsedTime = 0;
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        work.clear();
+                        work.put( data );
+                        work.clear();
+
+                        long startTime = System.nanoTime();
+                        if ( strategy == 0 )
+                        {
+                            int[] heap = new int[dataSize];
+                            work.get( heap );
+                            p.psort( heap );
+                            work.clear();
+                            work.put( heap );
+                            work.clear();
+                        }
+                        else if ( strategy == 1 )
+                        {
+                            p.psort( work );
+                        }
+                        else
+                        {
+                            p.psort( work, workspace );
+                        }
+                        elapsedTime += System.nanoTime() - startTime;
+
+                        for (int d = 0; d < dataSize; d++)
+                        {
+                            if ( work.get( d ) != target[d] )
+                            {
+                                throw new RuntimeException( "bad data in sorted result at index=" + d + ", dataSize=" + dataSize + ", input=" + input + ", strategy=" + strategy );
+                            }
+                        }
+                    }
+
+                    line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                System.out.println(line);
+            }
+        }
+
+        p.shutdown();
+    }
+
+    static public void main(String[] args)
+    {
+        TestBuffers test = new TestBuffers();
+        test.checkTest();
+        test.perfTest();
+    }
+}
@@ -0,0 +1,88 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Test program for {@link Calibration}.
+ * <p>
+ * Calibrates this machine and prints the profile and how long that took, checks that the profile survives a save
+ * and load, then times Prototype4.psort() with the default and the calibrated profile on uniform random data of
+ * various sizes, checking every result against Arrays.sort.
+ */
+public class TestCalibration
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    public void perfTest() throws Exception
+    {
+        long startTime = System.nanoTime();
+        Calibration calibrated = Calibration.calibrate();
+        double calibrationTime = (double)(System.nanoTime() - startTime) / 1000000000;
+
+        System.out.println("default: " + Calibration.defaults());
+        System.out.println("calibrated: " + calibrated + String.format(" in %.3fs", calibrationTime));
+
+        Path profile = Files.createTempFile("psort", ".properties");
+        try
+        {
+            calibrated.save(profile);
+            Calibration loaded = Calibration.load(profile);
+            if ( loaded == null || !loaded.toString().equals( calibrated.toString() ) )
+            {
+                throw new RuntimeException( "calibration profile didn't round trip: " + loaded );
+            }
+        }
+        finally
+        {
+            Files.delete(profile);
+        }
+
+        int[] dataSizes = { 1000, 10000, 100000, 1000000, 10000000 };
+
+        Prototype4 untuned = new Prototype4(Calibration.defaults());
+        Prototype4 tuned = new Prototype4(calibrated);
+
+        System.out.println(",Arrays.sort,psort default,psort calibrated");
+
+        for (int dataSize : dataSizes)
+        {
+            int[] data = new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize );
+            int[] target = data.clone();
+            Arrays.sort( target );
+
+            String line = Integer.toString(dataSize);
+
+            // Hackish: 0 for Arrays.sort(), 1 for the default profile, 2 for the calibrated one
+            for (int strategy = 0; strategy <= 2; strategy++)
+            {
+                long elapsedTime = 0;
+
+                for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                {
+                    int[] work = data.clone();
+
+                    startTime = System.nanoTime();
+                    if ( strategy == 0 ) Arrays.sort( work ); else if ( strategy == 1 ) untuned.psort( work ); else tuned.psort( work );
+                    elapsedTime += System.nanoTime() - startTime;
+
+                    if ( !Arrays.equals( work, target ) )
+                    {
+                        throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", strategy=" + strategy );
+                    }
+                }
+
+                line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+            }
+
+            System.out.println(line);
+        }
+
+        untuned.shutdown();
+        tuned.shutdown();
+    }
+
+    static public void main(String[] args) throws Exception
+    {
+        new TestCalibration().perfTest();
+    }
+}
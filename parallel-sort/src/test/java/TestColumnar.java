@@ -0,0 +1,188 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Performance test program for ColumnarSort.java.
+ * <p>
+ * First checks payload columns: a lone String[] payload is reordered as one column, and a payload that is not an
+ * array is rejected.
+ * <p>
+ * Then sorts a table of three key columns (a low cardinality int, a descending double and a full range long) and a
+ * payload column, with ColumnarSort and by sorting boxed row indexes with a comparator over the columns and
+ * Arrays.parallelSort().  Also times a table whose keys are all low cardinality, which ColumnarSort sorts in a
+ * single pass.  Each key column is drawn from its own {@link InputGenerator} of the same distribution, scaled down
+ * to the column's range keeping its order, for every distribution.  Every result is checked against the comparator
+ * order, which is stable.
+ */
+public class TestColumnar
+{
+    static final private int TEST_REPEAT_COUNT = 3;
+
+    public void checkTest()
+    {
+        ColumnarSort columnar = new ColumnarSort( 2 );
+
+        int[] key = { 3, 1, 2, 1 };
+        String[] names = { "d", "a", "c", "b" };
+        columnar.sort( Collections.singletonList( ColumnarSort.ascending( key ) ), Collections.singletonList( names ) );
+        if ( !Arrays.equals( key, new int[] { 1, 1, 2, 3 } ) || !Arrays.equals( names, new String[] { "a", "b", "c", "d" } ) )
+        {
+            throw new RuntimeException( "bad String[] payload: " + Arrays.toString( names ) );
+        }
+
+        try
+        {
+            columnar.sort( Collections.singletonList( ColumnarSort.ascending( key ) ), Collections.singletonList( "names" ) );
+            throw new RuntimeException( "payload that is not an array was accepted" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+        }
+
+        columnar.shutdown();
+
+        System.out.println("columnar check OK");
+    }
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 10000, 100000, 1000000 };
+        String[] tables = { "mixed", "low-cardinality" };
+
+        ColumnarSort columnar = new ColumnarSort();
+
+        System.out.println(",input,table,boxed comparator parallelSort,ColumnarSort");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution distribution : InputGenerator.Distribution.values())
+            {
+                for (String table : tables)
+                {
+                    boolean low = table.equals( "low-cardinality" );
+                    String input = distribution + " " + table;
+
+                    long[] regions = scale( new InputGenerator(dataSize).longs( distribution, dataSize ), 4 );
+                    long[] prices = scale( new InputGenerator(dataSize + 1).longs( distribution, dataSize ), low ? 7 : 64 );
+                    long[] id = scale( new InputGenerator(dataSize + 2).longs( distribution, dataSize ), low ? 10 : 64 );
+
+                    int[] region = new int[dataSize];
+                    double[] price = new double[dataSize];
+                    int[] row = new int[dataSize];
+                    for (int d = 0; d < dataSize; d++)
+                    {
+                        region[d] = (int)regions[d];
+                        price[d] = prices[d];
+                        row[d] = d;
+                    }
+
+                    Comparator<Integer> byColumns = (a, b) ->
+                    {
+                        int c = Integer.compare( region[a], region[b] );
+                        if ( c == 0 ) c = Double.compare( price[b], price[a] );
+                        if ( c == 0 ) c = Long.compare( id[a], id[b] );
+                        return c;
+                    };
+                    Integer[] target = new Integer[dataSize];
+                    for (int d = 0; d < dataSize; d++)
+                    {
+                        target[d] = d;
+                    }
+                    Arrays.sort( target, byColumns );
+
+                    String line = dataSize + "," + distribution + "," + table;
+
+                    // Hackish: 0 for boxed row indexes, 1 for ColumnarSort
+                    for (int strategy = 0; strategy <= 1; strategy++)
+                    {
+                        long elapsedTime = 0;
+
+                        for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                        {
+                            int[] r = region.clone();
+                            double[] p = price.clone();
+                            long[] i = id.clone();
+                            int[] rows = row.clone();
+
+                            long startTime = System.nanoTime();
+                            if ( strategy == 0 )
+                            {
+                                Integer[] order = new Integer[dataSize];
+                                for (int d = 0; d < dataSize; d++)
+                                {
+                                    order[d] = d;
+                                }
+                                Arrays.parallelSort( order, byColumns );
+                                for (int d = 0; d < dataSize; d++)
+                                {
+                                    r[d] = region[order[d]];
+                                    p[d] = price[order[d]];
+                                    i[d] = id[order[d]];
+                                    rows[d] = order[d];
+                                }
+                            }
+                            else
+                            {
+                                List<ColumnarSort.Key> keys = Arrays.asList( ColumnarSort.ascending( r ), ColumnarSort.descending( p ), ColumnarSort.ascending( i ) );
+                                columnar.sort( keys, Collections.singletonList( rows ) );
+                            }
+                            elapsedTime += System.nanoTime() - startTime;
+
+                            for (int d = 0; d < dataSize; d++)
+                            {
+                                int t = target[d];
+                                if ( rows[d] != t || r[d] != region[t] || Double.compare( p[d], price[t] ) != 0 || i[d] != id[t] )
+                                {
+                                    throw new RuntimeException( "bad data in sorted result at index=" + d + ", dataSize=" + dataSize + ", input=" + input + ", strategy=" + strategy );
+                                }
+                            }
+                        }
+
+                        line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                    }
+
+                    System.out.println(line);
+                }
+            }
+        }
+
+        columnar.shutdown();
+    }
+
+    /**
+     * Maps values into [0, 2^bits) keeping their order, by dropping low bits of their unsigned offset from the
+     * smallest; 64 bits leaves them as they are.
+     */
+    static private long[] scale(long[] values, int bits)
+    {
+        if ( bits == 64 )
+        {
+            return values;
+        }
+
+        long lo = Long.MAX_VALUE;
+        long hi = Long.MIN_VALUE;
+        for (long value : values)
+        {
+            lo = Math.min(lo, value);
+            hi = Math.max(hi, value);
+        }
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(hi - lo) - bits);
+
+        long[] scaled = new long[values.length];
+        for (int d = 0; d < values.length; d++)
+        {
+            scaled[d] = (values[d] - lo) >>> shift;
+        }
+        return scaled;
+    }
+
+    static public void main(String[] args)
+    {
+        TestColumnar test = new TestColumnar();
+        test.checkTest();
+        test.perfTest();
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Performance test program for ExternalSort.java.
+ * <p>
+ * First checks that a sort that fails leaves no run files behind: once while the runs are generated, with a sorter
+ * that has been shut down, and once in the last merge pass, after intermediate ones, with a directory as the output.
+ * <p>
+ * Then writes files of random ints and longs, sorts them with a memory budget much smaller than the file so that there
+ * are many runs (and with the smallest budget, more than one merge pass), checks that the output is sorted and has
+ * the same count and sum as the input, and prints the throughput of each phase in MB/s.
+ * <p>
+ * The optional argument is the file size in MB (default 256).
+ */
+public class TestExternalSort
+{
+    public void checkTest() throws IOException
+    {
+        Path directory = Files.createTempDirectory("external");
+        Path temp = Files.createDirectory( directory.resolve( "temp" ) );
+        Path input = directory.resolve( "input.bin" );
+        Path output = Files.createDirectory( directory.resolve( "output" ) );
+        Prototype4 p = new Prototype4();
+
+        try
+        {
+            // 8 runs of 4MB, which an 8MB budget merges 2 at a time: two intermediate passes and then the last.
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(input), 1 << 16)))
+            {
+                Random random = new Random(1);
+                for (int n = 0; n < (32 << 20) / Integer.BYTES; n++)
+                {
+                    out.writeInt( random.nextInt() );
+                }
+            }
+
+            ExternalSort sorter = new ExternalSort( p, 8L << 20 );
+            sorter.setTempDirectory( temp );
+
+            boolean completed = false;
+            try
+            {
+                sorter.sortInts( input, output );
+                completed = true;
+            }
+            catch ( IOException ex )
+            {
+            }
+            if ( completed || sorter.getMergePasses() != 2 )
+            {
+                throw new RuntimeException( "sort into a directory " + (completed ? "completed" : "failed after " + sorter.getMergePasses() + " merge passes, not 2") );
+            }
+            checkEmpty( temp, "failed merge pass" );
+
+            p.shutdown();
+            try
+            {
+                sorter.sortInts( input, directory.resolve( "sorted.bin" ) );
+                completed = true;
+            }
+            catch ( RuntimeException ex )
+            {
+            }
+            if ( completed )
+            {
+                throw new RuntimeException( "sort with a shut down sorter completed" );
+            }
+            checkEmpty( temp, "failed run generation" );
+        }
+        finally
+        {
+            p.shutdown();
+            try (Stream<Path> files = Files.list( temp ))
+            {
+                for (Path file : (Iterable<Path>)files::iterator)
+                {
+                    Files.delete( file );
+                }
+            }
+            Files.delete( temp );
+            Files.delete( output );
+            Files.deleteIfExists( input );
+            Files.deleteIfExists( directory.resolve( "sorted.bin" ) );
+            Files.delete( directory );
+        }
+
+        System.out.println("cleanup check OK");
+    }
+
+    static private void checkEmpty(Path temp, String what) throws IOException
+    {
+        try (Stream<Path> files = Files.list( temp ))
+        {
+            if ( files.count() != 0 )
+            {
+                throw new RuntimeException( what + " left run files in " + temp );
+            }
+        }
+    }
+
+    public void perfTest(long fileBytes) throws IOException
+    {
+        long[] budgets = { 16L << 20, 64L << 20, 256L << 20 };
+        int[] widths = { Integer.BYTES, Long.BYTES };
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println("type,file MB,budget MB,runs,merge passes,run MB/s,merge MB/s,seconds");
+
+        for (int width : widths)
+        {
+            Path input = Files.createTempFile("input", ".bin");
+            Path output = Files.createTempFile("output", ".bin");
+
+            try
+            {
+                long count = fileBytes / width;
+                long sum = 0;
+                Random random = new Random(count);
+
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(input), 1 << 16)))
+                {
+                    for (long n = 0; n < count; n++)
+                    {
+                        long value = width == Integer.BYTES ? random.nextInt() : random.nextLong();
+                        sum += value;
+                        if ( width == Integer.BYTES ) out.writeInt( (int)value ); else out.writeLong( value );
+                    }
+                }
+
+                for (long budget : budgets)
+                {
+                    ExternalSort sorter = new ExternalSort( p, budget );
+
+                    long startTime = System.nanoTime();
+                    if ( width == Integer.BYTES ) sorter.sortInts( input, output ); else sorter.sortLongs( input, output );
+                    long elapsedTime = System.nanoTime() - startTime;
+
+                    check( output, width, count, sum );
+
+                    System.out.println((width == Integer.BYTES ? "int" : "long") + "," + (fileBytes >> 20) + "," + (budget >> 20)
+                            + "," + sorter.getRunCount() + "," + sorter.getMergePasses()
+                            + "," + String.format("%.1f", sorter.getRunMegabytesPerSecond())
+                            + "," + String.format("%.1f", sorter.getMergeMegabytesPerSecond())
+                            + "," + String.format("%.3f", elapsedTime / 1e9));
+                }
+            }
+            finally
+            {
+                Files.deleteIfExists( input );
+                Files.deleteIfExists( output );
+            }
+        }
+
+        p.shutdown();
+    }
+
+    private void check(Path output, int width, long count, long sum) throws IOException
+    {
+        long n = 0;
+        long total = 0;
+        long previous = Long.MIN_VALUE;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(output), 1 << 16)))
+        {
+            while ( true )
+            {
+                long value;
+                try
+                {
+                    value = width == Integer.BYTES ? in.readInt() : in.readLong();
+                }
+                catch ( EOFException ex )
+                {
+                    break;
+                }
+
+                if ( value < previous )
+                {
+                    throw new RuntimeException( "bad data in sorted result at index=" + n + ", width=" + width );
+                }
+                previous = value;
+                total += value;
+                n++;
+            }
+        }
+
+        if ( n != count || total != sum )
+        {
+            throw new RuntimeException( "bad data in sorted result: count=" + n + " expected " + count + ", width=" + width );
+        }
+    }
+
+    static public void main(String[] args) throws IOException
+    {
+        long megabytes = args.length > 0 ? Long.parseLong( args[0] ) : 256;
+        TestExternalSort test = new TestExternalSort();
+        test.checkTest();
+        test.perfTest( megabytes << 20 );
+    }
+}
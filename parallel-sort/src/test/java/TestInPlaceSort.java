@@ -0,0 +1,67 @@
+import java.util.Arrays;
+
+/**
+ * Performance test program for Prototype4.psortInPlace().
+ * <p>
+ * Runs Arrays.sort(), Arrays.parallelSort(), psort() and psortInPlace() with various input array sizes, on every
+ * {@link InputGenerator} distribution (including the quicksort killer), and checks every result against Arrays.sort.
+ * The last column is the workspace each psort() call needs and psortInPlace() doesn't, in MB.
+ */
+public class TestInPlaceSort
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 1000, 10000, 100000, 1000000, 10000000 };
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",input,Arrays.parallelSort,Arrays.sort,psort,psortInPlace,workspace MB");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+            {
+                int[] data = new InputGenerator(dataSize).ints( input, dataSize );
+
+                int[] target = data.clone();
+                Arrays.sort( target );
+
+                String line = dataSize + "," + input;
+
+                // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), 1 for psort(), 2 for psortInPlace()
+                for (int strategy = -1; strategy <= 2; strategy++)
+                {
+                    long elapsedTime = 0;
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        int[] work = data.clone();
+
+                        long startTime = System.nanoTime();
+                        if ( strategy < 0 ) Arrays.parallelSort( work ); else if ( strategy == 0 ) Arrays.sort( work ); else if ( strategy == 1 ) p.psort( work ); else p.psortInPlace( work );
+                        elapsedTime += System.nanoTime() - startTime;
+
+                        if ( !Arrays.equals( work, target ) )
+                        {
+                            throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", input=" + input + ", strategy=" + strategy );
+                        }
+                    }
+
+                    line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                line += "," + String.format("%.1f", dataSize * 4.0 / (1 << 20));
+                System.out.println(line);
+            }
+        }
+
+        p.shutdown();
+    }
+
+    static public void main(String[] args)
+    {
+        new TestInPlaceSort().perfTest();
+    }
+}
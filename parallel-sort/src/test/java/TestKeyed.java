@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * Performance test program for Prototype4.psortKeyed() and argsort().
+ * <p>
+ * Sorts int keys with an int payload of row ids in three ways: packing key and row id into a long by hand and
+ * sorting that with Arrays.parallelSort(), psortKeyed(keys, payload), and argsort(keys).  Keys come from every
+ * {@link InputGenerator} distribution, of which zipf and few-unique have many duplicates, and every result is
+ * checked for stability: equal keys must keep their row ids in ascending order.
+ */
+public class TestKeyed
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 1000, 10000, 100000, 1000000, 10000000 };
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",input,packed long parallelSort,psortKeyed,argsort");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+            {
+                int[] keys = new InputGenerator(dataSize).ints( input, dataSize );
+
+                String line = dataSize + "," + input;
+
+                // Hackish: 0 for packed longs, 1 for psortKeyed(), 2 for argsort()
+                for (int strategy = 0; strategy <= 2; strategy++)
+                {
+                    long elapsedTime = 0;
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        int[] sortedKeys = keys.clone();
+                        int[] rows = new int[dataSize];
+
+                        long startTime = System.nanoTime();
+                        if ( strategy == 0 )
+                        {
+                            long[] packed = new long[dataSize];
+                            for (int d = 0; d < dataSize; d++)
+                            {
+                                packed[d] = ((long)sortedKeys[d] << 32) | d;
+                            }
+                            Arrays.parallelSort( packed );
+                            for (int d = 0; d < dataSize; d++)
+                            {
+                                sortedKeys[d] = (int)(packed[d] >> 32);
+                                rows[d] = (int)packed[d];
+                            }
+                        }
+                        else if ( strategy == 1 )
+                        {
+                            for (int d = 0; d < dataSize; d++)
+                            {
+                                rows[d] = d;
+                            }
+                            p.psortKeyed( sortedKeys, rows );
+                        }
+                        else
+                        {
+                            rows = p.argsort( keys );
+                            for (int d = 0; d < dataSize; d++)
+                            {
+                                sortedKeys[d] = keys[rows[d]];
+                            }
+                        }
+                        elapsedTime += System.nanoTime() - startTime;
+
+                        checkStable( keys, sortedKeys, rows, input, strategy );
+                    }
+
+                    line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                System.out.println(line);
+            }
+        }
+
+        p.shutdown();
+    }
+
+    private void checkStable(int[] keys, int[] sortedKeys, int[] rows, InputGenerator.Distribution input, int strategy)
+    {
+        for (int d = 0; d < rows.length; d++)
+        {
+            boolean ordered = d == 0 || sortedKeys[d - 1] < sortedKeys[d] || (sortedKeys[d - 1] == sortedKeys[d] && rows[d - 1] < rows[d]);
+            if ( !ordered || keys[rows[d]] != sortedKeys[d] )
+            {
+                throw new RuntimeException( "bad data in sorted result at index=" + d + ", dataSize=" + rows.length + ", input=" + input + ", strategy=" + strategy );
+            }
+        }
+    }
+
+    static public void main(String[] args)
+    {
+        new TestKeyed().perfTest();
+    }
+}
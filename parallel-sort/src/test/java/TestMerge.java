@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+/**
+ * Test program for the merge kernels of {@link ParallelMerge}.
+ * <p>
+ * Checks every primitive kernel against Arrays.sort on runs with extreme values, equal keys, -0.0, 0.0 and NaN,
+ * and empty runs, and the int and long kernels on runs long enough to take several blocks.  Then merges the two
+ * sorted halves of each {@link InputGenerator} distribution with the old branching loop and the int kernel, and
+ * prints elements merged per nanosecond.  The kernel should be well ahead on uniform input, where it stays
+ * branch-free, and no slower on the patterned inputs, where it falls back to a branch.
+ */
+public class TestMerge
+{
+    static final private int WARMUP_COUNT = 10;
+    static final private int TEST_REPEAT_COUNT = 20;
+
+    public void checkTest()
+    {
+        int[] ints = { Integer.MIN_VALUE, -1, 0, 0, 1, Integer.MAX_VALUE, 7, Integer.MIN_VALUE, 7, -7, Integer.MAX_VALUE, 3, 3 };
+        long[] longs = { Long.MIN_VALUE, -1, 0, 0, 1, Long.MAX_VALUE, 7, Long.MIN_VALUE, 7, -7, Long.MAX_VALUE, 3, 3 };
+        double[] doubles = { Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, -1.5, 1.5, Double.POSITIVE_INFINITY, 0.0, -0.0, Double.longBitsToDouble(0x7ff0000000000123L), -Double.MIN_VALUE, Double.MAX_VALUE, 1.5 };
+        float[] floats = { Float.NaN, -0.0f, 0.0f, Float.NEGATIVE_INFINITY, -1.5f, 1.5f, Float.POSITIVE_INFINITY, 0.0f, -0.0f, Float.intBitsToFloat(0x7f800123), -Float.MIN_VALUE, Float.MAX_VALUE, 1.5f };
+        short[] shorts = { Short.MIN_VALUE, -1, 0, 0, 1, Short.MAX_VALUE, 7, Short.MIN_VALUE, 7, -7, Short.MAX_VALUE, 3, 3 };
+        char[] chars = { Character.MIN_VALUE, 1, 0, 0, 1, Character.MAX_VALUE, 7, Character.MIN_VALUE, 7, 0x8000, Character.MAX_VALUE, 3, 3 };
+        byte[] bytes = { Byte.MIN_VALUE, -1, 0, 0, 1, Byte.MAX_VALUE, 7, Byte.MIN_VALUE, 7, -7, Byte.MAX_VALUE, 3, 3 };
+
+        for (Object arr : new Object[] { ints, longs, doubles, floats, shorts, chars, bytes })
+        {
+            int length = java.lang.reflect.Array.getLength(arr);
+
+            for (int split = 0; split <= length; split++)
+            {
+                Object src = copyOf(arr, length);
+                sort(src, 0, split);
+                sort(src, split, length);
+                Object dst = copyOf(arr, length);
+                ParallelMerge.merge(src, dst, 0, split, split, length - split, 0);
+
+                Object target = copyOf(arr, length);
+                sort(target, 0, length);
+
+                if ( !Arrays.deepEquals( new Object[] { dst }, new Object[] { target } ) )
+                {
+                    throw new RuntimeException( "bad merge of " + arr.getClass().getSimpleName() + ", split=" + split + ": " + Arrays.deepToString( new Object[] { dst } ) );
+                }
+            }
+        }
+
+        for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+        {
+            int length = 50000;
+            long[] src = new InputGenerator(length).longs( input, length );
+            int[] intSrc = new InputGenerator(length).ints( input, length );
+            int split = length / 3;
+            Arrays.sort( src, 0, split );
+            Arrays.sort( src, split, length );
+            Arrays.sort( intSrc, 0, split );
+            Arrays.sort( intSrc, split, length );
+            long[] dst = new long[length];
+            int[] intDst = new int[length];
+            ParallelMerge.merge(src, dst, 0, split, split, length - split, 0);
+            ParallelMerge.merge(intSrc, intDst, 0, split, split, length - split, 0);
+
+            long[] target = src.clone();
+            Arrays.sort( target );
+            int[] intTarget = intSrc.clone();
+            Arrays.sort( intTarget );
+
+            if ( !Arrays.equals( dst, target ) || !Arrays.equals( intDst, intTarget ) )
+            {
+                throw new RuntimeException( "bad merge of " + length + " " + input + " elements" );
+            }
+        }
+
+        System.out.println("merge kernels check OK");
+    }
+
+    static private Object copyOf(Object arr, int length)
+    {
+        Object copy = java.lang.reflect.Array.newInstance(arr.getClass().getComponentType(), length);
+        System.arraycopy( arr, 0, copy, 0, length );
+        return copy;
+    }
+
+    static private void sort(Object arr, int from, int to)
+    {
+        if ( arr instanceof int[] ) Arrays.sort((int[])arr, from, to);
+        else if ( arr instanceof long[] ) Arrays.sort((long[])arr, from, to);
+        else if ( arr instanceof double[] ) Arrays.sort((double[])arr, from, to);
+        else if ( arr instanceof float[] ) Arrays.sort((float[])arr, from, to);
+        else if ( arr instanceof short[] ) Arrays.sort((short[])arr, from, to);
+        else if ( arr instanceof char[] ) Arrays.sort((char[])arr, from, to);
+        else Arrays.sort((byte[])arr, from, to);
+    }
+
+    public void perfTest()
+    {
+        int dataSize = 1000000;
+
+        System.out.println("input,branching elements/ns,kernel elements/ns");
+
+        for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+        {
+            int[] src = new InputGenerator(dataSize).ints( input, dataSize );
+            int half = dataSize / 2;
+            Arrays.sort( src, 0, half );
+            Arrays.sort( src, half, dataSize );
+            int[] target = src.clone();
+            Arrays.sort( target );
+
+            String line = input.toString();
+
+            // Hackish: 0 for the old loop, 1 for the kernel
+            for (int kernel = 0; kernel <= 1; kernel++)
+            {
+                int[] dst = new int[dataSize];
+                long elapsedTime = 0;
+
+                for (int n = 0; n < WARMUP_COUNT + TEST_REPEAT_COUNT; n++)
+                {
+                    long startTime = System.nanoTime();
+                    if ( kernel == 0 ) ParallelMerge.mergeBranching( src, dst, 0, half, half, dataSize - half, 0 ); else ParallelMerge.merge( src, dst, 0, half, half, dataSize - half, 0 );
+                    if ( n >= WARMUP_COUNT )
+                    {
+                        elapsedTime += System.nanoTime() - startTime;
+                    }
+                }
+
+                if ( !Arrays.equals( dst, target ) )
+                {
+                    throw new RuntimeException( "bad data in merged result, input=" + input + ", kernel=" + kernel );
+                }
+
+                line += "," + String.format("%.3f", (double)dataSize * TEST_REPEAT_COUNT / elapsedTime);
+            }
+
+            System.out.println(line);
+        }
+    }
+
+    static public void main(String[] args)
+    {
+        TestMerge test = new TestMerge();
+        test.checkTest();
+        test.perfTest();
+    }
+}
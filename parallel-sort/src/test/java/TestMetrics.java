@@ -0,0 +1,125 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+/**
+ * Test program for {@link SortMetrics}.
+ * <p>
+ * Times psort() with and without metrics on uniform random data of various sizes, to show that the instrumentation
+ * costs nothing measurable, and prints the counters of the instrumented sorts.  Then checks that the counters can be
+ * read through JMX.  The JFR events are checked by TestJfrEvents in the jfr module.
+ */
+public class TestMetrics
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 10000, 100000, 1000000, 10000000 };
+
+        Prototype4 p = new Prototype4();
+        SortMetrics metrics = new SortMetrics();
+
+        System.out.println(",psort,psort with metrics,sort phase,merge phase,copy phase,sort tasks,merge tasks,max queue wait,MB copied");
+
+        for (int dataSize : dataSizes)
+        {
+            int[] data = new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize );
+            int[] target = data.clone();
+            Arrays.sort( target );
+
+            String line = Integer.toString(dataSize);
+
+            for (int instrumented = 0; instrumented <= 1; instrumented++)
+            {
+                p.setMetrics( instrumented == 0 ? null : metrics );
+                metrics.reset();
+                long elapsedTime = 0;
+
+                for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                {
+                    int[] work = data.clone();
+
+                    long startTime = System.nanoTime();
+                    p.psort( work );
+                    elapsedTime += System.nanoTime() - startTime;
+
+                    if ( !Arrays.equals( work, target ) )
+                    {
+                        throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", instrumented=" + instrumented );
+                    }
+                }
+
+                line += "," + seconds(elapsedTime);
+            }
+
+            line += "," + seconds(metrics.getSortPhaseNanos()) + "," + seconds(metrics.getMergePhaseNanos()) + "," + seconds(metrics.getCopyPhaseNanos())
+                    + "," + seconds(metrics.getSortTaskNanos()) + "," + seconds(metrics.getMergeTaskNanos())
+                    + "," + String.format("%.6f", (double)metrics.getMaxQueueWaitNanos() / 1000000000)
+                    + "," + String.format("%.3f", (double)metrics.getBytesCopied() / TEST_REPEAT_COUNT / (1024 * 1024));
+
+            if ( metrics.getSorts() != TEST_REPEAT_COUNT || metrics.getSortedElements() != (long)TEST_REPEAT_COUNT * dataSize )
+            {
+                throw new RuntimeException( "wrong sort counts, dataSize=" + dataSize + ": " + metrics );
+            }
+
+            System.out.println(line);
+        }
+
+        p.shutdown();
+    }
+
+    /**
+     * Returns a time summed over TEST_REPEAT_COUNT sorts as seconds per sort.
+     */
+    static private String seconds(long nanos)
+    {
+        return String.format("%.6f", (double)nanos / TEST_REPEAT_COUNT / 1000000000);
+    }
+
+    public void surfaceTest() throws Exception
+    {
+        int dataSize = 1000000;
+        Prototype4 p = new Prototype4();
+        SortMetrics metrics = new SortMetrics();
+        WorkspacePool workspacePool = new WorkspacePool( WorkspacePool.DEFAULT_MAX_RETAINED_BYTES );
+        p.setMetrics( metrics );
+        p.setWorkspacePool( workspacePool );
+        workspacePool.setMetrics( metrics );
+
+        metrics.register( "TestMetrics" );
+
+        try
+        {
+            p.psort( new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize ) );
+            p.psort( new InputGenerator(dataSize).longs( InputGenerator.Distribution.UNIFORM, dataSize ) );
+
+            Object tasks = ManagementFactory.getPlatformMBeanServer().getAttribute( new ObjectName( "sassort:type=SortMetrics,name=\"TestMetrics\"" ), "Tasks" );
+
+            System.out.println( "metrics: " + metrics );
+            System.out.println( "JMX Tasks: " + tasks + ", events: " + SortEvents.get() );
+
+            if ( metrics.getSorts() != 2 || metrics.getWorkspaceAllocations() != 2 || metrics.getBytesCopied() == 0 )
+            {
+                throw new RuntimeException( "wrong counters: " + metrics );
+            }
+            if ( !Long.valueOf( metrics.getTasks() ).equals( tasks ) )
+            {
+                throw new RuntimeException( "JMX Tasks " + tasks + " differs from " + metrics.getTasks() );
+            }
+        }
+        finally
+        {
+            metrics.unregister();
+            p.shutdown();
+        }
+    }
+
+    static public void main(String[] args) throws Exception
+    {
+        TestMetrics test = new TestMetrics();
+        test.surfaceTest();
+        test.perfTest();
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Performance test program for Prototype4.psort(T[], Comparator).
+ * <p>
+ * Sorts arrays of small records by key with Arrays.sort(), Arrays.parallelSort() and our psort(), on keys of
+ * every {@link InputGenerator} distribution.  Keys are scaled down to a small range so there are many duplicates,
+ * and every psort result is checked for stability: records with equal keys must stay in their original order.
+ */
+public class TestObjects
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    static final private Comparator<Record> BY_KEY = (a, b) -> Integer.compare( a.key, b.key );
+
+    static private class Record
+    {
+        final int key;
+        final int seq;
+
+        Record(int key, int seq)
+        {
+            this.key = key;
+            this.seq = seq;
+        }
+    }
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 10000, 100000, 1000000, 5000000 };
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",input,Arrays.parallelSort,Arrays.sort,psort");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+            {
+                Record[] data = create( input, dataSize );
+
+                String line = dataSize + "," + input;
+
+                // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), >0 for our psort()
+                for (int strategy = -1; strategy <= 1; strategy++)
+                {
+                    long elapsedTime = 0;
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        Record[] work = data.clone();
+
+                        long startTime = System.nanoTime();
+                        if ( strategy > 0 )
+                        {
+                            p.psort( work, BY_KEY );
+                        }
+                        else if ( strategy < 0 )
+                        {
+                            Arrays.parallelSort( work, BY_KEY );
+                        }
+                        else
+                        {
+                            Arrays.sort( work, BY_KEY );
+                        }
+                        elapsedTime += System.nanoTime() - startTime;
+
+                        checkStable( work, dataSize, input, strategy );
+                    }
+
+                    line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                System.out.println(line);
+            }
+        }
+
+        p.shutdown();
+    }
+
+    /**
+     * Records whose keys are the generated ints scaled down, keeping their order, to about size / 16 distinct
+     * values, so that every input has many duplicates.
+     */
+    private Record[] create(InputGenerator.Distribution input, int size)
+    {
+        int[] values = new InputGenerator(size).ints( input, size );
+
+        long lo = Integer.MAX_VALUE;
+        long hi = Integer.MIN_VALUE;
+        for (int value : values)
+        {
+            lo = Math.min(lo, value);
+            hi = Math.max(hi, value);
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, size / 16));
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(hi - lo) - bits);
+
+        Record[] records = new Record[size];
+        for (int d = 0; d < size; d++)
+        {
+            records[d] = new Record( (int)((values[d] - lo) >>> shift), d );
+        }
+        return records;
+    }
+
+    private void checkStable(Record[] sorted, int dataSize, InputGenerator.Distribution input, int strategy)
+    {
+        for (int d = 1; d < sorted.length; d++)
+        {
+            Record a = sorted[d - 1];
+            Record b = sorted[d];
+            if ( a.key > b.key || (a.key == b.key && a.seq > b.seq) )
+            {
+                throw new RuntimeException( "bad data in sorted result at index=" + d + ", dataSize=" + dataSize + ", input=" + input + ", strategy=" + strategy );
+            }
+        }
+    }
+
+    static public void main(String[] args)
+    {
+        new TestObjects().perfTest();
+    }
+}
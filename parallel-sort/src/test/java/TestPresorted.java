@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/**
+ * Performance test program for the natural run detection in Prototype4.psort().
+ * <p>
+ * Runs Arrays.sort(), Arrays.parallelSort(), and psort() with and without the scan for natural runs on every
+ * {@link InputGenerator} distribution with various input array sizes, and checks every result against Arrays.sort.
+ * Sorted, reversed, organ-pipe and sawtooth input should be much faster with the scan; on the others psort should
+ * take the same time either way.
+ */
+public class TestPresorted
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 10000, 100000, 1000000, 10000000 };
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",input,Arrays.parallelSort,Arrays.sort,psort non-adaptive,psort");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+            {
+                int[] data = new InputGenerator(dataSize).ints( input, dataSize );
+                int[] target = data.clone();
+                Arrays.sort( target );
+
+                String line = dataSize + "," + input;
+
+                // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), 1 for psort() without the run scan,
+                // 2 for psort()
+                for (int strategy = -1; strategy <= 2; strategy++)
+                {
+                    long elapsedTime = 0;
+
+                    p.setAdaptive( strategy == 2 );
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        int[] work = data.clone();
+
+                        long startTime = System.nanoTime();
+                        if ( strategy < 0 ) Arrays.parallelSort( work ); else if ( strategy == 0 ) Arrays.sort( work ); else p.psort( work );
+                        elapsedTime += System.nanoTime() - startTime;
+
+                        if ( !Arrays.equals( work, target ) )
+                        {
+                            throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", input=" + input + ", strategy=" + strategy );
+                        }
+                    }
+
+                    line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                System.out.println(line);
+            }
+        }
+
+        p.shutdown();
+    }
+
+    static public void main(String[] args)
+    {
+        new TestPresorted().perfTest();
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Performance test program for the primitive psort overloads of Prototype4.
+ * <p>
+ * Sorts long[], double[], float[], short[], char[] and byte[] data of every {@link InputGenerator} distribution
+ * with Prototype4.psort(), Arrays.sort() and Arrays.parallelSort(), and checks every psort result against
+ * Arrays.sort.  The narrower types are the generated ints scaled down to their range, keeping their order.  In the
+ * uniform input about 1 in 10 of the doubles and floats are NaN, -0.0, 0.0 or an infinity, so the check also covers
+ * their ordering.
+ */
+public class TestPrimitives
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    static final private double[] SPECIALS = { Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY };
+
+    private Prototype4 p = new Prototype4();
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 1000, 100000, 1000000, 10000000 };
+        String[] types = { "long", "double", "float", "short", "char", "byte" };
+
+        System.out.println(",type,input,Arrays.parallelSort,Arrays.sort,psort");
+
+        for (int dataSize : dataSizes)
+        {
+            for (String type : types)
+            {
+                for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+                {
+                    Object data = create( type, input, dataSize );
+
+                    // Clone and sort with Arrays.sort to create a known good result to verify result against.
+                    Object target = copy( data );
+                    sort( target, 0 );
+
+                    String line = dataSize + "," + type + "," + input;
+
+                    for (int strategy = -1; strategy <= 1; strategy++)
+                    {
+                        long elapsedTime = 0;
+
+                        for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                        {
+                            Object work = copy( data );
+                            long startTime = System.nanoTime();
+                            sort( work, strategy );
+                            elapsedTime += System.nanoTime() - startTime;
+
+                            if ( !equal( work, target ) )
+                            {
+                                throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", type=" + type + ", input=" + input + ", strategy=" + strategy );
+                            }
+                        }
+
+                        line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                    }
+
+                    System.out.println(line);
+                }
+            }
+        }
+    }
+
+    private Object create(String type, InputGenerator.Distribution input, int size)
+    {
+        InputGenerator generator = new InputGenerator(size);
+        Random random = new Random(size);
+        boolean specials = input == InputGenerator.Distribution.UNIFORM;
+
+        switch (type)
+        {
+            case "long":
+            {
+                return generator.longs( input, size );
+            }
+            case "double":
+            {
+                long[] values = generator.longs( input, size );
+                double[] data = new double[size];
+                for (int d = 0; d < size; d++) data[d] = specials && random.nextInt(10) == 0 ? SPECIALS[random.nextInt(SPECIALS.length)] : values[d];
+                return data;
+            }
+            case "float":
+            {
+                int[] values = generator.ints( input, size );
+                float[] data = new float[size];
+                for (int d = 0; d < size; d++) data[d] = specials && random.nextInt(10) == 0 ? (float)SPECIALS[random.nextInt(SPECIALS.length)] : values[d];
+                return data;
+            }
+            case "short":
+            {
+                int[] values = narrow( generator.ints( input, size ), Short.MIN_VALUE, 16 );
+                short[] data = new short[size];
+                for (int d = 0; d < size; d++) data[d] = (short)values[d];
+                return data;
+            }
+            case "char":
+            {
+                int[] values = narrow( generator.ints( input, size ), Character.MIN_VALUE, 16 );
+                char[] data = new char[size];
+                for (int d = 0; d < size; d++) data[d] = (char)values[d];
+                return data;
+            }
+            default:
+            {
+                int[] values = narrow( generator.ints( input, size ), Byte.MIN_VALUE, 8 );
+                byte[] data = new byte[size];
+                for (int d = 0; d < size; d++) data[d] = (byte)values[d];
+                return data;
+            }
+        }
+    }
+
+    /**
+     * Maps ints into [min, min + 2^bits) keeping their order, by dropping low bits of their offset from the
+     * smallest, so a sorted or organ-pipe input is still one for a narrower type.
+     */
+    static private int[] narrow(int[] values, int min, int bits)
+    {
+        long lo = Integer.MAX_VALUE;
+        long hi = Integer.MIN_VALUE;
+        for (int value : values)
+        {
+            lo = Math.min(lo, value);
+            hi = Math.max(hi, value);
+        }
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(hi - lo) - bits);
+
+        int[] narrowed = new int[values.length];
+        for (int d = 0; d < values.length; d++)
+        {
+            narrowed[d] = (int)((values[d] - lo) >>> shift) + min;
+        }
+        return narrowed;
+    }
+
+    // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), >0 for our psort()
+    private void sort(Object data, int strategy)
+    {
+        if ( data instanceof long[] )
+        {
+            if ( strategy < 0 ) Arrays.parallelSort( (long[])data ); else if ( strategy == 0 ) Arrays.sort( (long[])data ); else p.psort( (long[])data );
+        }
+        else if ( data instanceof double[] )
+        {
+            if ( strategy < 0 ) Arrays.parallelSort( (double[])data ); else if ( strategy == 0 ) Arrays.sort( (double[])data ); else p.psort( (double[])data );
+        }
+        else if ( data instanceof float[] )
+        {
+            if ( strategy < 0 ) Arrays.parallelSort( (float[])data ); else if ( strategy == 0 ) Arrays.sort( (float[])data ); else p.psort( (float[])data );
+        }
+        else if ( data instanceof short[] )
+        {
+            if ( strategy < 0 ) Arrays.parallelSort( (short[])data ); else if ( strategy == 0 ) Arrays.sort( (short[])data ); else p.psort( (short[])data );
+        }
+        else if ( data instanceof char[] )
+        {
+            if ( strategy < 0 ) Arrays.parallelSort( (char[])data ); else if ( strategy == 0 ) Arrays.sort( (char[])data ); else p.psort( (char[])data );
+        }
+        else
+        {
+            if ( strategy < 0 ) Arrays.parallelSort( (byte[])data ); else if ( strategy == 0 ) Arrays.sort( (byte[])data ); else p.psort( (byte[])data );
+        }
+    }
+
+    static private Object copy(Object data)
+    {
+        int length = java.lang.reflect.Array.getLength( data );
+        Object copy = java.lang.reflect.Array.newInstance( data.getClass().getComponentType(), length );
+        System.arraycopy( data, 0, copy, 0, length );
+        return copy;
+    }
+
+    static private boolean equal(Object a, Object b)
+    {
+        // Arrays.equals(double[]) and Arrays.equals(float[]) compare bit patterns, so -0.0 and 0.0 must be in the
+        // same places; NaNs are compared as equal to each other.
+        return Arrays.deepEquals( new Object[] { a }, new Object[] { b } );
+    }
+
+    static public void main(String[] args)
+    {
+        TestPrimitives test = new TestPrimitives();
+        test.perfTest();
+        test.p.shutdown();
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Performance test program for RadixSort.java.
+ * <p>
+ * Runs RadixSort.psort(), Prototype4.psort(), Arrays.sort() and Arrays.parallelSort() on int and long data with
+ * various input array sizes, and checks every result against Arrays.sort.  The inputs cover every
+ * {@link InputGenerator} distribution; the sorted ones have small non-negative values, for which RadixSort skips the
+ * passes over the top digits.
+ */
+public class TestRadixSort
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 1000, 10000, 100000, 1000000, 10000000 };
+        String[] types = { "int", "long" };
+
+        RadixSort radix = new RadixSort();
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",type,input,Arrays.parallelSort,Arrays.sort,Prototype4,RadixSort");
+
+        for (int dataSize : dataSizes)
+        {
+            for (String type : types)
+            {
+                for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+                {
+                    boolean isLong = type.equals( "long" );
+                    InputGenerator generator = new InputGenerator(dataSize);
+
+                    int[] ints = isLong ? new int[0] : generator.ints( input, dataSize );
+                    long[] longs = isLong ? generator.longs( input, dataSize ) : new long[0];
+
+                    int[] intTarget = ints.clone();
+                    Arrays.sort( intTarget );
+                    long[] longTarget = longs.clone();
+                    Arrays.sort( longTarget );
+
+                    String line = dataSize + "," + type + "," + input;
+
+                    // Hackish: <0 for Arrays.parallelSort(), 0 for Arrays.sort(), 1 for Prototype4, 2 for RadixSort
+                    for (int strategy = -1; strategy <= 2; strategy++)
+                    {
+                        long elapsedTime = 0;
+
+                        for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                        {
+                            int[] intWork = ints.clone();
+                            long[] longWork = longs.clone();
+
+                            long startTime = System.nanoTime();
+                            if ( isLong )
+                            {
+                                if ( strategy < 0 ) Arrays.parallelSort( longWork ); else if ( strategy == 0 ) Arrays.sort( longWork ); else if ( strategy == 1 ) p.psort( longWork ); else radix.psort( longWork );
+                            }
+                            else
+                            {
+                                if ( strategy < 0 ) Arrays.parallelSort( intWork ); else if ( strategy == 0 ) Arrays.sort( intWork ); else if ( strategy == 1 ) p.psort( intWork ); else radix.psort( intWork );
+                            }
+                            elapsedTime += System.nanoTime() - startTime;
+
+                            if ( isLong ? !Arrays.equals( longWork, longTarget ) : !Arrays.equals( intWork, intTarget ) )
+                            {
+                                throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", type=" + type + ", input=" + input + ", strategy=" + strategy );
+                            }
+                        }
+
+                        line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                    }
+
+                    System.out.println(line);
+                }
+            }
+        }
+
+        radix.shutdown();
+        p.shutdown();
+    }
+
+    static public void main(String[] args)
+    {
+        new TestRadixSort().perfTest();
+    }
+}
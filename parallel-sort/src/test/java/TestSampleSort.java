@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Performance test program for SampleSort.java.
+ * <p>
+ * Runs SampleSort.psort(), Prototype4.psort() and Arrays.parallelSort() with various input array sizes, and checks
+ * every result against Arrays.sort.  The inputs are every {@link InputGenerator} distribution, and skewed ones of
+ * its own: half the array a single value, only 10 distinct values, and a heavy-tailed distribution where small
+ * values are very common.  These would give hugely unbalanced buckets without the equality buckets.
+ */
+public class TestSampleSort
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    static final private List<String> SKEWED_INPUTS = Arrays.asList( "half-one-value", "10-values", "heavy-tailed" );
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 10000, 100000, 1000000, 10000000 };
+        ArrayList<String> inputs = new ArrayList<>();
+        for (InputGenerator.Distribution distribution : InputGenerator.Distribution.values())
+        {
+            inputs.add( distribution.toString() );
+        }
+        inputs.addAll( SKEWED_INPUTS );
+
+        SampleSort sampleSort = new SampleSort();
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",input,Arrays.parallelSort,Prototype4,SampleSort");
+
+        for (int dataSize : dataSizes)
+        {
+            for (String input : inputs)
+            {
+                int[] data = create( input, dataSize, new Random(dataSize) );
+                int[] target = data.clone();
+                Arrays.sort( target );
+
+                String line = dataSize + "," + input;
+
+                // Hackish: <0 for Arrays.parallelSort(), 1 for Prototype4, 2 for SampleSort
+                for (int strategy : new int[] { -1, 1, 2 })
+                {
+                    long elapsedTime = 0;
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        int[] work = data.clone();
+
+                        long startTime = System.nanoTime();
+                        if ( strategy < 0 )
+                        {
+                            Arrays.parallelSort( work );
+                        }
+                        else if ( strategy == 1 )
+                        {
+                            p.psort( work );
+                        }
+                        else
+                        {
+                            sampleSort.psort( work );
+                        }
+                        elapsedTime += System.nanoTime() - startTime;
+
+                        if ( !Arrays.equals( work, target ) )
+                        {
+                            throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", input=" + input + ", strategy=" + strategy );
+                        }
+                    }
+
+                    line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                System.out.println(line);
+            }
+        }
+
+        sampleSort.shutdown();
+        p.shutdown();
+    }
+
+    private int[] create(String input, int size, Random random)
+    {
+        if ( !SKEWED_INPUTS.contains( input ) )
+        {
+            return new InputGenerator(size).ints( InputGenerator.Distribution.forLabel( input ), size );
+        }
+
+        int[] data = new int[size];
+
+        for (int d = 0; d < size; d++)
+        {
+            switch (input)
+            {
+                case "half-one-value":
+                    data[d] = random.nextBoolean() ? 42 : random.nextInt();
+                    break;
+                case "10-values":
+                    data[d] = random.nextInt( 10 );
+                    break;
+                default:
+                    data[d] = (int)(1 / (random.nextDouble() + 1e-9));
+            }
+        }
+
+        return data;
+    }
+
+    static public void main(String[] args)
+    {
+        new TestSampleSort().perfTest();
+    }
+}
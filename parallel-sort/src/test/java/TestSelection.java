@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+/**
+ * Performance test program for Prototype4.topK(), select() and sortRange().
+ * <p>
+ * Compares getting the 1000 smallest values, the median and a sorted middle 1% of the ranks with a full psort(), on
+ * ints of various array sizes with every {@link InputGenerator} distribution, and checks every result against
+ * Arrays.sort.
+ * <p>
+ * First checks that topK(1000) of 10M reversed and organ-pipe ints, where most values would go through a heap
+ * that only rejects values once it holds small ones, takes no longer than psort() of the same data (best of 3).
+ */
+public class TestSelection
+{
+    static final private int TEST_REPEAT_COUNT = 5;
+
+    static final private int K = 1000;
+
+    public void checkTest()
+    {
+        int dataSize = 10000000;
+        Prototype4 p = new Prototype4();
+
+        for (InputGenerator.Distribution input : new InputGenerator.Distribution[] { InputGenerator.Distribution.REVERSED, InputGenerator.Distribution.ORGAN_PIPE })
+        {
+            int[] data = new InputGenerator(dataSize).ints( input, dataSize );
+            int[] target = data.clone();
+            Arrays.sort( target );
+
+            long psortTime = Long.MAX_VALUE;
+            long topKTime = Long.MAX_VALUE;
+            for (int n = 0; n < 3; n++)
+            {
+                int[] work = data.clone();
+                long startTime = System.nanoTime();
+                p.psort( work );
+                psortTime = Math.min(psortTime, System.nanoTime() - startTime);
+
+                startTime = System.nanoTime();
+                int[] top = p.topK( data, K );
+                topKTime = Math.min(topKTime, System.nanoTime() - startTime);
+
+                if ( !Arrays.equals( top, Arrays.copyOf( target, K ) ) )
+                {
+                    throw new RuntimeException( "bad topK result, input=" + input );
+                }
+            }
+
+            if ( topKTime > psortTime )
+            {
+                throw new RuntimeException( "topK(" + K + ") of " + dataSize + " " + input + " ints took " + topKTime / 1000000 + " ms, psort " + psortTime / 1000000 + " ms" );
+            }
+        }
+
+        p.shutdown();
+        System.out.println("topK check OK");
+    }
+
+    public void perfTest()
+    {
+        int[] dataSizes = { 10000, 100000, 1000000, 10000000, 50000000 };
+
+        Prototype4 p = new Prototype4();
+
+        System.out.println(",input,psort,topK(1000),select(median),sortRange(middle 1%)");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+            {
+                int[] data = new InputGenerator(dataSize).ints( input, dataSize );
+
+                int[] target = data.clone();
+                Arrays.sort( target );
+
+                int median = dataSize / 2;
+                int fromRank = median - dataSize / 200;
+                int toRank = median + dataSize / 200;
+
+                String line = dataSize + "," + input;
+
+                // Hackish: 0 for psort(), 1 for topK(), 2 for select(), 3 for sortRange()
+                for (int strategy = 0; strategy <= 3; strategy++)
+                {
+                    long elapsedTime = 0;
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        int[] work = data.clone();
+                        boolean ok = true;
+
+                        long startTime = System.nanoTime();
+                        if ( strategy == 0 )
+                        {
+                            p.psort( work );
+                            elapsedTime += System.nanoTime() - startTime;
+                            ok = Arrays.equals( work, target );
+                        }
+                        else if ( strategy == 1 )
+                        {
+                            int[] top = p.topK( work, K );
+                            elapsedTime += System.nanoTime() - startTime;
+                            ok = Arrays.equals( top, Arrays.copyOf( target, K ) );
+                        }
+                        else if ( strategy == 2 )
+                        {
+                            int value = p.select( work, median );
+                            elapsedTime += System.nanoTime() - startTime;
+                            ok = value == target[median];
+                        }
+                        else
+                        {
+                            p.sortRange( work, fromRank, toRank );
+                            elapsedTime += System.nanoTime() - startTime;
+                            ok = Arrays.equals( Arrays.copyOfRange( work, fromRank, toRank ), Arrays.copyOfRange( target, fromRank, toRank ) );
+                        }
+
+                        if ( !ok )
+                        {
+                            throw new RuntimeException( "bad data in sorted result, dataSize=" + dataSize + ", input=" + input + ", strategy=" + strategy );
+                        }
+                    }
+
+                    line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                System.out.println(line);
+            }
+        }
+
+        p.shutdown();
+    }
+
+    static public void main(String[] args)
+    {
+        TestSelection test = new TestSelection();
+        test.checkTest();
+        test.perfTest();
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+/**
+ * Performance test program for StreamingSorter.java.
+ * <p>
+ * Feeds ints of every {@link InputGenerator} distribution in batches of various sizes, with a little work per batch
+ * standing in for the network read, and compares two ways of getting them in order: collecting every batch into one
+ * array and sorting it with Prototype4.psort() after the last batch, and appending each batch to a StreamingSorter.
+ * For both it prints the time from the last batch to the first sorted value and the total time until the last sorted
+ * value has been consumed.  Every result is checked against Arrays.sort.
+ */
+public class TestStreamingSorter
+{
+    static final private int TEST_REPEAT_COUNT = 3;
+
+    static final private int DATA_SIZE = 10000000;
+
+    public void perfTest()
+    {
+        int[] batchSizes = { 1000, 100000, 1000000 };
+
+        Prototype4 p = new Prototype4();
+        StreamingSorter streaming = new StreamingSorter();
+
+        System.out.println("input,batch size,psort first,psort total,streaming first,streaming total");
+
+        for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+        {
+            int[] data = new InputGenerator(DATA_SIZE).ints( input, DATA_SIZE );
+            int[] target = data.clone();
+            Arrays.sort( target );
+
+            for (int batchSize : batchSizes)
+            {
+                String line = input + "," + batchSize;
+
+                // Hackish: 0 for collect and psort(), 1 for StreamingSorter
+                for (int strategy = 0; strategy <= 1; strategy++)
+                {
+                    long firstTime = 0;
+                    long totalTime = 0;
+
+                    for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                    {
+                        int[] collected = new int[DATA_SIZE];
+                        int[] batch = new int[batchSize];
+                        long checksum = 0;
+
+                        long startTime = System.nanoTime();
+                        for (int from = 0; from < DATA_SIZE; from += batchSize)
+                        {
+                            int len = Math.min(batchSize, DATA_SIZE - from);
+                            System.arraycopy( data, from, batch, 0, len );
+                            for (int b = 0; b < len; b++)
+                            {
+                                checksum += batch[b];  // stands in for decoding the batch
+                            }
+
+                            if ( strategy == 0 )
+                            {
+                                System.arraycopy( batch, 0, collected, from, len );
+                            }
+                            else
+                            {
+                                streaming.append( batch, 0, len );
+                            }
+                        }
+
+                        long lastBatchTime = System.nanoTime();
+                        PrimitiveIterator.OfInt sorted;
+                        if ( strategy == 0 )
+                        {
+                            p.psort( collected );
+                            sorted = Arrays.stream( collected ).iterator();
+                        }
+                        else
+                        {
+                            sorted = streaming.finish();
+                        }
+
+                        int d = 0;
+                        while ( sorted.hasNext() )
+                        {
+                            int value = sorted.nextInt();
+                            if ( d == 0 )
+                            {
+                                firstTime += System.nanoTime() - lastBatchTime;
+                            }
+                            if ( d >= DATA_SIZE || value != target[d] )
+                            {
+                                throw new RuntimeException( "bad data in sorted result at index=" + d + ", input=" + input + ", batchSize=" + batchSize + ", strategy=" + strategy + ", checksum=" + checksum );
+                            }
+                            d++;
+                        }
+                        totalTime += System.nanoTime() - startTime;
+
+                        if ( d != DATA_SIZE )
+                        {
+                            throw new RuntimeException( "bad data in sorted result: count=" + d + ", input=" + input + ", batchSize=" + batchSize + ", strategy=" + strategy );
+                        }
+                    }
+
+                    line += "," + String.format("%.6f", (double)firstTime / TEST_REPEAT_COUNT / 1000000000);
+                    line += "," + String.format("%.6f", (double)totalTime / TEST_REPEAT_COUNT / 1000000000);
+                }
+
+                System.out.println(line);
+            }
+        }
+
+        streaming.shutdown();
+        p.shutdown();
+    }
+
+    static public void main(String[] args)
+    {
+        new TestStreamingSorter().perfTest();
+    }
+}
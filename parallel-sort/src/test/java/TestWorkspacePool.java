@@ -0,0 +1,128 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocation test program for WorkspacePool.
+ * <p>
+ * Sorts the same size of data of every {@link InputGenerator} distribution repeatedly with Prototype3 and
+ * Prototype4, once with a pool that retains nothing (so every sort allocates a new workspace, the old behaviour) and
+ * once with a pooled workspace, and reports the bytes allocated per sort by all threads in the steady state.  The allocated bytes come from
+ * com.sun.management.ThreadMXBean, so this needs a HotSpot based JVM.
+ */
+public class TestWorkspacePool
+{
+    static final private int WARMUP_COUNT = 5;
+    static final private int TEST_REPEAT_COUNT = 20;
+
+    private com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    public void allocTest()
+    {
+        int[] dataSizes = { 10000, 100000, 1000000, 10000000 };
+
+        System.out.println(",input,Prototype3 unpooled,Prototype3 pooled,Prototype4 unpooled,Prototype4 pooled");
+
+        for (int dataSize : dataSizes)
+        {
+            for (InputGenerator.Distribution input : InputGenerator.Distribution.values())
+            {
+                int[] data = new InputGenerator(dataSize).ints( input, dataSize );
+                int[] target = data.clone();
+                Arrays.sort( target );
+
+                String line = dataSize + "," + input;
+
+                for (int engine = 3; engine <= 4; engine++)
+                {
+                    for (int pooled = 0; pooled <= 1; pooled++)
+                    {
+                        WorkspacePool workspacePool = new WorkspacePool( pooled == 0 ? 0 : WorkspacePool.DEFAULT_MAX_RETAINED_BYTES );
+                        long bytes = measure( engine, workspacePool, data, target );
+                        line += "," + (bytes / TEST_REPEAT_COUNT);
+                    }
+                }
+
+                System.out.println(line);
+            }
+        }
+    }
+
+    private long measure(int engine, WorkspacePool workspacePool, int[] data, int[] target)
+    {
+        Prototype3 p3 = new Prototype3();
+        Prototype4 p4 = new Prototype4();
+        p3.setWorkspacePool( workspacePool );
+        p4.setWorkspacePool( workspacePool );
+
+        int[] work = new int[data.length];
+        long allocated = 0;
+
+        try
+        {
+            for (int n = 0; n < WARMUP_COUNT + TEST_REPEAT_COUNT; n++)
+            {
+                System.arraycopy( data, 0, work, 0, data.length );
+
+                Map<Long, Long> before = allocatedBytes();
+                if ( engine == 3 )
+                {
+                    p3.psort( work );
+                }
+                else
+                {
+                    p4.psort( work );
+                }
+                Map<Long, Long> after = allocatedBytes();
+
+                if ( n >= WARMUP_COUNT )
+                {
+                    // Threads that exited in between are dropped; threads that started count from zero.
+                    for (Map.Entry<Long, Long> thread : after.entrySet())
+                    {
+                        Long start = before.get( thread.getKey() );
+                        allocated += thread.getValue() - (start == null ? 0 : start.longValue());
+                    }
+                }
+
+                if ( !Arrays.equals( work, target ) )
+                {
+                    throw new RuntimeException( "bad data in sorted result, dataSize=" + data.length + ", engine=" + engine );
+                }
+            }
+        }
+        finally
+        {
+            p3.shutdown();
+            p4.shutdown();
+        }
+
+        return allocated;
+    }
+
+    /**
+     * Bytes allocated so far by each live thread, by thread id.
+     */
+    private Map<Long, Long> allocatedBytes()
+    {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes( ids );
+        
+        HashMap<Long, Long> allocated = new HashMap<>();
+        for (int t = 0; t < ids.length; t++)
+        {
+            if ( bytes[t] >= 0 )
+            {
+                allocated.put( ids[t], bytes[t] );
+            }
+        }
+        return allocated;
+    }
+
+    static public void main(String[] args)
+    {
+        new TestWorkspacePool().allocTest();
+        System.exit( 0 );
+    }
+}
@@ -0,0 +1,498 @@
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorKernels.java - leaf sort and merge kernels for int and long arrays on the Vector API
+ * <p>
+ * Loaded by {@link SortKernels#vectorized()}, which falls back to the scalar kernels if this class or the
+ * jdk.incubator.vector module is missing, or if the vectors are narrower than AVX-512's 16 ints: with AVX2 the
+ * networks cost more than they save.  Everything works on vectors of the preferred species, 16 ints or 8 longs with
+ * AVX-512 (and no more on wider hardware, as the networks are unrolled for up to 16 lanes).
+ * <p>
+ * The building blocks are the bitonic networks of Batcher, run across the lanes of one vector.  Each stage
+ * compare-exchanges every lane with a partner lane: a rearrange brings the partner lanes together, min and max
+ * compute both outcomes, and a constant mask blends in the max for the lanes that keep the larger value.  So a
+ * stage is four vector instructions and has no branches.
+ * <pre>
+ * sortVector   the full bitonic sorting network, log2(n) (log2(n) + 1) / 2 stages: sorts one vector
+ * clean        the last log2(n) stages: sorts a bitonic vector
+ * merge step   with a and b sorted, a.min(reverse(b)) and a.max(reverse(b)) are bitonic, and every element
+ *              of the first is at most every element of the second, so after clean() the first is the lowest
+ *              n of the 2n elements and the second the highest n, both sorted
+ * </pre>
+ * A merge of two runs repeats the merge step: it stores the low vector, keeps the high one, and loads the next
+ * vector from the run whose next element is smaller (Inoue et al., "AA-sort", 2007).  A run that ends part way
+ * through a vector is loaded with a mask and padded with MAX_VALUE, which sorts after every real element and, being
+ * equal to any real MAX_VALUE, can't be told apart from one; the stores past the end of the output are masked off.
+ * So merges of any lengths need no scalar tail and no scratch space.
+ * <p>
+ * The leaf sort sorts every vector with sortVector (padding the last one the same way) and then merges runs of n,
+ * 2n, 4n ... elements with the vector merge, between the array and a pooled workspace, copying back at the end if
+ * the number of passes was odd.
+ * <p>
+ * int and long values have no identity beyond their value, so the merges don't need to be stable.
+ * <p>
+ * The long kernels are only half as wide, and even with AVX-512 both measured slower than the scalar ones (a 1M
+ * leaf sort in 0.31 s against 0.24 s, a merge of two 512K runs at 0.066 elements/ns against 0.079), so long arrays
+ * go to the scalar kernels unless TestVector asks for the vector ones to measure them.
+ */
+public class VectorKernels extends SortKernels
+{
+    static final private VectorSpecies<Integer> INTS = species(IntVector.SPECIES_PREFERRED, IntVector.SPECIES_512);
+    static final private VectorSpecies<Long> LONGS = species(LongVector.SPECIES_PREFERRED, LongVector.SPECIES_512);
+    static final private int INT_LANES = INTS.length();
+    static final private int LONG_LANES = LONGS.length();
+
+    static final private IntVector INT_MAX = IntVector.broadcast(INTS, Integer.MAX_VALUE);
+    static final private LongVector LONG_MAX = LongVector.broadcast(LONGS, Long.MAX_VALUE);
+
+    // The networks are unrolled over constant shuffles and masks, which C2 turns into register constants; taken
+    // from an array in a loop they stay boxed objects and the vector operations aren't intrinsified.
+    //
+    // I_Pj pairs lane i with lane i ^ j, I_Fk with lane i ^ (k - 1), its mirror image in a block of k lanes (so
+    // I_F of the lane count reverses the vector), and I_Mj is the lanes with bit j set, which keep the larger
+    // value of each pair.
+
+    static final private VectorShuffle<Integer> I_P1 = VectorShuffle.fromOp(INTS, i -> i ^ 1);
+    static final private VectorShuffle<Integer> I_P2 = VectorShuffle.fromOp(INTS, i -> i ^ (2 & (INT_LANES - 1)));
+    static final private VectorShuffle<Integer> I_P4 = VectorShuffle.fromOp(INTS, i -> i ^ (4 & (INT_LANES - 1)));
+    static final private VectorShuffle<Integer> I_P8 = VectorShuffle.fromOp(INTS, i -> i ^ (8 & (INT_LANES - 1)));
+    static final private VectorShuffle<Integer> I_F4 = VectorShuffle.fromOp(INTS, i -> i ^ (3 & (INT_LANES - 1)));
+    static final private VectorShuffle<Integer> I_F8 = VectorShuffle.fromOp(INTS, i -> i ^ (7 & (INT_LANES - 1)));
+    static final private VectorShuffle<Integer> I_F16 = VectorShuffle.fromOp(INTS, i -> i ^ (15 & (INT_LANES - 1)));
+    static final private VectorShuffle<Integer> I_REVERSE = VectorShuffle.fromOp(INTS, i -> INT_LANES - 1 - i);
+    static final private VectorMask<Integer> I_M1 = lanesWithBit(INTS, 1);
+    static final private VectorMask<Integer> I_M2 = lanesWithBit(INTS, 2);
+    static final private VectorMask<Integer> I_M4 = lanesWithBit(INTS, 4);
+    static final private VectorMask<Integer> I_M8 = lanesWithBit(INTS, 8);
+
+    static final private VectorShuffle<Long> L_P1 = VectorShuffle.fromOp(LONGS, i -> i ^ (1 & (LONG_LANES - 1)));
+    static final private VectorShuffle<Long> L_P2 = VectorShuffle.fromOp(LONGS, i -> i ^ (2 & (LONG_LANES - 1)));
+    static final private VectorShuffle<Long> L_P4 = VectorShuffle.fromOp(LONGS, i -> i ^ (4 & (LONG_LANES - 1)));
+    static final private VectorShuffle<Long> L_F4 = VectorShuffle.fromOp(LONGS, i -> i ^ (3 & (LONG_LANES - 1)));
+    static final private VectorShuffle<Long> L_F8 = VectorShuffle.fromOp(LONGS, i -> i ^ (7 & (LONG_LANES - 1)));
+    static final private VectorShuffle<Long> L_REVERSE = VectorShuffle.fromOp(LONGS, i -> LONG_LANES - 1 - i);
+    static final private VectorMask<Long> L_M1 = lanesWithBit(LONGS, 1);
+    static final private VectorMask<Long> L_M2 = lanesWithBit(LONGS, 2);
+    static final private VectorMask<Long> L_M4 = lanesWithBit(LONGS, 4);
+
+    private final boolean vectorLongs;
+
+    /**
+     * The fewest int lanes {@link SortKernels#vectorized()} accepts.  With 8 (AVX2) both the leaf sort and the merge
+     * measured slower than the scalar kernels, and so did the long kernels with 4; with 16 the int kernels win.
+     */
+    static final int MIN_INT_LANES = 16;
+
+    /**
+     * @throws UnsupportedOperationException if the preferred vectors hold fewer than {@link #MIN_INT_LANES} ints
+     */
+    public VectorKernels()
+    {
+        this(MIN_INT_LANES, false);
+    }
+
+    /**
+     * For TestVector, which checks and times the narrower vectors and the long kernels too.
+     */
+    VectorKernels(int minIntLanes, boolean vectorLongs)
+    {
+        if ( INT_LANES < Math.max(minIntLanes, 4) )
+        {
+            throw new UnsupportedOperationException("vectors of " + INT_LANES + " ints are too short");
+        }
+        this.vectorLongs = vectorLongs;
+    }
+
+    /**
+     * Returns the preferred species, capped at 512 bits (16 ints) as the unrolled networks are.
+     */
+    static private <E> VectorSpecies<E> species(VectorSpecies<E> preferred, VectorSpecies<E> largest)
+    {
+        return preferred.vectorBitSize() > largest.vectorBitSize() ? largest : preferred;
+    }
+
+    static private <E> VectorMask<E> lanesWithBit(VectorSpecies<E> species, int bit)
+    {
+        boolean[] bits = new boolean[species.length()];
+        for (int i = 0; i < bits.length; i++)
+        {
+            bits[i] = (i & bit) != 0;
+        }
+        return VectorMask.fromArray(species, bits, 0);
+    }
+
+    @Override
+    public boolean isVectorized()
+    {
+        return true;
+    }
+
+    // int kernels
+
+    /**
+     * Compare-exchanges every lane with its partner lane, keeping the larger value in the takeMax lanes.
+     */
+    static private IntVector exchange(IntVector v, VectorShuffle<Integer> partner, VectorMask<Integer> takeMax)
+    {
+        IntVector p = v.rearrange(partner);
+        return v.min(p).blend(v.max(p), takeMax);
+    }
+
+    /**
+     * Sorts a vector: for blocks of k = 2, 4 ... lanes, with both halves of each block sorted, compare each lane
+     * with its mirror image in the block, which leaves two bitonic halves, then clean the halves.
+     */
+    static private IntVector sortVector(IntVector v)
+    {
+        v = exchange(v, I_P1, I_M1);
+        v = exchange(v, I_F4, I_M2);
+        v = exchange(v, I_P1, I_M1);
+        if ( INT_LANES >= 8 )
+        {
+            v = exchange(v, I_F8, I_M4);
+            v = exchange(v, I_P2, I_M2);
+            v = exchange(v, I_P1, I_M1);
+        }
+        if ( INT_LANES >= 16 )
+        {
+            v = exchange(v, I_F16, I_M8);
+            v = exchange(v, I_P4, I_M4);
+            v = exchange(v, I_P2, I_M2);
+            v = exchange(v, I_P1, I_M1);
+        }
+        return v;
+    }
+
+    /**
+     * Sorts a bitonic vector.
+     */
+    static private IntVector clean(IntVector v)
+    {
+        if ( INT_LANES >= 16 )
+        {
+            v = exchange(v, I_P8, I_M8);
+        }
+        if ( INT_LANES >= 8 )
+        {
+            v = exchange(v, I_P4, I_M4);
+        }
+        v = exchange(v, I_P2, I_M2);
+        return exchange(v, I_P1, I_M1);
+    }
+
+    /**
+     * Loads arr[i, i + lanes), padded with MAX_VALUE past end.
+     */
+    static private IntVector load(int[] arr, int i, int end)
+    {
+        if ( end - i >= INT_LANES )
+        {
+            return IntVector.fromArray(INTS, arr, i);
+        }
+        VectorMask<Integer> inRange = INTS.indexInRange(i, end);
+        return INT_MAX.blend(IntVector.fromArray(INTS, arr, i, inRange), inRange);
+    }
+
+    /**
+     * Stores the lanes of v that fall before end into arr from i.
+     */
+    static private void store(IntVector v, int[] arr, int i, int end)
+    {
+        if ( end - i >= INT_LANES )
+        {
+            v.intoArray(arr, i);
+        }
+        else if ( i < end )
+        {
+            v.intoArray(arr, i, INTS.indexInRange(i, end));
+        }
+    }
+
+    @Override
+    public void sort(int[] arr, int from, int to)
+    {
+        sort(arr, from, to, WorkspacePool.getShared());
+    }
+
+    @Override
+    public void sort(int[] arr, int from, int to, WorkspacePool workspacePool)
+    {
+        int len = to - from;
+        if ( len < 2 * INT_LANES )
+        {
+            Arrays.sort(arr, from, to);
+            return;
+        }
+
+        for (int i = from; i < to; i += INT_LANES)
+        {
+            store(sortVector(load(arr, i, to)), arr, i, to);
+        }
+
+        int[] work = workspacePool.acquireInts(len);
+        try
+        {
+            int[] src = arr;
+            int[] dst = work;
+            int srcBase = from;
+            int dstBase = 0;
+
+            for (int width = INT_LANES; width < len; width *= 2)
+            {
+                for (int lo = 0; lo < len; lo += 2 * width)
+                {
+                    int mid = Math.min(lo + width, len);
+                    int hi = Math.min(lo + 2 * width, len);
+                    merge(src, srcBase + lo, srcBase + mid, src, srcBase + mid, srcBase + hi, dst, dstBase + lo);
+                }
+
+                int[] tmp = src;
+                src = dst;
+                dst = tmp;
+                int base = srcBase;
+                srcBase = dstBase;
+                dstBase = base;
+            }
+
+            if ( src != arr )
+            {
+                System.arraycopy( work, 0, arr, from, len );
+            }
+        }
+        finally
+        {
+            workspacePool.release(work);
+        }
+    }
+
+    @Override
+    public void merge(int[] src, int[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        merge(src, offset1, offset1 + len1, src, offset2, offset2 + len2, dst, dstOffset);
+    }
+
+    /**
+     * Merges a[ia, aEnd) and b[ib, bEnd) into dst from k.
+     */
+    static private void merge(int[] a, int ia, int aEnd, int[] b, int ib, int bEnd, int[] dst, int k)
+    {
+        if ( ia == aEnd || ib == bEnd )
+        {
+            System.arraycopy( a, ia, dst, k, aEnd - ia );
+            System.arraycopy( b, ib, dst, k + aEnd - ia, bEnd - ib );
+            return;
+        }
+
+        int kEnd = k + (aEnd - ia) + (bEnd - ib);
+        IntVector next = load(a, ia, aEnd);
+        ia = Math.min(ia + INT_LANES, aEnd);
+        IntVector high = load(b, ib, bEnd);
+        ib = Math.min(ib + INT_LANES, bEnd);
+
+        while ( true )
+        {
+            IntVector reversed = high.rearrange(I_REVERSE);
+            store(clean(next.min(reversed)), dst, k, kEnd);
+            k += INT_LANES;
+            high = clean(next.max(reversed));
+
+            if ( ia == aEnd && ib == bEnd )
+            {
+                store(high, dst, k, kEnd);
+                return;
+            }
+
+            if ( ib == bEnd || (ia < aEnd && a[ia] <= b[ib]) )
+            {
+                next = load(a, ia, aEnd);
+                ia = Math.min(ia + INT_LANES, aEnd);
+            }
+            else
+            {
+                next = load(b, ib, bEnd);
+                ib = Math.min(ib + INT_LANES, bEnd);
+            }
+        }
+    }
+
+    // long kernels: the int ones with the element type substituted
+
+    static private LongVector exchange(LongVector v, VectorShuffle<Long> partner, VectorMask<Long> takeMax)
+    {
+        LongVector p = v.rearrange(partner);
+        return v.min(p).blend(v.max(p), takeMax);
+    }
+
+    static private LongVector sortVector(LongVector v)
+    {
+        v = exchange(v, L_P1, L_M1);
+        if ( LONG_LANES >= 4 )
+        {
+            v = exchange(v, L_F4, L_M2);
+            v = exchange(v, L_P1, L_M1);
+        }
+        if ( LONG_LANES >= 8 )
+        {
+            v = exchange(v, L_F8, L_M4);
+            v = exchange(v, L_P2, L_M2);
+            v = exchange(v, L_P1, L_M1);
+        }
+        return v;
+    }
+
+    static private LongVector clean(LongVector v)
+    {
+        if ( LONG_LANES >= 8 )
+        {
+            v = exchange(v, L_P4, L_M4);
+        }
+        if ( LONG_LANES >= 4 )
+        {
+            v = exchange(v, L_P2, L_M2);
+        }
+        return exchange(v, L_P1, L_M1);
+    }
+
+    static private LongVector load(long[] arr, int i, int end)
+    {
+        if ( end - i >= LONG_LANES )
+        {
+            return LongVector.fromArray(LONGS, arr, i);
+        }
+        VectorMask<Long> inRange = LONGS.indexInRange(i, end);
+        return LONG_MAX.blend(LongVector.fromArray(LONGS, arr, i, inRange), inRange);
+    }
+
+    static private void store(LongVector v, long[] arr, int i, int end)
+    {
+        if ( end - i >= LONG_LANES )
+        {
+            v.intoArray(arr, i);
+        }
+        else if ( i < end )
+        {
+            v.intoArray(arr, i, LONGS.indexInRange(i, end));
+        }
+    }
+
+    @Override
+    public void sort(long[] arr, int from, int to)
+    {
+        sort(arr, from, to, WorkspacePool.getShared());
+    }
+
+    @Override
+    public void sort(long[] arr, int from, int to, WorkspacePool workspacePool)
+    {
+        int len = to - from;
+        if ( !vectorLongs || LONG_LANES < 2 || len < 2 * LONG_LANES )
+        {
+            Arrays.sort(arr, from, to);
+            return;
+        }
+
+        for (int i = from; i < to; i += LONG_LANES)
+        {
+            store(sortVector(load(arr, i, to)), arr, i, to);
+        }
+
+        long[] work = workspacePool.acquireLongs(len);
+        try
+        {
+            long[] src = arr;
+            long[] dst = work;
+            int srcBase = from;
+            int dstBase = 0;
+
+            for (int width = LONG_LANES; width < len; width *= 2)
+            {
+                for (int lo = 0; lo < len; lo += 2 * width)
+                {
+                    int mid = Math.min(lo + width, len);
+                    int hi = Math.min(lo + 2 * width, len);
+                    merge(src, srcBase + lo, srcBase + mid, src, srcBase + mid, srcBase + hi, dst, dstBase + lo);
+                }
+
+                long[] tmp = src;
+                src = dst;
+                dst = tmp;
+                int base = srcBase;
+                srcBase = dstBase;
+                dstBase = base;
+            }
+
+            if ( src != arr )
+            {
+                System.arraycopy( work, 0, arr, from, len );
+            }
+        }
+        finally
+        {
+            workspacePool.release(work);
+        }
+    }
+
+    @Override
+    public void merge(long[] src, long[] dst, int offset1, int len1, int offset2, int len2, int dstOffset)
+    {
+        if ( !vectorLongs || LONG_LANES < 2 )
+        {
+            super.merge(src, dst, offset1, len1, offset2, len2, dstOffset);
+            return;
+        }
+        merge(src, offset1, offset1 + len1, src, offset2, offset2 + len2, dst, dstOffset);
+    }
+
+    static private void merge(long[] a, int ia, int aEnd, long[] b, int ib, int bEnd, long[] dst, int k)
+    {
+        if ( ia == aEnd || ib == bEnd )
+        {
+            System.arraycopy( a, ia, dst, k, aEnd - ia );
+            System.arraycopy( b, ib, dst, k + aEnd - ia, bEnd - ib );
+            return;
+        }
+
+        int kEnd = k + (aEnd - ia) + (bEnd - ib);
+        LongVector next = load(a, ia, aEnd);
+        ia = Math.min(ia + LONG_LANES, aEnd);
+        LongVector high = load(b, ib, bEnd);
+        ib = Math.min(ib + LONG_LANES, bEnd);
+
+        while ( true )
+        {
+            LongVector reversed = high.rearrange(L_REVERSE);
+            store(clean(next.min(reversed)), dst, k, kEnd);
+            k += LONG_LANES;
+            high = clean(next.max(reversed));
+
+            if ( ia == aEnd && ib == bEnd )
+            {
+                store(high, dst, k, kEnd);
+                return;
+            }
+
+            if ( ib == bEnd || (ia < aEnd && a[ia] <= b[ib]) )
+            {
+                next = load(a, ia, aEnd);
+                ia = Math.min(ia + LONG_LANES, aEnd);
+            }
+            else
+            {
+                next = load(b, ib, bEnd);
+                ib = Math.min(ib + LONG_LANES, bEnd);
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "vector " + INTS + ", " + (vectorLongs ? "vector " + LONGS : "scalar longs");
+    }
+}
@@ -0,0 +1,226 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test program for {@link VectorKernels}.  After mvn -B package in the parent directory, run it from the vector
+ * directory with
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp target/classes:target/test-classes:../engine/target/test-engine-0.0.1-SNAPSHOT.jar TestVector
+ * </pre>
+ * <p>
+ * Prints the kernels {@link SortKernels#vectorized()} picked, which are the scalar ones without the module or with
+ * vectors narrower than {@link VectorKernels#MIN_INT_LANES}.  With the module it then checks the vector leaf sort and
+ * merge of ints and longs (the long ones, which vectorized() leaves out, turned on for the test) against Arrays.sort
+ * for every length up to a few vectors, with offsets, duplicates and MIN_VALUE / MAX_VALUE, and times the scalar
+ * and vector kernels: the leaf sort of a 1M segment, the merge of two 512K runs in elements per nanosecond, and
+ * whole Prototype4 sorts.  Run it once as it is and once with -XX:UseAVX=2 to compare AVX-512 with AVX2.
+ */
+public class TestVector
+{
+    static final private int WARMUP_COUNT = 30;
+    static final private int TEST_REPEAT_COUNT = 10;
+
+    private SortKernels scalar = SortKernels.scalar();
+    private SortKernels vector;
+
+    public void checkTest()
+    {
+        Random random = new Random(1);
+
+        for (int length = 0; length <= 200; length++)
+        {
+            for (int range : new int[] { 4, 1000, 0 })
+            {
+                int[] ints = new int[length + 3];
+                long[] longs = new long[length + 3];
+                for (int d = 0; d < ints.length; d++)
+                {
+                    ints[d] = range == 0 ? (random.nextInt(8) == 0 ? (random.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE) : random.nextInt()) : random.nextInt(range);
+                    longs[d] = range == 0 ? (random.nextInt(8) == 0 ? (random.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE) : random.nextLong()) : random.nextInt(range);
+                }
+
+                // Leaf sort of [1, length + 1), leaving the elements either side alone.
+
+                int[] sortedInts = ints.clone();
+                int[] targetInts = ints.clone();
+                vector.sort( sortedInts, 1, length + 1 );
+                Arrays.sort( targetInts, 1, length + 1 );
+                long[] sortedLongs = longs.clone();
+                long[] targetLongs = longs.clone();
+                vector.sort( sortedLongs, 1, length + 1 );
+                Arrays.sort( targetLongs, 1, length + 1 );
+
+                if ( !Arrays.equals( sortedInts, targetInts ) || !Arrays.equals( sortedLongs, targetLongs ) )
+                {
+                    throw new RuntimeException( "bad data in sorted result, length=" + length + ", range=" + range );
+                }
+
+                // Merges of every split of [1, length + 1) into dst from 2.
+
+                for (int split = 0; split <= length; split++)
+                {
+                    int[] srcInts = ints.clone();
+                    Arrays.sort( srcInts, 1, 1 + split );
+                    Arrays.sort( srcInts, 1 + split, 1 + length );
+                    int[] mergedInts = new int[length + 4];
+                    int[] expectedInts = new int[length + 4];
+                    vector.merge( srcInts, mergedInts, 1, split, 1 + split, length - split, 2 );
+                    scalar.merge( srcInts, expectedInts, 1, split, 1 + split, length - split, 2 );
+
+                    long[] srcLongs = longs.clone();
+                    Arrays.sort( srcLongs, 1, 1 + split );
+                    Arrays.sort( srcLongs, 1 + split, 1 + length );
+                    long[] mergedLongs = new long[length + 4];
+                    long[] expectedLongs = new long[length + 4];
+                    vector.merge( srcLongs, mergedLongs, 1, split, 1 + split, length - split, 2 );
+                    scalar.merge( srcLongs, expectedLongs, 1, split, 1 + split, length - split, 2 );
+
+                    if ( !Arrays.equals( mergedInts, expectedInts ) || !Arrays.equals( mergedLongs, expectedLongs ) )
+                    {
+                        throw new RuntimeException( "bad data in merged result, length=" + length + ", split=" + split + ", range=" + range );
+                    }
+                }
+            }
+        }
+
+        System.out.println("vector kernels check OK");
+    }
+
+    public void perfTest()
+    {
+        int dataSize = 1 << 20;
+        int[] data = new InputGenerator(dataSize).ints( InputGenerator.Distribution.UNIFORM, dataSize );
+        long[] longData = new InputGenerator(dataSize).longs( InputGenerator.Distribution.UNIFORM, dataSize );
+
+        System.out.println(",scalar,vector");
+
+        String line = "int leaf sort seconds";
+        for (SortKernels kernels : new SortKernels[] { scalar, vector })
+        {
+            long elapsedTime = 0;
+            for (int n = 0; n < WARMUP_COUNT + TEST_REPEAT_COUNT; n++)
+            {
+                int[] work = data.clone();
+                long startTime = System.nanoTime();
+                kernels.sort( work, 0, dataSize );
+                if ( n >= WARMUP_COUNT )
+                {
+                    elapsedTime += System.nanoTime() - startTime;
+                }
+            }
+            line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+        }
+        System.out.println(line);
+
+        line = "long leaf sort seconds";
+        for (SortKernels kernels : new SortKernels[] { scalar, vector })
+        {
+            long elapsedTime = 0;
+            for (int n = 0; n < WARMUP_COUNT + TEST_REPEAT_COUNT; n++)
+            {
+                long[] work = longData.clone();
+                long startTime = System.nanoTime();
+                kernels.sort( work, 0, dataSize );
+                if ( n >= WARMUP_COUNT )
+                {
+                    elapsedTime += System.nanoTime() - startTime;
+                }
+            }
+            line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+        }
+        System.out.println(line);
+
+        int[] runs = data.clone();
+        Arrays.sort( runs, 0, dataSize / 2 );
+        Arrays.sort( runs, dataSize / 2, dataSize );
+        long[] longRuns = longData.clone();
+        Arrays.sort( longRuns, 0, dataSize / 2 );
+        Arrays.sort( longRuns, dataSize / 2, dataSize );
+
+        line = "int merge elements/ns";
+        for (SortKernels kernels : new SortKernels[] { scalar, vector })
+        {
+            int[] dst = new int[dataSize];
+            long elapsedTime = 0;
+            for (int n = 0; n < WARMUP_COUNT + TEST_REPEAT_COUNT; n++)
+            {
+                long startTime = System.nanoTime();
+                kernels.merge( runs, dst, 0, dataSize / 2, dataSize / 2, dataSize / 2, 0 );
+                if ( n >= WARMUP_COUNT )
+                {
+                    elapsedTime += System.nanoTime() - startTime;
+                }
+            }
+            line += "," + String.format("%.3f", (double)dataSize * TEST_REPEAT_COUNT / elapsedTime);
+        }
+        System.out.println(line);
+
+        line = "long merge elements/ns";
+        for (SortKernels kernels : new SortKernels[] { scalar, vector })
+        {
+            long[] dst = new long[dataSize];
+            long elapsedTime = 0;
+            for (int n = 0; n < WARMUP_COUNT + TEST_REPEAT_COUNT; n++)
+            {
+                long startTime = System.nanoTime();
+                kernels.merge( longRuns, dst, 0, dataSize / 2, dataSize / 2, dataSize / 2, 0 );
+                if ( n >= WARMUP_COUNT )
+                {
+                    elapsedTime += System.nanoTime() - startTime;
+                }
+            }
+            line += "," + String.format("%.3f", (double)dataSize * TEST_REPEAT_COUNT / elapsedTime);
+        }
+        System.out.println(line);
+
+        Prototype4 p = new Prototype4();
+
+        for (int size : new int[] { 100000, 1000000, 10000000 })
+        {
+            int[] input = new InputGenerator(size).ints( InputGenerator.Distribution.UNIFORM, size );
+            int[] target = input.clone();
+            Arrays.sort( target );
+
+            line = "psort " + size + " seconds";
+            for (SortKernels kernels : new SortKernels[] { scalar, vector })
+            {
+                p.setKernels( kernels );
+                long elapsedTime = 0;
+                for (int n = 0; n < TEST_REPEAT_COUNT; n++)
+                {
+                    int[] work = input.clone();
+                    long startTime = System.nanoTime();
+                    p.psort( work );
+                    elapsedTime += System.nanoTime() - startTime;
+
+                    if ( !Arrays.equals( work, target ) )
+                    {
+                        throw new RuntimeException( "bad data in sorted result, dataSize=" + size + ", kernels=" + kernels );
+                    }
+                }
+                line += "," + String.format("%.6f", (double)elapsedTime / TEST_REPEAT_COUNT / 1000000000);
+            }
+            System.out.println(line);
+        }
+
+        p.shutdown();
+    }
+
+    static public void main(String[] args)
+    {
+        System.out.println("kernels: " + SortKernels.vectorized());
+        TestVector test = new TestVector();
+        try
+        {
+            // The narrower vectors and the long kernels as well, to see that they still lose.
+            test.vector = new VectorKernels(0, true);
+        }
+        catch ( LinkageError | UnsupportedOperationException ex )
+        {
+            System.out.println("no vector kernels: " + ex);
+            return;
+        }
+        test.checkTest();
+        test.perfTest();
+    }
+}